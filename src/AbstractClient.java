@@ -20,22 +20,25 @@
  * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  * <p>
  */
-import com.sun.net.ssl.internal.ssl.Provider;
 import org.jetbrains.annotations.Nullable;
 import org.w3c.dom.Document;
 
-import javax.net.ssl.*;
 import javax.xml.soap.*;
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.KeyStore;
-import java.security.SecureRandom;
-import java.security.Security;
-import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * A simple base class for CIS web services client.
@@ -59,10 +62,42 @@ public abstract class AbstractClient
 		}
 	}
 
+	/**
+	 * A logger keeping messages in memory until they are flushed to another logger.
+	 * Used to keep the output of clients invoked concurrently grouped and ordered.
+	 */
+	public static class BufferedClientLogger implements IClientLogger
+	{
+		private final StringBuilder m_buffer = new StringBuilder();
+
+		@Override public synchronized void logMessage(String message)
+		{
+			if (m_buffer.length() > 0) {
+				m_buffer.append(LINE_SEPARATOR);
+			}
+			m_buffer.append(message);
+		}
+
+		/**
+		 * Outputs all buffered messages as one single message and clears the buffer
+		 * @param logger The logger to output the messages to
+		 */
+		public synchronized void flushTo(IClientLogger logger)
+		{
+			if (m_buffer.length() > 0) {
+				logger.logMessage(m_buffer.toString());
+				m_buffer.setLength(0);
+			}
+		}
+	}
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
 	//
 	//-----------------------------------------------------------------
 	//  CIS connection parameters
-	//  Please change the values below where appropriate.
+	//  These are the defaults of the monitor configuration (see MonitorConfig):
+	//  please set the values in the configuration file where appropriate.
 	//-----------------------------------------------------------------
 	//
 	/**
@@ -70,7 +105,7 @@ public abstract class AbstractClient
 	 * This can be an IP address (e.g. "196.222.111.23") or the "localhost" string if
 	 * CIS is running on the same machine as this client application.
 	 *
-	 * Please change the value below if CIS is running on a different machine.
+	 * Please set cisHost in the configuration if CIS is running on a different machine.
 	 */
 	protected static final String CIS_HOST = "localhost";
 
@@ -81,8 +116,8 @@ public abstract class AbstractClient
 	 * <webserver host="cis" port="49901" cisjettyroot="../adaptors/webapps" embedded="false"/>
 	 * where 49901 is the default value supplied at installation.
 	 *
-	 * Please change the value below to match the value declared in chsprops.xml on the CIS host
-	 * machine if it has been changed after installation.
+	 * Please set cisPort in the configuration to match the value declared in chsprops.xml
+	 * on the CIS host machine if it has been changed after installation.
 	 */
 	protected static final int CIS_PORT = 49901;
 
@@ -92,25 +127,25 @@ public abstract class AbstractClient
 	 * The CHS user name used to authenticate requests to CIS.
 	 * This must be a valid user login name created in Capital User.
 	 *
-	 * Please change the value below to match the login name
+	 * Please set chsUser in the configuration to match the login name
 	 * of a valid user declared in Capital User.
 	 */
-	private static final String CHS_USER = "system";
+	static final String CHS_USER = "system";
 
 	/**
 	 * The CHS user password used to authenticate requests to CIS.
 	 * This must be a valid user password created in Capital User.
 	 *
-	 * Please change the value below to match the password
+	 * Please set chsPassword in the configuration to match the password
 	 * of a valid user declared in Capital User.
 	 */
-	private static final String CHS_PASSWORD = "manager";
+	static final String CHS_PASSWORD = "manager";
 
 	/**
 	 * The directory used by this client application to store data
 	 * retrieved from CIS (e.g. SVG diagrams)
 	 *
-	 * Please change the value below to an existing directory.
+	 * Please set outputDirectory in the configuration to an existing directory.
 	 */
 	protected static final String OUTPUT_DIRECTORY = "C:/temp/CIS";
 
@@ -126,7 +161,7 @@ public abstract class AbstractClient
 	 * This string is to be included in the URL used to send requests
 	 * to CIS (for CHS web services)
 	 */
-	private static final String CIS_CONTEXT = "/chs/cis/";
+	static final String CIS_CONTEXT = "/chs/cis/";
 
 	/**
 	 * The names of the authentication parameters used in the header of each SOAP
@@ -148,6 +183,40 @@ public abstract class AbstractClient
 	private static final String EXTERNAL_NULL_RESPONSE_FAULT =
 			"org.xml.sax.SAXParseException: The root element is required in a well-formed document.";
 
+	/**
+	 * The cache shared by all clients for the responses of cacheable services (none by default)
+	 */
+	private static volatile ResponseCache _responseCache;
+
+	/**
+	 * The transport shared by all clients, applying the retry policy, circuit breakers and hedging
+	 */
+	private static volatile ResilientTransport _resilientTransport = new ResilientTransport();
+
+	/**
+	 * Shares the identical requests in flight at the same time, for cacheable services
+	 */
+	private static volatile SingleFlight _singleFlight = new SingleFlight();
+
+	/**
+	 * The compiled request envelopes, by CHS credentials and request payload template
+	 */
+	private static final ConcurrentHashMap<String, SOAPEnvelopeTemplate> _envelopeTemplates =
+			new ConcurrentHashMap<String, SOAPEnvelopeTemplate>();
+
+	static {
+		// The envelopes compiled with previous credentials are not used anymore
+		ConfigService.addListener(new ConfigService.ConfigListener()
+		{
+			public void configChanged(MonitorConfig oldConfig, MonitorConfig newConfig)
+			{
+				if (!oldConfig.hasSameCredentials(newConfig)) {
+					_envelopeTemplates.clear();
+				}
+			}
+		});
+	}
+
 	private IClientLogger m_logger = new ClientLogger();
 	//
 	//-----------------------------------------------------------------
@@ -184,6 +253,8 @@ public abstract class AbstractClient
 	private boolean m_secureMode = false;
 	private String m_keyStore;
 	private String m_keyPassword;
+	private CISEndpoint m_endpoint;
+	private EndpointGroup m_endpointGroup;
 
 	public void setSecureMode(boolean flag, String key, String password)
 	{
@@ -192,22 +263,148 @@ public abstract class AbstractClient
 		m_keyPassword = password;
 	}
 
+	/**
+	 * Sets the CIS server this client sends its requests to
+	 * @param endpoint The CIS server, or null for the one of the monitor configuration
+	 */
+	public void setEndpoint(CISEndpoint endpoint)
+	{
+		m_endpoint = endpoint;
+	}
+
+	/**
+	 * @return The CIS server this client sends its requests to
+	 */
+	public CISEndpoint getEndpoint()
+	{
+		return m_endpoint != null ? m_endpoint : ConfigService.getConfig().getCISEndpoint();
+	}
+
+	/**
+	 * Sets the equivalent CIS nodes the requests of this client are balanced across.
+	 * The node is selected for each request, instead of the endpoint of this client.
+	 * @param group The CIS nodes, or null to send the requests to the endpoint of this client
+	 */
+	public void setEndpointGroup(EndpointGroup group)
+	{
+		m_endpointGroup = group;
+	}
+
+	public EndpointGroup getEndpointGroup()
+	{
+		return m_endpointGroup;
+	}
+
+	/**
+	 * Copies the connection settings of this client (secure mode, logging mode, endpoints)
+	 * to another client, typically one invoked on behalf of this client.
+	 * @param client The client to configure
+	 */
+	protected void copySettingsTo(AbstractClient client)
+	{
+		client.setSecureMode(m_secureMode, m_keyStore, m_keyPassword);
+		client.loggingMode = loggingMode;
+		client.m_logger = m_logger;
+		client.m_endpoint = m_endpoint;
+		client.m_endpointGroup = m_endpointGroup;
+	}
+
 	/**
 	 * Can be overriden to specify the URL of the web service to be invoked.
-	 * By default, this will return: http://localhost:49901/chs/cis/<service name>
+	 * By default, this will return: http://<endpoint host>:<endpoint port>/chs/cis/<service name>
 	 * @return The URL of the web service to be invoked
 	 * @throws MalformedURLException Software error
 	 */
 	protected URL getServiceURL() throws MalformedURLException
 	{
-		if (m_secureMode) {
-			return new URL("https", CIS_HOST, CIS_SECURE_PORT, CIS_CONTEXT + getWebServiceName());
+		return getEndpoint().getServiceURL(getWebServiceName(), m_secureMode);
+	}
+
+	/**
+	 * Returns the URL a request is sent to
+	 * @param node The node selected for the request, or null if the client has no endpoint group
+	 * @return The URL of the web service to be invoked
+	 * @throws MalformedURLException Software error
+	 */
+	private URL getServiceURL(EndpointGroup.Node node) throws MalformedURLException
+	{
+		if (node == null) {
+			return getServiceURL();
+		}
+		return node.getEndpoint().getServiceURL(getWebServiceName(), m_secureMode);
+	}
+
+	/**
+	 * @return The node a request is sent to (to be released), or null if the client has no endpoint group
+	 */
+	private EndpointGroup.Node acquireNode()
+	{
+		EndpointGroup group = m_endpointGroup;
+		return group != null ? group.acquire() : null;
+	}
+
+	/**
+	 * Sends the hedged requests to another node of the endpoint group than the first request, if possible
+	 * @param node The node the first request is sent to, or null if the client has no endpoint group
+	 * @return The hedge target, or null to send the hedged requests to the same URL
+	 */
+	private ResilientTransport.HedgeTarget newHedgeTarget(final EndpointGroup.Node node)
+	{
+		final EndpointGroup group = m_endpointGroup;
+		if (node == null || group == null) {
+			return null;
+		}
+		return new ResilientTransport.HedgeTarget()
+		{
+			private EndpointGroup.Node m_hedgeNode;
+
+			public URL acquire() throws Exception
+			{
+				m_hedgeNode = group.acquire(node);
+				try {
+					return getServiceURL(m_hedgeNode);
+				}
+				catch (MalformedURLException exc) {
+					m_hedgeNode.cancel();
+					m_hedgeNode = null;
+					throw exc;
+				}
+			}
+
+			public void release(long sendStart, long end, boolean reached)
+			{
+				if (m_hedgeNode != null) {
+					releaseNode(m_hedgeNode, sendStart, end, reached);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Releases the node a request was sent to
+	 * @param node The node
+	 * @param sendStart When the request was sent (System.nanoTime()), or 0 if it was not sent
+	 * @param end When the response was received or the request failed (System.nanoTime())
+	 * @param reached true if the response was received
+	 */
+	private static void releaseNode(EndpointGroup.Node node, long sendStart, long end, boolean reached)
+	{
+		if (sendStart == 0) {
+			node.cancel();
 		}
 		else {
-			return new URL("http", CIS_HOST, CIS_PORT, CIS_CONTEXT + getWebServiceName());
+			node.release(end - sendStart, reached);
 		}
 	}
 
+	/**
+	 * @return The directory used to store data retrieved from CIS, as currently configured
+	 */
+	protected static String getOutputDirectory()
+	{
+		return ConfigService.getConfig().getOutputDirectory();
+	}
+
 	/**
 	 * Invokes the web service
 	 * @param loggingMode If true, request and response SOAP messages will be output
@@ -227,11 +424,87 @@ public abstract class AbstractClient
 	}
 	public void invoke() throws Exception
 	{
-		Document responsePayload = getCISResponse();
-		if (responsePayload != null) {
-			processResponse(responsePayload);
+		ServiceMetrics metrics = ClientMetrics.forService(getWebServiceName());
+		metrics.requestStarted();
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			if (isResponseStreamed()) {
+				streamCISResponse();
+			}
+			else {
+				Document responsePayload = getCISResponse();
+				if (responsePayload != null) {
+					long processStart = System.nanoTime();
+					processResponse(responsePayload);
+					metrics.recordPhase(ServiceMetrics.Phase.PROCESS, System.nanoTime() - processStart);
+				}
+			}
+			succeeded = true;
+		}
+		finally {
+			metrics.requestEnded(System.nanoTime() - start, !succeeded);
+		}
+	}
+	/**
+	 * Invokes the web service without blocking the calling thread,
+	 * processing the response in the common fork-join pool (see invokeAsync(Executor))
+	 * @return The future response payload, completed with null if the response has none
+	 */
+	public CompletableFuture<Document> invokeAsync()
+	{
+		return invokeAsync(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Invokes the web service without blocking the calling thread.
+	 * The request is sent through the non-blocking transport (see AsyncSOAPTransport), then
+	 * the response is checked and passed to processResponse() by the executor.
+	 * Failed requests are retried as by invoke(), after a delay which does not block any thread,
+	 * but slow requests are not hedged (see ResilientTransport.setHedging()).
+	 * Responses are not streamed: isResponseStreamed() is ignored.
+	 * @param executor The executor checking and processing the response
+	 * @return The future response payload, completed with null if the response has none
+	 */
+	public CompletableFuture<Document> invokeAsync(Executor executor)
+	{
+		final ServiceMetrics metrics = ClientMetrics.forService(getWebServiceName());
+		metrics.requestStarted();
+		final long start = System.nanoTime();
+
+		CompletableFuture<Document> response;
+		try {
+			response = getCISResponseAsync(metrics, executor);
+		}
+		catch (Exception exc) {
+			response = new CompletableFuture<Document>();
+			response.completeExceptionally(exc);
 		}
+		return response.thenApplyAsync(new Function<Document, Document>()
+		{
+			public Document apply(Document responsePayload)
+			{
+				if (responsePayload != null) {
+					long processStart = System.nanoTime();
+					try {
+						processResponse(responsePayload);
+					}
+					catch (Exception exc) {
+						throw new CompletionException(exc);
+					}
+					metrics.recordPhase(ServiceMetrics.Phase.PROCESS, System.nanoTime() - processStart);
+				}
+				return responsePayload;
+			}
+		}, executor).whenComplete(new BiConsumer<Document, Throwable>()
+		{
+			public void accept(Document responsePayload, Throwable exc)
+			{
+				metrics.requestEnded(System.nanoTime() - start, exc != null);
+			}
+		});
 	}
+
 	/**
 	 * Called by invoke() and may be overriden to provide adequate processing of the response.
 	 * By default, it simply outputs the payload as XML.
@@ -244,50 +517,564 @@ public abstract class AbstractClient
 	}
 
 	/**
-	 * Called by invoke() to retrieve the response from the CIS web service
-	 * @return The response as a DOM document
-	 * @throws Exception Software configuration problem
+	 * Can be overriden to process the response as it is received rather than as a DOM document.
+	 * If true, invoke() calls processResponseStream() instead of processResponse().
+	 * @return true if the response is to be processed as a stream
 	 */
-	protected Document getCISResponse() throws Exception
+	protected boolean isResponseStreamed()
 	{
-		if (loggingMode) {
-			System.out.println(">>>>>> Web service invokation: " + getServiceURL());
+		return false;
+	}
+
+	/**
+	 * Called by invoke() to process the response content as it is received, if the response is streamed.
+	 * The content is the whole SOAP response, which may be a SOAP fault.
+	 * @param responseContent The SOAP response content
+	 * @throws Exception Invalid response or processing failure
+	 */
+	protected void processResponseStream(InputStream responseContent) throws Exception
+	{
+		throw new UnsupportedOperationException(getClass().getName() + " does not process streamed responses");
+	}
+
+	/**
+	 * Called by invoke() to send the request to the CIS web service and stream the response to processResponseStream()
+	 * @throws Exception Software configuration problem or server problem
+	 */
+	protected void streamCISResponse() throws Exception
+	{
+		final ServiceMetrics metrics = ClientMetrics.forService(getWebServiceName());
+		ResilientTransport transport = _resilientTransport;
+		long buildStart = System.nanoTime();
+		SOAPRequest request = createRequest();
+		metrics.recordPhase(ServiceMetrics.Phase.BUILD, System.nanoTime() - buildStart);
+
+		long sendStart = 0;
+		final long[] processStart = new long[1];
+		for (int attempt = 1; ; attempt++) {
+			EndpointGroup.Node node = acquireNode();
+			try {
+				URL url = getServiceURL(node);
+				if (loggingMode) {
+					logMsg(">>>>>> Web service invokation: " + url);
+				}
+				if (loggingMode && !isWireCaptured() && attempt == 1) {
+					logMsg("");
+					logMsg(">>>>>> Request SOAP message:");
+					logSOAPRequest(request);
+				}
+
+				if ("https".equals(url.getProtocol())) {
+					doTrustToCertificates(m_keyStore, m_keyPassword);
+				}
+				// The response is processed as it is received: the processing time includes the reception
+				sendStart = System.nanoTime();
+				transport.call(request, url, new SOAPTransport.ResponseHandler()
+				{
+					public void handleResponse(InputStream content, String contentType) throws Exception
+					{
+						processStart[0] = System.nanoTime();
+						processResponseStream(content);
+					}
+				});
+				break;
+			}
+			catch (SOAPException exc) {
+				// Once the response is being processed, the request cannot be retried
+				if (processStart[0] != 0 ||
+						!transport.getRetryPolicy().isRetryable(exc, attempt, isIdempotent(), m_endpointGroup != null)) {
+					throw exc;
+				}
+				if (loggingMode) {
+					logMsg(">>>>>> Retrying after failure: " + exc.getMessage());
+				}
+				transport.recordRetry();
+			}
+			finally {
+				if (node != null) {
+					// The node was reached if the response was received, even if its processing failed
+					releaseNode(node, sendStart, processStart[0] != 0 ? processStart[0] : System.nanoTime(),
+							processStart[0] != 0);
+				}
+			}
+			sendStart = 0;
+			transport.getRetryPolicy().waitBeforeRetry(attempt);
+		}
+		long end = System.nanoTime();
+		metrics.recordPhase(ServiceMetrics.Phase.NETWORK, processStart[0] - sendStart);
+		metrics.recordPhase(ServiceMetrics.Phase.PROCESS, end - processStart[0]);
+	}
+
+	/**
+	 * Can be overriden to provide the request payload as a template where parameters appear as "${name}".
+	 * The whole request envelope is then compiled once (see SOAPEnvelopeTemplate) and requests are
+	 * produced from it with the values returned by getRequestParameters(), without XML parsing.
+	 * Clients adding request attachments must not provide a template.
+	 * @return The request payload template, or null to format requests from getRequestPayload()
+	 */
+	protected String getRequestPayloadTemplate()
+	{
+		return null;
+	}
+
+	/**
+	 * Called to provide the values of the parameters of the request payload template
+	 * @return The parameter values, by name
+	 */
+	protected Map<String, String> getRequestParameters()
+	{
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Formats the SOAP request, from the request payload template if there is one
+	 * @return The SOAP request
+	 * @throws Exception Software configuration problem or invalid request payload
+	 */
+	protected SOAPRequest createRequest() throws Exception
+	{
+		String payloadTemplate = getRequestPayloadTemplate();
+		if (payloadTemplate == null) {
+			return SOAPRequest.create(createSOAPRequest());
+		}
+		return SOAPRequest.create(getEnvelopeTemplate(payloadTemplate).render(getRequestParameters()));
+	}
+
+	/**
+	 * Returns the compiled envelope of a request payload template, including the CIS authentication
+	 * @param payloadTemplate The request payload template
+	 * @return The compiled envelope
+	 */
+	private static SOAPEnvelopeTemplate getEnvelopeTemplate(String payloadTemplate)
+	{
+		MonitorConfig config = ConfigService.getConfig();
+		String key = config.getCHSUser() + '\n' + config.getCHSPassword() + '\n' + payloadTemplate;
+		SOAPEnvelopeTemplate template = _envelopeTemplates.get(key);
+		if (template == null) {
+			StringBuilder header = new StringBuilder();
+			for (int i = 0; i < CIS_AUTHENTICATION_PARAMS.length; i++) {
+				String value = i == 0 ? config.getCHSUser() : config.getCHSPassword();
+				header.append("<chs:").append(CIS_AUTHENTICATION_PARAMS[i]).append(" xmlns:chs=\"chs\">")
+						.append(SOAPEnvelopeTemplate.escape(value))
+						.append("</chs:").append(CIS_AUTHENTICATION_PARAMS[i]).append(">");
+			}
+			template = new SOAPEnvelopeTemplate(header.toString(), payloadTemplate);
+			_envelopeTemplates.putIfAbsent(key, template);
 		}
+		return template;
+	}
 
-		// Format the SOAP request message
+	/**
+	 * Formats the SOAP request message, including the CIS authentication and the request attachments
+	 * @return The SOAP request message
+	 * @throws Exception Software configuration problem or invalid request payload
+	 */
+	protected SOAPMessage createSOAPRequest() throws Exception
+	{
 		SOAPMessage requestMsg = WebServiceUtils.newBlankSOAPMessage();
 		Document requestPayload = WebServiceUtils.parseToDOM(new ByteArrayInputStream(getRequestPayload().getBytes("UTF8")));
 		WebServiceUtils.insertXMLPayloadInSOAPMessage(requestPayload, requestMsg);
 		insertCISSOAPAuthentication(requestMsg);
 		addRequestSOAPAttachments(requestMsg);
+		return requestMsg;
+	}
+
+	/**
+	 * Sets the cache shared by all clients for the responses of cacheable services
+	 * @param cache The response cache, or null to disable caching
+	 */
+	public static void setResponseCache(ResponseCache cache)
+	{
+		_responseCache = cache;
+	}
+
+	public static ResponseCache getResponseCache()
+	{
+		return _responseCache;
+	}
+
+	/**
+	 * Sets the transport shared by all clients, applying the retry policy, circuit breakers and hedging
+	 * @param transport The resilient transport
+	 */
+	public static void setResilientTransport(ResilientTransport transport)
+	{
+		_resilientTransport = transport;
+	}
+
+	public static ResilientTransport getResilientTransport()
+	{
+		return _resilientTransport;
+	}
+
+	/**
+	 * Sets how the identical requests of cacheable services in flight at the same time are shared
+	 * @param singleFlight The request sharing, or null to send all requests
+	 */
+	public static void setSingleFlight(SingleFlight singleFlight)
+	{
+		_singleFlight = singleFlight;
+	}
+
+	public static SingleFlight getSingleFlight()
+	{
+		return _singleFlight;
+	}
+
+	/**
+	 * Can be overriden to declare that the request can be processed several times by the server
+	 * with the same effect, so that it can be retried after any failure and hedged
+	 * (see ResilientTransport). Other requests are only retried if they could not be sent.
+	 * @return true if the request is idempotent
+	 */
+	protected boolean isIdempotent()
+	{
+		return false;
+	}
+
+	/**
+	 * Can be overriden to declare that the response only depends on the request payload,
+	 * so that it can be taken from the response cache (see setResponseCache()), or shared with
+	 * identical requests in flight (see setSingleFlight()).
+	 * Attachments are not cached: processResponseAttachments() is not called for cached or shared responses.
+	 * Streamed responses are never cached.
+	 * @return true if the response can be cached
+	 */
+	protected boolean isResponseCacheable()
+	{
+		return false;
+	}
+
+	/**
+	 * Called by invoke() to retrieve the response from the CIS web service,
+	 * or from the response cache if the response is cacheable
+	 * @return The response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	protected Document getCISResponse() throws Exception
+	{
+		ResponseCache cache = _responseCache;
+		if (cache == null || !isResponseCacheable()) {
+			return fetchSharedCISResponse();
+		}
+
+		String server = getEndpoint().getName();
+		String requestPayload = getRequestPayload();
+		Document responsePayload = cache.get(getWebServiceName(), server, requestPayload);
+		if (responsePayload != null) {
+			if (loggingMode) {
+				logMsg(">>>>>> Cached response: " + getServiceURL());
+			}
+			return responsePayload;
+		}
+
+		responsePayload = fetchSharedCISResponse();
+		if (responsePayload != null) {
+			cache.put(getWebServiceName(), server, requestPayload, responsePayload);
+		}
+		return responsePayload;
+	}
+
+	/**
+	 * Sends the request to the CIS web service, or waits for the response to an identical
+	 * request in flight if the response is cacheable
+	 * @return The response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	private Document fetchSharedCISResponse() throws Exception
+	{
+		SingleFlight singleFlight = _singleFlight;
+		if (singleFlight == null || !isResponseCacheable()) {
+			return fetchCISResponse();
+		}
+		return singleFlight.execute(getSingleFlightKey(), new Callable<Document>()
+		{
+			public Document call() throws Exception
+			{
+				return fetchCISResponse();
+			}
+		});
+	}
+
+	/**
+	 * Asynchronous version of fetchSharedCISResponse()
+	 * @param metrics The metrics of the web service
+	 * @param executor The executor checking the response
+	 * @return The future response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	private CompletableFuture<Document> fetchSharedCISResponseAsync(final ServiceMetrics metrics,
+			final Executor executor) throws Exception
+	{
+		SingleFlight singleFlight = _singleFlight;
+		if (singleFlight == null || !isResponseCacheable()) {
+			return fetchCISResponseAsync(metrics, executor);
+		}
+		return singleFlight.executeAsync(getSingleFlightKey(), new Callable<CompletableFuture<Document>>()
+		{
+			public CompletableFuture<Document> call() throws Exception
+			{
+				return fetchCISResponseAsync(metrics, executor);
+			}
+		});
+	}
+
+	/**
+	 * @return The key identifying the requests identical to the request of this client
+	 * @throws Exception Software configuration problem
+	 */
+	private String getSingleFlightKey() throws Exception
+	{
+		return SingleFlight.getKey(getWebServiceName(), getEndpoint().getName(), getRequestPayload());
+	}
+
+	/**
+	 * Asynchronous version of getCISResponse()
+	 * @param metrics The metrics of the web service
+	 * @param executor The executor checking the response
+	 * @return The future response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	private CompletableFuture<Document> getCISResponseAsync(ServiceMetrics metrics, Executor executor)
+			throws Exception
+	{
+		final ResponseCache cache = _responseCache;
+		if (cache == null || !isResponseCacheable()) {
+			return fetchSharedCISResponseAsync(metrics, executor);
+		}
+
+		final String serviceName = getWebServiceName();
+		final String server = getEndpoint().getName();
+		final String requestPayload = getRequestPayload();
+		Document responsePayload = cache.get(serviceName, server, requestPayload);
+		if (responsePayload != null) {
+			if (loggingMode) {
+				logMsg(">>>>>> Cached response: " + getServiceURL());
+			}
+			return CompletableFuture.completedFuture(responsePayload);
+		}
+
+		return fetchSharedCISResponseAsync(metrics, executor).thenApply(new Function<Document, Document>()
+		{
+			public Document apply(Document responsePayload)
+			{
+				if (responsePayload != null) {
+					cache.put(serviceName, server, requestPayload, responsePayload);
+				}
+				return responsePayload;
+			}
+		});
+	}
+
+	/**
+	 * Sends the request to the CIS web service without waiting for the response
+	 * @param metrics The metrics of the web service
+	 * @param executor The executor checking the response
+	 * @return The future response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	private CompletableFuture<Document> fetchCISResponseAsync(final ServiceMetrics metrics, Executor executor)
+			throws Exception
+	{
+		long buildStart = System.nanoTime();
+		final SOAPRequest request = createRequest();
+		final long sendStart = System.nanoTime();
+		metrics.recordPhase(ServiceMetrics.Phase.BUILD, sendStart - buildStart);
+
+		CompletableFuture<SOAPMessage> response = new CompletableFuture<SOAPMessage>();
+		sendSOAPRequestAsync(request, 1, response);
+		return response.thenApplyAsync(new Function<SOAPMessage, Document>()
+		{
+			public Document apply(SOAPMessage responseMsg)
+			{
+				metrics.recordPhase(ServiceMetrics.Phase.NETWORK, System.nanoTime() - sendStart);
+				try {
+					return handleCISResponse(request, responseMsg, metrics);
+				}
+				catch (Exception exc) {
+					throw new CompletionException(exc);
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * Sends one attempt of a request without waiting for the response, and schedules the next attempt
+	 * if it fails and may be retried (see RetryPolicy), as fetchCISResponse() does
+	 * @param request The SOAP request
+	 * @param attempt The number of the attempt, from 1
+	 * @param result Completed with the response of the first successful attempt, or the failure of the last one
+	 */
+	private void sendSOAPRequestAsync(final SOAPRequest request, final int attempt,
+			final CompletableFuture<SOAPMessage> result)
+	{
+		final EndpointGroup.Node node = acquireNode();
+		final URL url;
+		final long attemptStart;
+		CompletableFuture<SOAPMessage> response;
+		try {
+			url = getServiceURL(node);
+			if (loggingMode) {
+				logMsg(">>>>>> Web service invokation: " + url);
+			}
+			if ("https".equals(url.getProtocol())) {
+				doTrustToCertificates(m_keyStore, m_keyPassword);
+			}
+			attemptStart = System.nanoTime();
+			response = _resilientTransport.callAsync(request, url);
+		}
+		catch (Exception exc) {
+			if (node != null) {
+				releaseNode(node, 0, 0, false);
+			}
+			retryAsync(request, attempt, exc, result);
+			return;
+		}
+		response.whenComplete(new BiConsumer<SOAPMessage, Throwable>()
+		{
+			public void accept(SOAPMessage responseMsg, Throwable failure)
+			{
+				Throwable error = failure instanceof CompletionException && failure.getCause() != null
+						? failure.getCause() : failure;
+				if (error == null && responseMsg == null && isResponseExcepted()) {
+					error = new SOAPException("Empty response received from " + url);
+				}
+				if (node != null) {
+					releaseNode(node, attemptStart, System.nanoTime(), error == null);
+				}
+				if (error == null) {
+					result.complete(responseMsg);
+				}
+				else {
+					retryAsync(request, attempt, error, result);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends a request again after a failed attempt if the retry policy allows it, or reports the failure
+	 * @param request The SOAP request
+	 * @param attempt The number of the failed attempt
+	 * @param failure The failure of the attempt
+	 * @param result Completed with the failure if the request is not sent again
+	 */
+	private void retryAsync(final SOAPRequest request, final int attempt, Throwable failure,
+			final CompletableFuture<SOAPMessage> result)
+	{
+		ResilientTransport transport = _resilientTransport;
+		if (!(failure instanceof SOAPException) || !transport.getRetryPolicy().isRetryable((SOAPException) failure,
+				attempt, isIdempotent(), m_endpointGroup != null)) {
+			result.completeExceptionally(failure);
+			return;
+		}
+		if (loggingMode) {
+			logMsg(">>>>>> Retrying after failure: " + failure.getMessage());
+		}
+		transport.recordRetry();
+		transport.scheduleRetry(attempt, new Runnable()
+		{
+			public void run()
+			{
+				try {
+					sendSOAPRequestAsync(request, attempt + 1, result);
+				}
+				catch (Throwable exc) {
+					result.completeExceptionally(exc);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends the request to the CIS web service and retrieves the response
+	 * @return The response as a DOM document
+	 * @throws Exception Software configuration problem
+	 */
+	private Document fetchCISResponse() throws Exception
+	{
+		ServiceMetrics metrics = ClientMetrics.forService(getWebServiceName());
+		ResilientTransport transport = _resilientTransport;
+
+		// Format the SOAP request
+		long buildStart = System.nanoTime();
+		SOAPRequest request = createRequest();
+		long sendStart = System.nanoTime();
+		metrics.recordPhase(ServiceMetrics.Phase.BUILD, sendStart - buildStart);
 
 		// Send the request message to CIS and obtain the reponse:
 		// if the service is synchronous, this will block until the
 		// server has finished processing
-		SOAPMessage responseMsg = sendSOAPRequest(requestMsg, getServiceURL(), isResponseExcepted());
+		long hedgeDelay = isIdempotent() ? transport.getHedgeDelay(metrics.getLatencies(ServiceMetrics.Phase.NETWORK)) : 0;
+		SOAPMessage responseMsg;
+		for (int attempt = 1; ; attempt++) {
+			EndpointGroup.Node node = acquireNode();
+			long attemptStart = 0;
+			boolean reached = false;
+			try {
+				URL url = getServiceURL(node);
+				if (loggingMode) {
+					logMsg(">>>>>> Web service invokation: " + url);
+				}
+				attemptStart = System.nanoTime();
+				responseMsg = sendSOAPRequest(transport, request, url, hedgeDelay, newHedgeTarget(node),
+						isResponseExcepted());
+				reached = true;
+				break;
+			}
+			catch (SOAPException exc) {
+				if (!transport.getRetryPolicy().isRetryable(exc, attempt, isIdempotent(), m_endpointGroup != null)) {
+					throw exc;
+				}
+				if (loggingMode) {
+					logMsg(">>>>>> Retrying after failure: " + exc.getMessage());
+				}
+				transport.recordRetry();
+			}
+			finally {
+				if (node != null) {
+					releaseNode(node, attemptStart, System.nanoTime(), reached);
+				}
+			}
+			transport.getRetryPolicy().waitBeforeRetry(attempt);
+		}
+		metrics.recordPhase(ServiceMetrics.Phase.NETWORK, System.nanoTime() - sendStart);
 
-		if (loggingMode) {
-			System.out.println();
-			System.out.println(">>>>>> Request SOAP message:");
-			requestMsg.writeTo(System.out);
-			System.out.println();
-			System.out.flush();
-
-			System.out.println();
-			System.out.println(">>>>>> Response SOAP message:");
+		return handleCISResponse(request, responseMsg, metrics);
+	}
+
+	/**
+	 * Checks the response received from the CIS web service and extracts its payload,
+	 * whether it was received synchronously or not
+	 * @param request The SOAP request
+	 * @param responseMsg The SOAP response message, or null if the response is empty
+	 * @param metrics The metrics of the web service
+	 * @return The response payload as a DOM document, or null if there is none
+	 * @throws Exception SOAP fault or invalid response
+	 */
+	private Document handleCISResponse(SOAPRequest request, SOAPMessage responseMsg, ServiceMetrics metrics)
+			throws Exception
+	{
+		if (loggingMode && !isWireCaptured()) {
+			logMsg("");
+			logMsg(">>>>>> Request SOAP message:");
+			logSOAPRequest(request);
+
+			logMsg("");
+			logMsg(">>>>>> Response SOAP message:");
 			if (responseMsg == null) {
-				System.out.println("null");
+				logMsg("null");
 			}
 			else if (!hasResponseAttachments()) {
-				responseMsg.writeTo(System.out);
-				System.out.println();
-				System.out.flush();
+				logSOAPMessage(responseMsg);
 			}
 		}
 
+		long parseStart = System.nanoTime();
 		Document responsePayload = null;
 		if (responseMsg != null) {
 			if (WebServiceUtils.isSOAPFault(responseMsg)) {
+				metrics.recordFault();
 				String fault = WebServiceUtils.getSOAPFaultString(responseMsg);
 				if (isResponseExcepted() || !(CIS_NULL_RESPONSE_FAULT.equals(fault) ||
 						EXTERNAL_NULL_RESPONSE_FAULT.equals(fault))) {
@@ -304,10 +1091,42 @@ public abstract class AbstractClient
 				responsePayload = WebServiceUtils.extractXMLPayloadFromSOAPMessage(responseMsg);
 			}
 		}
+		metrics.recordPhase(ServiceMetrics.Phase.PARSE, System.nanoTime() - parseStart);
 
 		return responsePayload;
 	}
 
+	/**
+	 * @return true if the SOAP messages are captured by the transport (see WireCapture),
+	 * in which case they are not output by the logging mode
+	 */
+	private static boolean isWireCaptured()
+	{
+		return WebServiceUtils.getSOAPTransport().getWireCapture() != null;
+	}
+
+	/**
+	 * Outputs a whole SOAP message to the logger
+	 * @param messageSOAP The SOAP message
+	 * @throws Exception SOAP API problem
+	 */
+	private void logSOAPMessage(SOAPMessage messageSOAP) throws Exception
+	{
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		messageSOAP.writeTo(stream);
+		logMsg(stream.toString("UTF8"));
+	}
+
+	/**
+	 * Outputs a whole SOAP request to the logger
+	 * @param request The SOAP request
+	 * @throws Exception SOAP API problem
+	 */
+	private void logSOAPRequest(SOAPRequest request) throws Exception
+	{
+		logMsg(new String(request.toByteArray(), "UTF8"));
+	}
+
 	/**
 	 * Inserts CIS authentication parameters in the SOAP message header
 	 * @param messageSOAP The SOAP message
@@ -322,24 +1141,29 @@ public abstract class AbstractClient
 			header = envelope.addHeader();
 		}
 
+		MonitorConfig config = ConfigService.getConfig();
 		for (int i = 0; i < CIS_AUTHENTICATION_PARAMS.length; i++) {
 			Name elemName = envelope.createName(CIS_AUTHENTICATION_PARAMS[i], "chs", "chs");
 			SOAPHeaderElement elem = header.addHeaderElement(elemName);
-			String value = i == 0 ? CHS_USER : CHS_PASSWORD;
+			String value = i == 0 ? config.getCHSUser() : config.getCHSPassword();
 			elem.addTextNode(value);
 		}
 	}
 
 	/**
 	 * Creates a connection to the web service and invokes it.
-	 * @param messageSOAP The SOAP request message
+	 * @param transport The transport guarding the CIS server
+	 * @param request The SOAP request
 	 * @param url The CIS web server URL
+	 * @param hedgeDelay The delay before the request is sent again if no response is received,
+	 * in nanoseconds (0 to never send it again)
+	 * @param hedgeTarget Provides the server the request is sent to again, or null to send it to the same URL
 	 * @param isResponseExpected Specifies if a response is expected (synchronous) or not (asynchronous)
 	 * @return The response SOAP message
 	 * @throws SOAPException SOAP API problem
 	 */
-	private SOAPMessage sendSOAPRequest(SOAPMessage messageSOAP, URL url, boolean isResponseExpected)
-			throws SOAPException
+	private SOAPMessage sendSOAPRequest(ResilientTransport transport, SOAPRequest request, URL url, long hedgeDelay,
+			ResilientTransport.HedgeTarget hedgeTarget, boolean isResponseExpected) throws SOAPException
 	{
 		SOAPMessage response = null;
 
@@ -348,7 +1172,10 @@ public abstract class AbstractClient
 			{
 				doTrustToCertificates(m_keyStore,m_keyPassword);
 			}
-			response = WebServiceUtils.sendSOAPRequest(messageSOAP, url);
+			response = transport.call(request, url, hedgeDelay, hedgeTarget);
+			if (response == null && isResponseExpected) {
+				throw new SOAPException("Empty response received from " + url);
+			}
 		}
 		catch (SOAPException exc) {
 			// If the service returns no response, the the client will throw the following SOAP exception
@@ -366,69 +1193,22 @@ public abstract class AbstractClient
 
 		return response;
 	}
+	/**
+	 * Configures HTTPS connections with the key store, trusting all server certificates.
+	 * The TLS configuration is only built once per key store (see TLSContext).
+	 * @param keystorePath The key store file path
+	 * @param password The key store password
+	 */
 	public static void doTrustToCertificates(String keystorePath, String password)
 	{
-
 		try {
-			Security.addProvider(new Provider());
-
-			TrustManager[] trustAllCerts = new TrustManager[]{
-					new X509TrustManager()
-					{
-						public X509Certificate[] getAcceptedIssuers()
-						{
-							return null;
-						}
-
-						public void checkServerTrusted(X509Certificate[] certs, String authType)
-						{
-						}
-
-						public void checkClientTrusted(X509Certificate[] certs, String authType)
-						{
-						}
-					}
-			};
-
-			//Environment.WebClientConfiguration config = Environment.getClientConfig();
-			//if (config != null) {
-			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-			InputStream keyInput = null;
-			KeyManager[] keyManagers = null;
-			try {
-				keyInput = new FileInputStream(new File(keystorePath));
-				trustStore.load(keyInput, password.toCharArray());
-				KeyManagerFactory tmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-				tmf.init(trustStore, password.toCharArray());
-				keyManagers = tmf.getKeyManagers();
-			}
-			finally {
-				if (keyInput != null) {
-					keyInput.close();
-				}
-			}
-			//}
-
-			SSLContext sc = SSLContext.getInstance("SSL");
-			sc.init(keyManagers, trustAllCerts, new SecureRandom());
-			HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-			HostnameVerifier hv = new HostnameVerifier()
-			{
-				public boolean verify(String urlHostName, SSLSession session)
-				{
-					if (!urlHostName.equalsIgnoreCase(session.getPeerHost())) {
-						System.out.println("Warning: URL host '" + urlHostName + "' is different to SSLSession host '" +
-								session.getPeerHost() + "'.");
-					}
-					return true;
-				}
-			};
-			HttpsURLConnection.setDefaultHostnameVerifier(hv);
+			TLSContext.forKeyStore(keystorePath, password).install();
 		}
 		catch (Exception e) {
 			System.out.println("Certificatie validation failed - " + e.getMessage());
 		}
 	}
+
 	/**
 	 * Called by getCISResponse() for the client to declare if it expects
 	 * the response payload to be included in SOAP attachments
@@ -469,4 +1249,9 @@ public abstract class AbstractClient
 		m_logger = logger;
 	}
 
+	public IClientLogger getLogger()
+	{
+		return m_logger;
+	}
+
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A logger handing messages to a background writer, so that clients logging concurrently
+ * do not wait for the output stream.
+ *
+ * Messages go through a lock-free ring buffer: any number of threads can log at once, and
+ * the writer thread outputs the queued messages in batches, with a single write and flush
+ * per batch. When the buffer is full, the overflow policy decides whether the logging thread
+ * waits, or the message is dropped. Dropped messages are counted.
+ */
+public class AsyncClientLogger implements AbstractClient.IClientLogger
+{
+	/**
+	 * What happens to a message when the buffer is full
+	 */
+	public enum OverflowPolicy
+	{
+		/** The logging thread waits until the writer makes room */
+		BLOCK,
+		/** The message is dropped */
+		DROP,
+		/** Once the buffer is filled beyond its high water mark, only one message out of
+		 * the sampling interval is kept, and the others are dropped */
+		SAMPLE
+	}
+
+	public static final int DEFAULT_CAPACITY = 8192;
+	public static final int DEFAULT_SAMPLING_INTERVAL = 10;
+
+	private static final int MAX_BATCH_SIZE = 512;
+	private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private final PrintStream m_out;
+	private final OverflowPolicy m_policy;
+	private final int m_mask;
+	private final int m_highWaterMark;
+	private final AtomicReferenceArray<String> m_slots;
+	/** The next sequence to be claimed by a logging thread */
+	private final AtomicLong m_tail = new AtomicLong();
+	/** The next sequence to be written, only updated by the writer thread */
+	private volatile long m_head = 0;
+
+	private final AtomicLong m_written = new AtomicLong();
+	private final AtomicLong m_dropped = new AtomicLong();
+	private final AtomicLong m_sampled = new AtomicLong();
+	private final AtomicLong m_beyondHighWaterMark = new AtomicLong();
+	private volatile int m_samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+
+	private final Thread m_writer;
+	private volatile boolean m_writerWaiting = false;
+	private volatile boolean m_closed = false;
+
+	/**
+	 * Creates a logger writing to the standard output, blocking when the buffer is full
+	 */
+	public AsyncClientLogger()
+	{
+		this(System.out, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * @param out The stream the messages are written to
+	 * @param capacity The number of messages the buffer can hold (rounded up to a power of two)
+	 * @param policy The overflow policy
+	 */
+	public AsyncClientLogger(PrintStream out, int capacity, OverflowPolicy policy)
+	{
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		m_out = out;
+		m_policy = policy;
+		m_mask = size - 1;
+		m_highWaterMark = size - size / 4;
+		m_slots = new AtomicReferenceArray<String>(size);
+
+		m_writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writeMessages();
+			}
+		}, "AsyncClientLogger");
+		m_writer.setDaemon(true);
+		m_writer.start();
+
+		// Write the queued messages before the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				close();
+			}
+		}));
+	}
+
+	/**
+	 * Sets the sampling interval of the SAMPLE policy
+	 * @param interval One message out of this number is kept beyond the high water mark
+	 */
+	public void setSamplingInterval(int interval)
+	{
+		if (interval < 1) {
+			throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+		}
+		m_samplingInterval = interval;
+	}
+
+	@Override public void logMessage(String message)
+	{
+		if (m_closed) {
+			m_dropped.incrementAndGet();
+			return;
+		}
+		if (message == null) {
+			message = "null";
+		}
+
+		long sequence;
+		while (true) {
+			sequence = m_tail.get();
+			long used = sequence - m_head;
+			if (used > m_mask) {
+				if (m_policy != OverflowPolicy.BLOCK) {
+					m_dropped.incrementAndGet();
+					return;
+				}
+				wakeUpWriter();
+				LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+				if (m_closed) {
+					m_dropped.incrementAndGet();
+					return;
+				}
+				continue;
+			}
+			if (m_policy == OverflowPolicy.SAMPLE && used >= m_highWaterMark &&
+					m_beyondHighWaterMark.incrementAndGet() % m_samplingInterval != 0) {
+				m_sampled.incrementAndGet();
+				return;
+			}
+			if (m_tail.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
+
+		// The slot is published once set: the writer waits for it if the sequence is claimed but not set yet
+		m_slots.set((int) sequence & m_mask, message);
+		if (m_writerWaiting) {
+			wakeUpWriter();
+		}
+	}
+
+	private void wakeUpWriter()
+	{
+		m_writerWaiting = false;
+		LockSupport.unpark(m_writer);
+	}
+
+	/**
+	 * The writer thread loop, writing the messages in batches until the logger is closed
+	 */
+	private void writeMessages()
+	{
+		StringBuilder batch = new StringBuilder(8192);
+		while (true) {
+			int count = drainTo(batch);
+			if (count > 0) {
+				m_out.print(batch);
+				m_out.flush();
+				m_written.addAndGet(count);
+				batch.setLength(0);
+			}
+			else if (m_closed && m_head == m_tail.get()) {
+				return;
+			}
+			else {
+				m_writerWaiting = true;
+				// Check again in case a message was published before the flag was set
+				if (m_slots.get((int) m_head & m_mask) == null) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+				}
+				m_writerWaiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Moves the published messages to the batch, in sequence order
+	 * @return The number of messages moved
+	 */
+	private int drainTo(StringBuilder batch)
+	{
+		int count = 0;
+		long head = m_head;
+		while (count < MAX_BATCH_SIZE) {
+			int index = (int) head & m_mask;
+			String message = m_slots.get(index);
+			if (message == null) {
+				break;
+			}
+			m_slots.lazySet(index, null);
+			batch.append(message).append(LINE_SEPARATOR);
+			head++;
+			count++;
+		}
+		m_head = head;
+		return count;
+	}
+
+	/**
+	 * Waits until the messages logged so far are written
+	 * @param timeout The maximum time to wait in milliseconds
+	 * @return true if the messages are written, false if the timeout elapsed
+	 */
+	public boolean flush(long timeout)
+	{
+		long target = m_tail.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (m_head < target) {
+			if (System.nanoTime() >= deadline || !m_writer.isAlive()) {
+				return false;
+			}
+			wakeUpWriter();
+			LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the queued messages and stops the writer thread.
+	 * Messages logged afterwards are dropped.
+	 */
+	public void close()
+	{
+		m_closed = true;
+		wakeUpWriter();
+		try {
+			m_writer.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The number of messages written
+	 */
+	public long getWrittenCount()
+	{
+		return m_written.get();
+	}
+
+	/**
+	 * @return The number of messages dropped because the buffer was full or the logger closed
+	 */
+	public long getDroppedCount()
+	{
+		return m_dropped.get();
+	}
+
+	/**
+	 * @return The number of messages dropped by sampling (SAMPLE policy)
+	 */
+	public long getSampledCount()
+	{
+		return m_sampled.get();
+	}
+
+	public String toString()
+	{
+		return "AsyncClientLogger: policy=" + m_policy + " written=" + m_written.get() +
+				" dropped=" + m_dropped.get() + " sampled=" + m_sampled.get();
+	}
+}
@@ -0,0 +1,620 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.MimeHeader;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP transport for SOAP messages, safe to be used by several threads at once.
+ *
+ * Requests to HTTP URLs are exchanged on asynchronous socket channels served by a few I/O
+ * threads, so that thousands of requests can be in flight without a thread each. One
+ * connection is opened per request ("Connection: close") and closed by the server after
+ * the response: unlike the connections kept alive by SOAPTransport, each request pays for
+ * a TCP handshake, which keeps the exchanges independent of each other and is small next
+ * to the response time of the requests this transport is meant for.
+ * At most a given number of requests per host are in flight at once, the others wait for their turn
+ * without holding a thread. Requests to HTTPS URLs are sent by the blocking SOAPTransport on
+ * a thread pool of that size.
+ * Exchanges are reported to the exchange listeners and captured by the wire capture
+ * of the blocking transport.
+ */
+public class AsyncSOAPTransport
+{
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+	private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+	private final SOAPTransport m_blockingTransport;
+	private final AsynchronousChannelGroup m_group;
+	private final ThreadPoolExecutor m_blockingExecutor;
+	private final ScheduledExecutorService m_timer;
+	private final ConcurrentMap<String, HostQueue> m_hosts = new ConcurrentHashMap<String, HostQueue>();
+	private volatile int m_maxConnectionsPerHost;
+	private volatile long m_connectTimeout = SOAPTransport.DEFAULT_CONNECT_TIMEOUT;
+	private volatile long m_timeout = 0;
+
+	/**
+	 * @param blockingTransport The transport used for HTTPS requests and notified of all exchanges
+	 * @param ioThreads The number of threads serving the HTTP connections
+	 * @param maxConnectionsPerHost The maximum number of concurrent requests per host,
+	 * and the number of threads sending HTTPS requests
+	 * @throws IOException The I/O threads cannot be created
+	 */
+	public AsyncSOAPTransport(SOAPTransport blockingTransport, int ioThreads, int maxConnectionsPerHost) throws IOException
+	{
+		if (maxConnectionsPerHost < 1) {
+			throw new IllegalArgumentException("Invalid number of connections: " + maxConnectionsPerHost);
+		}
+		m_blockingTransport = blockingTransport;
+		m_maxConnectionsPerHost = maxConnectionsPerHost;
+		m_group = AsynchronousChannelGroup.withFixedThreadPool(ioThreads, new DaemonThreadFactory("SOAP-IO"));
+		m_blockingExecutor = new ThreadPoolExecutor(maxConnectionsPerHost, maxConnectionsPerHost, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("SOAP-HTTPS"));
+		m_timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SOAP-Timer"));
+	}
+
+	/**
+	 * Sets the maximum number of concurrent requests per host, and the number of threads sending HTTPS requests.
+	 * Applies to all hosts as their requests complete.
+	 * @param maxConnections The maximum number of concurrent requests
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections)
+	{
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Invalid number of connections: " + maxConnections);
+		}
+		synchronized (m_blockingExecutor) {
+			// The core size may not exceed the maximum size at any time
+			if (maxConnections > m_blockingExecutor.getMaximumPoolSize()) {
+				m_blockingExecutor.setMaximumPoolSize(maxConnections);
+				m_blockingExecutor.setCorePoolSize(maxConnections);
+			}
+			else {
+				m_blockingExecutor.setCorePoolSize(maxConnections);
+				m_blockingExecutor.setMaximumPoolSize(maxConnections);
+			}
+		}
+		m_maxConnectionsPerHost = maxConnections;
+	}
+
+	/**
+	 * Sets how long a connection may take to be established, after which it is closed
+	 * @param timeout The timeout in milliseconds (0 means no timeout)
+	 */
+	public void setConnectTimeout(long timeout)
+	{
+		m_connectTimeout = timeout;
+	}
+
+	/**
+	 * Sets how long a connection may stay idle while a request is sent or a response is received
+	 * @param timeout The timeout in milliseconds (0 means no timeout)
+	 */
+	public void setTimeout(long timeout)
+	{
+		m_timeout = timeout;
+	}
+
+	/**
+	 * Sends a SOAP request without blocking
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @return The future SOAP response message, completed with null if the response is empty,
+	 * or exceptionally with a SOAPException on connection problem, server problem or invalid response
+	 */
+	public CompletableFuture<SOAPMessage> call(final SOAPRequest request, final URL url)
+	{
+		if ("https".equals(url.getProtocol())) {
+			final CompletableFuture<SOAPMessage> response = new CompletableFuture<SOAPMessage>();
+			m_blockingExecutor.execute(new Runnable()
+			{
+				public void run()
+				{
+					try {
+						response.complete(m_blockingTransport.call(request, url));
+					}
+					catch (Throwable exc) {
+						response.completeExceptionally(exc);
+					}
+				}
+			});
+			return response;
+		}
+
+		WireCapture capture = m_blockingTransport.getWireCapture();
+		final Exchange exchange = new Exchange(url, capture != null ? capture.startRecord(url) : null);
+		final HostQueue host = getHostQueue(url);
+		exchange.m_response.whenComplete(new BiConsumer<SOAPMessage, Throwable>()
+		{
+			public void accept(SOAPMessage response, Throwable exc)
+			{
+				host.release();
+			}
+		});
+		host.submit(new Runnable()
+		{
+			public void run()
+			{
+				try {
+					exchange.start(formatRequest(request, url, exchange.m_capture));
+				}
+				catch (Exception exc) {
+					exchange.fail(exc);
+				}
+			}
+		});
+		return exchange.m_response;
+	}
+
+	/**
+	 * Stops the I/O threads, failing the requests in flight
+	 */
+	public void shutdown()
+	{
+		m_blockingExecutor.shutdownNow();
+		m_timer.shutdownNow();
+		try {
+			m_group.shutdownNow();
+		}
+		catch (IOException exc) {
+			// Ignore: the channels are being closed anyway
+		}
+	}
+
+	private HostQueue getHostQueue(URL url)
+	{
+		String key = url.getHost() + ":" + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+		HostQueue host = m_hosts.get(key);
+		if (host == null) {
+			HostQueue newHost = new HostQueue();
+			host = m_hosts.putIfAbsent(key, newHost);
+			if (host == null) {
+				host = newHost;
+			}
+		}
+		return host;
+	}
+
+	/**
+	 * The requests in flight to one host, and those waiting for one of them to complete
+	 */
+	private class HostQueue
+	{
+		private final Queue<Runnable> m_waiting = new ArrayDeque<Runnable>();
+		private int m_active = 0;
+
+		/**
+		 * Starts a request now if the host limit allows it, or once a request in flight completes
+		 * @param start Starts the request
+		 */
+		void submit(Runnable start)
+		{
+			synchronized (this) {
+				if (m_active >= m_maxConnectionsPerHost) {
+					m_waiting.add(start);
+					return;
+				}
+				m_active++;
+			}
+			start.run();
+		}
+
+		/**
+		 * Called when a request completes, to start the waiting requests the host limit now allows
+		 */
+		void release()
+		{
+			synchronized (this) {
+				m_active--;
+			}
+			while (true) {
+				Runnable next;
+				synchronized (this) {
+					if (m_active >= m_maxConnectionsPerHost || m_waiting.isEmpty()) {
+						return;
+					}
+					m_active++;
+					next = m_waiting.poll();
+				}
+				next.run();
+			}
+		}
+	}
+
+	private static ByteBuffer formatRequest(SOAPRequest request, URL url, WireCapture.Record capture)
+			throws IOException, SOAPException
+	{
+		byte[] body = request.toByteArray();
+		if (capture != null) {
+			capture.captureRequest(body, 0, body.length);
+		}
+		MimeHeaders headers = request.getMimeHeaders();
+		StringBuilder head = new StringBuilder(256);
+		head.append("POST ").append(url.getFile().isEmpty() ? "/" : url.getFile()).append(" HTTP/1.1\r\n");
+		head.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1) {
+			head.append(':').append(url.getPort());
+		}
+		head.append("\r\n");
+		for (Iterator<?> iter = headers.getAllHeaders(); iter.hasNext(); ) {
+			MimeHeader header = (MimeHeader) iter.next();
+			if (!"Content-Length".equalsIgnoreCase(header.getName())) {
+				head.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+			}
+		}
+		if (headers.getHeader("SOAPAction") == null) {
+			head.append("SOAPAction: \"\"\r\n");
+		}
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		head.append("Connection: close\r\n\r\n");
+
+		byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+		ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + body.length);
+		buffer.put(headBytes).put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * One request and its response, driven by the completion of the channel operations
+	 */
+	private class Exchange
+	{
+		final URL m_url;
+		final WireCapture.Record m_capture;
+		final CompletableFuture<SOAPMessage> m_response = new CompletableFuture<SOAPMessage>();
+		AsynchronousSocketChannel m_channel;
+		volatile boolean m_connected;
+		volatile ScheduledFuture<?> m_connectTimer;
+		final AtomicBoolean m_failed = new AtomicBoolean();
+		long m_bytesSent;
+		byte[] m_data = new byte[INITIAL_BUFFER_SIZE];
+		int m_size = 0;
+		int m_bodyStart = -1;
+		int m_status;
+		MimeHeaders m_headers;
+		long m_contentLength = -1;
+		boolean m_chunked;
+
+		Exchange(URL url, WireCapture.Record capture)
+		{
+			m_url = url;
+			m_capture = capture;
+		}
+
+		void start(final ByteBuffer request) throws IOException
+		{
+			m_bytesSent = request.remaining();
+			int port = m_url.getPort() != -1 ? m_url.getPort() : m_url.getDefaultPort();
+			m_channel = AsynchronousSocketChannel.open(m_group);
+			final long connectTimeout = m_connectTimeout;
+			if (connectTimeout > 0) {
+				// The channel has no connection timeout of its own: closing it fails the connection
+				m_connectTimer = m_timer.schedule(new Runnable()
+				{
+					public void run()
+					{
+						if (!m_connected) {
+							fail(new SOAPException("Connection to " + m_url + " timed out after " + connectTimeout + " ms"));
+						}
+					}
+				}, connectTimeout, TimeUnit.MILLISECONDS);
+			}
+			m_channel.connect(new InetSocketAddress(m_url.getHost(), port), null, new CompletionHandler<Void, Void>()
+			{
+				public void completed(Void result, Void attachment)
+				{
+					m_connected = true;
+					if (m_connectTimer != null) {
+						m_connectTimer.cancel(false);
+					}
+					write(request);
+				}
+
+				public void failed(Throwable exc, Void attachment)
+				{
+					fail(exc);
+				}
+			});
+		}
+
+		void write(final ByteBuffer request)
+		{
+			m_channel.write(request, m_timeout, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>()
+			{
+				public void completed(Integer count, Void attachment)
+				{
+					if (request.hasRemaining()) {
+						write(request);
+					}
+					else {
+						read();
+					}
+				}
+
+				public void failed(Throwable exc, Void attachment)
+				{
+					fail(exc);
+				}
+			});
+		}
+
+		void read()
+		{
+			if (m_size == m_data.length) {
+				byte[] data = new byte[m_data.length * 2];
+				System.arraycopy(m_data, 0, data, 0, m_size);
+				m_data = data;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(m_data, m_size, m_data.length - m_size);
+			m_channel.read(buffer, m_timeout, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>()
+			{
+				public void completed(Integer count, Void attachment)
+				{
+					try {
+						if (count < 0) {
+							if (m_bodyStart < 0) {
+								throw new SOAPException("Connection closed by " + m_url + " before the response");
+							}
+							if (m_contentLength >= 0 && m_size - m_bodyStart < m_contentLength) {
+								throw new SOAPException("Truncated response from " + m_url + ": " + (m_size - m_bodyStart)
+										+ " bytes received out of " + m_contentLength);
+							}
+							complete();
+						}
+						else {
+							m_size += count;
+							if (m_bodyStart < 0) {
+								parseHead();
+							}
+							if (m_bodyStart >= 0 && m_contentLength >= 0 && m_size - m_bodyStart >= m_contentLength) {
+								complete();
+							}
+							else {
+								read();
+							}
+						}
+					}
+					catch (Exception exc) {
+						fail(exc);
+					}
+				}
+
+				public void failed(Throwable exc, Void attachment)
+				{
+					fail(exc);
+				}
+			});
+		}
+
+		/**
+		 * Parses the status line and headers once they are entirely received
+		 */
+		void parseHead() throws SOAPException
+		{
+			int end = indexOf(m_data, m_size, HEADER_END);
+			if (end < 0) {
+				return;
+			}
+			String[] lines;
+			try {
+				lines = new String(m_data, 0, end, "ISO-8859-1").split("\r\n");
+			}
+			catch (IOException exc) {
+				throw new SOAPException(exc);
+			}
+			String[] statusLine = lines[0].split(" ", 3);
+			try {
+				m_status = Integer.parseInt(statusLine[1]);
+			}
+			catch (RuntimeException exc) {
+				throw new SOAPException("Invalid response status from " + m_url + ": " + lines[0]);
+			}
+			m_headers = new MimeHeaders();
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon > 0) {
+					String name = lines[i].substring(0, colon).trim();
+					String value = lines[i].substring(colon + 1).trim();
+					m_headers.addHeader(name, value);
+					if ("Content-Length".equalsIgnoreCase(name)) {
+						m_contentLength = Long.parseLong(value);
+					}
+					else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+						m_chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+					}
+				}
+			}
+			if (m_chunked) {
+				// The server closes the connection after the last chunk
+				m_contentLength = -1;
+			}
+			m_bodyStart = end + HEADER_END.length;
+		}
+
+		void complete() throws IOException, SOAPException
+		{
+			close();
+			byte[] body = m_data;
+			int offset = m_bodyStart;
+			int length = m_contentLength >= 0 ? (int) m_contentLength : m_size - m_bodyStart;
+			if (m_chunked) {
+				body = decodeChunks(m_data, m_bodyStart, m_size);
+				offset = 0;
+				length = body.length;
+			}
+			if (m_capture != null) {
+				m_capture.captureResponse(body, offset, length);
+			}
+
+			// Any success status, or an internal server error for SOAP faults (see SOAPTransport)
+			if ((m_status < 200 || m_status >= 300) && m_status != 500) {
+				throw new SOAPException("Bad response: (" + m_status + ") from " + m_url);
+			}
+			if (m_capture != null) {
+				m_capture.end(true);
+			}
+			m_blockingTransport.fireExchangeCompleted(m_url, m_bytesSent, m_size - m_bodyStart, true);
+			if (length == 0) {
+				m_response.complete(null);
+			}
+			else {
+				m_response.complete(WebServiceUtils.createSOAPMessage(m_headers,
+						new ByteArrayInputStream(body, offset, length)));
+			}
+		}
+
+		void fail(Throwable exc)
+		{
+			// Only the first failure is reported: closing the channel fails the pending operation as well
+			boolean first = !m_response.isDone() && m_failed.compareAndSet(false, true);
+			close();
+			if (!first) {
+				return;
+			}
+			if (m_capture != null) {
+				m_capture.end(false);
+			}
+			m_blockingTransport.fireExchangeCompleted(m_url, m_bytesSent, Math.max(0, m_size - m_bodyStart), false);
+			if (exc instanceof SOAPException) {
+				m_response.completeExceptionally(exc);
+			}
+			else {
+				m_response.completeExceptionally(new SOAPException("Connection to " + m_url + " failed: " + exc, exc));
+			}
+		}
+
+		void close()
+		{
+			if (m_channel != null) {
+				try {
+					m_channel.close();
+				}
+				catch (IOException exc) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	private static int indexOf(byte[] data, int size, byte[] pattern)
+	{
+		for (int i = 0; i <= size - pattern.length; i++) {
+			int j = 0;
+			while (j < pattern.length && data[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a body with the chunked transfer encoding
+	 * @throws SOAPException Invalid chunk, or the body ends before the last chunk
+	 */
+	private static byte[] decodeChunks(byte[] data, int start, int end) throws SOAPException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream(end - start);
+		int pos = start;
+		boolean last = false;
+		while (pos < end) {
+			int lineEnd = pos;
+			while (lineEnd + 1 < end && !(data[lineEnd] == '\r' && data[lineEnd + 1] == '\n')) {
+				lineEnd++;
+			}
+			String sizeLine = new String(data, pos, lineEnd - pos);
+			int extension = sizeLine.indexOf(';');
+			int chunkSize;
+			try {
+				chunkSize = Integer.parseInt((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+			}
+			catch (NumberFormatException exc) {
+				throw new SOAPException("Invalid chunk size: " + sizeLine);
+			}
+			pos = lineEnd + 2;
+			if (chunkSize == 0) {
+				last = true;
+				break;
+			}
+			if (pos + chunkSize > end) {
+				throw new SOAPException("Truncated chunked response");
+			}
+			body.write(data, pos, chunkSize);
+			pos += chunkSize + 2;
+		}
+		if (!last) {
+			// The server closed the connection before the last chunk
+			throw new SOAPException("Truncated chunked response");
+		}
+		return body.toByteArray();
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String m_prefix;
+		private final AtomicInteger m_count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix)
+		{
+			m_prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, m_prefix + "-" + m_count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The address of a CIS server, safe to be shared by several threads.
+ *
+ * Endpoints are written "[name=]host[:port[:securePort]]", the ports defaulting to the
+ * CIS ones, and the name to "host:port".
+ */
+public class CISEndpoint
+{
+	private final String m_name;
+	private final String m_host;
+	private final int m_port;
+	private final int m_securePort;
+
+	/**
+	 * @param name The name identifying the server in the results
+	 * @param host The host of the server
+	 * @param port The HTTP port of the server
+	 * @param securePort The HTTPS port of the server
+	 */
+	public CISEndpoint(String name, String host, int port, int securePort)
+	{
+		m_name = name;
+		m_host = host;
+		m_port = port;
+		m_securePort = securePort;
+	}
+
+	/**
+	 * @param spec An endpoint, as "[name=]host[:port[:securePort]]"
+	 * @return The endpoint
+	 * @throws IllegalArgumentException Invalid endpoint
+	 */
+	public static CISEndpoint parse(String spec)
+	{
+		String name = null;
+		String address = spec.trim();
+		int equals = address.indexOf('=');
+		if (equals >= 0) {
+			name = address.substring(0, equals).trim();
+			address = address.substring(equals + 1).trim();
+		}
+		String[] parts = address.split(":");
+		if (parts.length > 3 || parts[0].isEmpty()) {
+			throw new IllegalArgumentException("Invalid CIS endpoint: " + spec);
+		}
+		try {
+			int port = parts.length > 1 ? Integer.parseInt(parts[1]) : AbstractClient.CIS_PORT;
+			int securePort = parts.length > 2 ? Integer.parseInt(parts[2]) : AbstractClient.CIS_SECURE_PORT;
+			return new CISEndpoint(name != null && !name.isEmpty() ? name : parts[0] + ":" + port,
+					parts[0], port, securePort);
+		}
+		catch (NumberFormatException exc) {
+			throw new IllegalArgumentException("Invalid CIS endpoint port: " + spec);
+		}
+	}
+
+	/**
+	 * @param specs Endpoints separated by commas
+	 * @return The endpoints
+	 * @throws IllegalArgumentException Invalid endpoint
+	 */
+	public static List<CISEndpoint> parseList(String specs)
+	{
+		List<CISEndpoint> endpoints = new ArrayList<CISEndpoint>();
+		for (String spec : specs.split(",")) {
+			if (!spec.trim().isEmpty()) {
+				endpoints.add(parse(spec));
+			}
+		}
+		return endpoints;
+	}
+
+	public String getName()
+	{
+		return m_name;
+	}
+
+	public String getHost()
+	{
+		return m_host;
+	}
+
+	public int getPort()
+	{
+		return m_port;
+	}
+
+	public int getSecurePort()
+	{
+		return m_securePort;
+	}
+
+	/**
+	 * @param webServiceName The name of a CIS web service
+	 * @param secure true for HTTPS
+	 * @return The URL of the web service on this server
+	 * @throws MalformedURLException Invalid host
+	 */
+	public URL getServiceURL(String webServiceName, boolean secure) throws MalformedURLException
+	{
+		if (secure) {
+			return new URL("https", m_host, m_securePort, AbstractClient.CIS_CONTEXT + webServiceName);
+		}
+		return new URL("http", m_host, m_port, AbstractClient.CIS_CONTEXT + webServiceName);
+	}
+
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof CISEndpoint)) {
+			return false;
+		}
+		CISEndpoint other = (CISEndpoint) obj;
+		return m_name.equals(other.m_name) && m_host.equals(other.m_host) &&
+				m_port == other.m_port && m_securePort == other.m_securePort;
+	}
+
+	public int hashCode()
+	{
+		return (m_name.hashCode() * 31 + m_host.hashCode()) * 31 + m_port;
+	}
+
+	public String toString()
+	{
+		return m_name;
+	}
+}
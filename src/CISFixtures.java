@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Realistic CIS response content, generated for benchmarks and for the mock CIS server.
+ */
+public class CISFixtures
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String ENVELOPE_START =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>";
+	private static final String ENVELOPE_END = "</soapenv:Body></soapenv:Envelope>";
+
+	private static final String[] TASK_NAMES = {
+			"LibraryExportTask", "LibraryImportTask", "SymbolLibraryExportTask",
+			"SymbolLibraryImportTask", "DesignExportTask", "DesignImportTask"
+	};
+	private static final String[] TASK_STATUSES = {"SCHEDULED", "RUNNING", "COMPLETED", "FAILED"};
+	private static final String[] RUN_STATUSES = {"RUNNING", "SUCCEEDED", "FAILED"};
+	private static final long BASE_TIME = 1476371234000L;
+
+	/**
+	 * @param index The task index
+	 * @return The identifier of the generated task
+	 */
+	public static String getTaskId(int index)
+	{
+		return String.format("UID%06x-15776fb64da-f528764d624db129b32c21fbca0cb8d6", index);
+	}
+
+	/**
+	 * Generates a ListTasks response payload
+	 * @param taskCount The number of tasks
+	 * @return The payload XML
+	 */
+	public static String listTasksPayload(int taskCount)
+	{
+		StringBuilder payload = new StringBuilder(taskCount * 260 + 32).append("<tasks>");
+		for (int i = 0; i < taskCount; i++) {
+			appendTaskSpec(payload, i);
+		}
+		return payload.append("</tasks>").toString();
+	}
+
+	/**
+	 * Generates a DescribeTask response payload
+	 * @param taskIndex The index of the described task
+	 * @param executionCount The number of task executions
+	 * @return The payload XML
+	 */
+	public static String describeTaskPayload(int taskIndex, int executionCount)
+	{
+		StringBuilder payload = new StringBuilder(executionCount * 280 + 300).append("<tasks>");
+		appendTaskSpec(payload, taskIndex);
+		for (int i = 0; i < executionCount; i++) {
+			long start = BASE_TIME + taskIndex * 60000L + i * 3600000L;
+			long runTime = 1000 + (i * 7919 + taskIndex * 104729) % 600000;
+			payload.append("<taskexec id=\"EXEC").append(taskIndex).append('-').append(i)
+					.append("\" occurr_id=\"").append(i)
+					.append("\" progress_text=\"Processed ").append(i % 100).append(" items")
+					.append("\" progress_perc=\"").append(i % 101)
+					.append("\" runstatus=\"").append(RUN_STATUSES[i % RUN_STATUSES.length])
+					.append("\" run_time=\"").append(runTime)
+					.append("\" start_time=\"").append(start)
+					.append("\" end_time=\"").append(start + runTime)
+					.append("\"/>");
+		}
+		return payload.append("</tasks>").toString();
+	}
+
+	/**
+	 * Wraps a payload in a SOAP response envelope
+	 * @param payload The payload XML
+	 * @return The UTF-8 encoded envelope
+	 */
+	public static byte[] envelope(String payload)
+	{
+		return (ENVELOPE_START + payload + ENVELOPE_END).getBytes(UTF8);
+	}
+
+	/**
+	 * Generates a SOAP fault envelope
+	 * @param faultString The fault error message
+	 * @return The UTF-8 encoded envelope
+	 */
+	public static byte[] faultEnvelope(String faultString)
+	{
+		return envelope("<soapenv:Fault><faultcode>soapenv:Server</faultcode><faultstring>" +
+				SOAPEnvelopeTemplate.escape(faultString) + "</faultstring></soapenv:Fault>");
+	}
+
+	/**
+	 * Generates XML design data of any size, without holding it in memory
+	 * @param size The data size in bytes
+	 * @return The data stream
+	 */
+	public static InputStream attachmentData(long size)
+	{
+		return new GeneratedDataStream(size);
+	}
+
+	private static void appendTaskSpec(StringBuilder payload, int index)
+	{
+		payload.append("<taskspec id=\"").append(getTaskId(index))
+				.append("\" name=\"").append(TASK_NAMES[index % TASK_NAMES.length])
+				.append("\" instance_name=\"").append(TASK_NAMES[index % TASK_NAMES.length]).append('_').append(index)
+				.append("\" cron_expression=\"0 ").append(index % 60).append(" * * * ?")
+				.append("\" status=\"").append(TASK_STATUSES[index % TASK_STATUSES.length])
+				.append("\" submit_time=\"").append(BASE_TIME + index * 60000L)
+				.append("\" username=\"system\"/>");
+	}
+
+	/**
+	 * Repeats a block of XML-like design data up to a given size
+	 */
+	private static class GeneratedDataStream extends InputStream
+	{
+		private static final byte[] BLOCK = ("<component name=\"R1\" type=\"resistor\" value=\"10k\">" +
+				"<pin id=\"1\" net=\"VCC\"/><pin id=\"2\" net=\"GND\"/></component>\n").getBytes(UTF8);
+
+		private final long m_size;
+		private long m_position = 0;
+
+		GeneratedDataStream(long size)
+		{
+			m_size = size;
+		}
+
+		public int read()
+		{
+			return m_position < m_size ? BLOCK[(int) (m_position++ % BLOCK.length)] : -1;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (m_position >= m_size) {
+				return -1;
+			}
+			int count = (int) Math.min(len, m_size - m_position);
+			for (int i = 0; i < count; ) {
+				int blockPos = (int) (m_position % BLOCK.length);
+				int chunk = Math.min(count - i, BLOCK.length - blockPos);
+				System.arraycopy(BLOCK, blockPos, b, off + i, chunk);
+				i += chunk;
+				m_position += chunk;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.SOAPException;
+
+/**
+ * Stops sending requests to a server which keeps failing, so that it is not hit again
+ * by every request while struggling, and the requests fail fast instead of timing out.
+ *
+ * The breaker opens after consecutive failed exchanges. Once open, requests are rejected
+ * until the open time elapses; one trial request is then let through (half-open state):
+ * the breaker closes if it succeeds, and opens again otherwise.
+ * Can be used by several threads at once.
+ */
+public class CircuitBreaker
+{
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_TIME = 30000;
+
+	public enum State {CLOSED, OPEN, HALF_OPEN}
+
+	/**
+	 * The failure of a request rejected by an open circuit breaker: the request was not sent
+	 */
+	public static class OpenException extends SOAPException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public OpenException(String reason)
+		{
+			super(reason);
+		}
+	}
+
+	private final String m_name;
+	private final int m_failureThreshold;
+	private final long m_openTime;
+	private State m_state = State.CLOSED;
+	private int m_failures = 0;
+	private long m_openedAt;
+	private boolean m_trialInProgress = false;
+	private long m_rejected = 0;
+
+	/**
+	 * @param name The name of the server
+	 * @param failureThreshold The number of consecutive failures opening the breaker
+	 * @param openTime The time requests are rejected for once the breaker is open, in milliseconds
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openTime)
+	{
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+		}
+		m_name = name;
+		m_failureThreshold = failureThreshold;
+		m_openTime = openTime;
+	}
+
+	/**
+	 * Checks whether a request may be sent. If so, its outcome must be reported
+	 * through onSuccess() or onFailure().
+	 * @throws OpenException The breaker is open
+	 */
+	public synchronized void acquire() throws OpenException
+	{
+		if (m_state == State.OPEN && System.currentTimeMillis() - m_openedAt >= m_openTime) {
+			m_state = State.HALF_OPEN;
+		}
+		if (m_state == State.OPEN || (m_state == State.HALF_OPEN && m_trialInProgress)) {
+			m_rejected++;
+			throw new OpenException("Circuit breaker open for " + m_name + " after " + m_failureThreshold
+					+ " consecutive failures");
+		}
+		if (m_state == State.HALF_OPEN) {
+			m_trialInProgress = true;
+		}
+	}
+
+	/**
+	 * Reports a successful exchange
+	 */
+	public synchronized void onSuccess()
+	{
+		m_failures = 0;
+		m_trialInProgress = false;
+		m_state = State.CLOSED;
+	}
+
+	/**
+	 * Reports a failed exchange
+	 */
+	public synchronized void onFailure()
+	{
+		m_trialInProgress = false;
+		if (m_state == State.HALF_OPEN || ++m_failures >= m_failureThreshold) {
+			m_state = State.OPEN;
+			m_openedAt = System.currentTimeMillis();
+			m_failures = 0;
+		}
+	}
+
+	public synchronized State getState()
+	{
+		return m_state;
+	}
+
+	/**
+	 * @return The number of requests rejected so far
+	 */
+	public synchronized long getRejectedCount()
+	{
+		return m_rejected;
+	}
+
+	public synchronized String toString()
+	{
+		return m_name + ": " + m_state + ", rejected: " + m_rejected;
+	}
+}
@@ -23,6 +23,9 @@
 //package com.example.webservice.client;
 
 import javax.mail.Session;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -30,12 +33,35 @@ import java.util.Properties;
  */
 public class ClientMain
 {
+	/**
+	 * The time between two health checks of the CIS nodes (see --nodes), in milliseconds
+	 */
+	private static final long HEALTH_CHECK_INTERVAL = 10000;
+
 	public static void main(String[] args)
 	{
+		// The JDK keeps at most this number of idle connections alive per host (see SOAPTransport)
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(SOAPTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+		}
 		try {
 			boolean loggingMode = false;
 			String clientClassName = null;
 			String clientParam = null;
+			int maxInFlight = 1;
+			boolean streamingMode = false;
+			boolean asyncMode = false;
+			long watchInterval = 0;
+			int metricsPort = 0;
+			AsyncClientLogger.OverflowPolicy asyncLogPolicy = null;
+			String captureDirectory = null;
+			String historyDirectory = null;
+			boolean executionStats = false;
+			List<CISEndpoint> servers = null;
+			List<CISEndpoint> nodes = null;
+			EndpointSelector selector = new EndpointSelector.RoundRobin();
+			double hedgePercentile = 0;
+			int maxAttempts = RetryPolicy.DEFAULT_MAX_ATTEMPTS;
 			boolean argError = false;
 
 			// Parse arguments
@@ -44,6 +70,123 @@ public class ClientMain
 				if (args[i].equalsIgnoreCase("-l")) {
 					loggingMode = true;
 				}
+				else if (args[i].equalsIgnoreCase("-s")) {
+					streamingMode = true;
+				}
+				else if (args[i].equalsIgnoreCase("-a")) {
+					// Send the concurrent DescribeTask requests without blocking threads
+					asyncMode = true;
+				}
+				else if (args[i].equalsIgnoreCase("--watch")) {
+					// Keep invoking the client at this interval (in seconds)
+					try {
+						watchInterval = Long.parseLong(args[++i]) * 1000;
+						argError = watchInterval <= 0;
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--async-log")) {
+					// Write the output from a background thread: block, drop or sample when it cannot keep up
+					try {
+						asyncLogPolicy = AsyncClientLogger.OverflowPolicy.valueOf(args[++i].toUpperCase());
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--capture")) {
+					// Capture the SOAP messages exchanged to compressed files in this directory
+					if (i + 1 < args.length) {
+						captureDirectory = args[++i];
+					}
+					else {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--servers")) {
+					// Monitor these CIS servers concurrently: [name=]host[:port[:securePort]],...
+					try {
+						servers = CISEndpoint.parseList(args[++i]);
+						argError = servers.isEmpty();
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--nodes")) {
+					// Balance the requests across these equivalent CIS nodes: [name=]host[:port[:securePort]],...
+					try {
+						nodes = CISEndpoint.parseList(args[++i]);
+						argError = nodes.isEmpty();
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--balance")) {
+					// Node selection policy: round-robin, least-outstanding or ewma
+					try {
+						selector = EndpointGroup.newSelector(args[++i]);
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--hedge")) {
+					// Send read-only requests again when slower than this percentile of their web service (e.g. 95)
+					try {
+						hedgePercentile = Double.parseDouble(args[++i]);
+						argError = hedgePercentile <= 0 || hedgePercentile >= 100;
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--retries")) {
+					// Number of retries of failed requests
+					try {
+						maxAttempts = Integer.parseInt(args[++i]) + 1;
+						argError = maxAttempts < 1;
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--history")) {
+					// Keep the described tasks and executions in this directory, across runs
+					if (i + 1 < args.length) {
+						historyDirectory = args[++i];
+					}
+					else {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("--exec-stats")) {
+					// Output the statistics of the described executions after the invocation
+					executionStats = true;
+				}
+				else if (args[i].equalsIgnoreCase("--metrics-port")) {
+					// Export the metrics in the Prometheus format on this port (http://host:port/metrics)
+					try {
+						metricsPort = Integer.parseInt(args[++i]);
+						argError = metricsPort <= 0;
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
+				else if (args[i].equalsIgnoreCase("-c")) {
+					// Number of concurrent DescribeTask requests sent by ListTaskClient
+					try {
+						maxInFlight = Integer.parseInt(args[++i]);
+						argError = maxInFlight < 1;
+					}
+					catch (RuntimeException e) {
+						argError = true;
+					}
+				}
 				else {
 					if (clientClassName!=null && clientParam!=null) {
 						argError = true;
@@ -72,13 +215,148 @@ public class ClientMain
 					clientClassName = clientClassName;
 				}
 
+				ResilientTransport transport = AbstractClient.getResilientTransport();
+				transport.setRetryPolicy(maxAttempts > 1 ? new RetryPolicy(maxAttempts,
+						RetryPolicy.DEFAULT_BASE_DELAY, RetryPolicy.DEFAULT_MAX_DELAY) : RetryPolicy.NONE);
+				if (hedgePercentile > 0) {
+					transport.setHedging(hedgePercentile, ResilientTransport.DEFAULT_MAX_HEDGE_RATIO);
+					if (asyncMode) {
+						System.err.println("Warning: --hedge does not apply to the DescribeTask requests sent without blocking (-a)");
+					}
+				}
+
 				// Instantiate the client
 				Class clientClass = Class.forName(clientClassName);
 				AbstractClient client = (AbstractClient) clientClass.newInstance();
+				AsyncClientLogger asyncLogger = null;
+				if (asyncLogPolicy != null) {
+					asyncLogger = new AsyncClientLogger(System.out, AsyncClientLogger.DEFAULT_CAPACITY, asyncLogPolicy);
+					client.setLogger(asyncLogger);
+				}
+				if (client instanceof ListTaskClient) {
+					((ListTaskClient) client).setMaxInFlight(maxInFlight);
+					((ListTaskClient) client).setStreamingMode(streamingMode);
+					((ListTaskClient) client).setAsyncMode(asyncMode);
+				}
 
-				// Invoke
+				// Several servers are monitored concurrently, by default those of the configuration
+				MultiServerMonitor monitor = null;
+				if (servers != null && servers.size() == 1) {
+					client.setEndpoint(servers.get(0));
+				}
+				else if (servers == null) {
+					servers = ConfigService.getConfig().getCISEndpoints();
+				}
+				if (client instanceof ListTaskClient && servers.size() > 1) {
+					monitor = new MultiServerMonitor(servers);
+					monitor.setMaxInFlightPerServer(maxInFlight);
+					monitor.setStreamingMode(streamingMode);
+					monitor.setAsyncMode(asyncMode);
+					monitor.setLogger(client.getLogger());
+				}
 
-				client.invoke(loggingMode, clientParam);
+				if (nodes != null && monitor != null) {
+					// The nodes are those of a single server
+					System.err.println("Error: --nodes cannot be used when several servers are monitored");
+					return;
+				}
+
+				if (metricsPort > 0) {
+					ClientMetrics.startHttpExporter(metricsPort);
+				}
+				WireCapture capture = null;
+				if (captureDirectory != null) {
+					capture = new WireCapture(new File(captureDirectory), "soap", WireCapture.DEFAULT_MAX_FILE_SIZE,
+							WireCapture.DEFAULT_MAX_FILES, true);
+					WebServiceUtils.getSOAPTransport().setWireCapture(capture);
+				}
+
+				if (nodes != null) {
+					EndpointGroup group = new EndpointGroup(nodes, selector);
+					group.startHealthChecks(HEALTH_CHECK_INTERVAL, EndpointGroup.DEFAULT_HEALTH_CHECK_TIMEOUT);
+					client.setEndpointGroup(group);
+				}
+
+				ExecutionHistoryStore history = null;
+				if (historyDirectory != null) {
+					if (monitor != null) {
+						monitor.setHistoryDirectory(new File(historyDirectory));
+					}
+					else {
+						history = new ExecutionHistoryStore(new File(historyDirectory));
+						if (client instanceof ListTaskClient) {
+							((ListTaskClient) client).setHistoryStore(history);
+						}
+						else if (client instanceof DescribeTaskClient) {
+							((DescribeTaskClient) client).setHistoryStore(history);
+						}
+					}
+					closeHistoryOnExit(monitor, history);
+				}
+
+				ExecutionMetricsStore executionMetrics = null;
+				if (executionStats) {
+					executionMetrics = new ExecutionMetricsStore();
+					if (history != null) {
+						executionMetrics.addAll(history);
+					}
+					if (monitor != null) {
+						monitor.setExecutionMetricsStore(executionMetrics);
+					}
+					else if (client instanceof ListTaskClient) {
+						((ListTaskClient) client).setExecutionMetricsStore(executionMetrics);
+					}
+					else if (client instanceof DescribeTaskClient) {
+						((DescribeTaskClient) client).setExecutionMetricsStore(executionMetrics);
+					}
+				}
+
+				// Invoke
+				if (monitor != null) {
+					try {
+						if (watchInterval <= 0) {
+							System.err.println(monitor.sweep(loggingMode));
+							if (executionMetrics != null) {
+								System.err.println(executionMetrics);
+							}
+						}
+						else {
+							watch(monitor, loggingMode, watchInterval, executionMetrics);
+						}
+					}
+					finally {
+						ClientMetrics.stopHttpExporter();
+						if (capture != null) {
+							capture.close();
+						}
+						if (asyncLogger != null) {
+							asyncLogger.close();
+						}
+					}
+				}
+				else if (watchInterval <= 0) {
+					try {
+						client.invoke(loggingMode, clientParam);
+						if (executionMetrics != null) {
+							System.err.println(executionMetrics);
+						}
+					}
+					finally {
+						ClientMetrics.stopHttpExporter();
+						if (capture != null) {
+							capture.close();
+						}
+						if (asyncLogger != null) {
+							asyncLogger.close();
+							if (asyncLogger.getDroppedCount() + asyncLogger.getSampledCount() > 0) {
+								System.err.println(asyncLogger);
+							}
+						}
+					}
+				}
+				else {
+					watch(client, loggingMode, clientParam, watchInterval, history, executionMetrics);
+				}
 			}
 		}
 
@@ -86,4 +364,102 @@ public class ClientMain
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Invokes the client repeatedly, until the process is stopped.
+	 * A ListTaskClient only describes the tasks which changed since the previous invocation.
+	 * @param client The client to invoke
+	 * @param loggingMode If true, request and response SOAP messages will be output
+	 * @param clientParam An additional parameter passed to the client
+	 * @param interval The time between the start of two invocations, in milliseconds
+	 * @param history The history store of the client, whose tasks are not described again unless changed,
+	 * or null
+	 * @param executionMetrics The execution metrics store, output after each invocation, or null
+	 * @throws InterruptedException Interrupted while waiting for the next invocation
+	 * @throws IOException The history store cannot be read
+	 */
+	private static void watch(AbstractClient client, boolean loggingMode, String clientParam, long interval,
+							  ExecutionHistoryStore history, ExecutionMetricsStore executionMetrics)
+			throws InterruptedException, IOException
+	{
+		if (client instanceof ListTaskClient) {
+			TaskWatcher watcher = new TaskWatcher();
+			if (history != null) {
+				watcher.seed(history);
+			}
+			((ListTaskClient) client).setTaskWatcher(watcher);
+		}
+
+		while (true) {
+			long start = System.currentTimeMillis();
+			try {
+				client.invoke(loggingMode, clientParam);
+				if (executionMetrics != null) {
+					System.err.println(executionMetrics);
+				}
+			}
+			catch(Exception e) {
+				// Try again at the next interval
+				e.printStackTrace();
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			Thread.sleep(Math.max(0, interval - elapsed));
+		}
+	}
+
+	/**
+	 * Sweeps several CIS servers repeatedly, until the process is stopped.
+	 * Only the tasks which changed on each server since the previous sweep are described.
+	 * @param monitor The monitor of the servers
+	 * @param loggingMode If true, request and response SOAP messages will be output
+	 * @param interval The time between the start of two sweeps, in milliseconds
+	 * @param executionMetrics The execution metrics store, output after each sweep, or null
+	 * @throws InterruptedException Interrupted while waiting for the next sweep
+	 * @throws IOException A history store cannot be read
+	 */
+	private static void watch(MultiServerMonitor monitor, boolean loggingMode, long interval,
+							  ExecutionMetricsStore executionMetrics) throws InterruptedException, IOException
+	{
+		monitor.setWatching(true);
+
+		while (true) {
+			long start = System.currentTimeMillis();
+			try {
+				System.err.println(monitor.sweep(loggingMode));
+				if (executionMetrics != null) {
+					System.err.println(executionMetrics);
+				}
+			}
+			catch(InterruptedException e) {
+				throw e;
+			}
+			catch(Exception e) {
+				// Try again at the next interval
+				e.printStackTrace();
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			Thread.sleep(Math.max(0, interval - elapsed));
+		}
+	}
+
+	/**
+	 * Writes the history stores to the disk when the process exits, including when it is stopped
+	 * @param monitor The monitor of several servers, or null
+	 * @param history The history store of a single server, or null
+	 */
+	private static void closeHistoryOnExit(final MultiServerMonitor monitor, final ExecutionHistoryStore history)
+	{
+		Runtime.getRuntime().addShutdownHook(new Thread("ExecutionHistoryStore")
+		{
+			public void run()
+			{
+				if (monitor != null) {
+					monitor.closeHistoryStores();
+				}
+				if (history != null) {
+					history.close();
+				}
+			}
+		});
+	}
 }
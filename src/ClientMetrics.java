@@ -0,0 +1,251 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of the metrics of the web services invoked by the clients.
+ *
+ * The metrics of each service are registered in the platform MBean server as
+ * TaskMonitor:type=ServiceMetrics,name=(service name), and can be exported in the
+ * Prometheus text format, either by writePrometheus() or by an HTTP endpoint
+ * started with startHttpExporter().
+ */
+public class ClientMetrics
+{
+	private static final String JMX_DOMAIN = "TaskMonitor";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final ConcurrentHashMap<String, ServiceMetrics> _services = new ConcurrentHashMap<String, ServiceMetrics>();
+	private static HttpServer _httpExporter;
+
+	static {
+		// The service name is the last segment of the URL path (see AbstractClient.getServiceURL())
+		WebServiceUtils.getSOAPTransport().addExchangeListener(new SOAPTransport.ExchangeListener()
+		{
+			public void exchangeCompleted(URL url, long bytesSent, long bytesReceived, boolean succeeded)
+			{
+				String path = url.getPath();
+				forService(path.substring(path.lastIndexOf('/') + 1)).recordBytes(bytesSent, bytesReceived);
+			}
+		});
+	}
+
+	/**
+	 * Returns the metrics of a web service, created and registered in JMX at first use
+	 * @param serviceName The web service name
+	 * @return The service metrics
+	 */
+	public static ServiceMetrics forService(String serviceName)
+	{
+		ServiceMetrics metrics = _services.get(serviceName);
+		if (metrics == null) {
+			ServiceMetrics newMetrics = new ServiceMetrics(serviceName);
+			metrics = _services.putIfAbsent(serviceName, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+				registerMBean(metrics);
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return The metrics of all web services invoked so far, by service name
+	 */
+	public static List<ServiceMetrics> getAllServices()
+	{
+		List<ServiceMetrics> services = new ArrayList<ServiceMetrics>(_services.values());
+		Collections.sort(services, new Comparator<ServiceMetrics>()
+		{
+			public int compare(ServiceMetrics metrics1, ServiceMetrics metrics2)
+			{
+				return metrics1.getServiceName().compareTo(metrics2.getServiceName());
+			}
+		});
+		return services;
+	}
+
+	private static void registerMBean(ServiceMetrics metrics)
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(metrics, new ObjectName(JMX_DOMAIN + ":type=ServiceMetrics,name=" +
+					ObjectName.quote(metrics.getServiceName())));
+		}
+		catch (Exception exc) {
+			// The metrics remain available through the Prometheus export
+			System.err.println("Cannot register the metrics of " + metrics.getServiceName() + " in JMX - " + exc);
+		}
+	}
+
+	/**
+	 * Writes the metrics of all web services in the Prometheus text exposition format
+	 * @param out The output the metrics are written to
+	 */
+	public static void writePrometheus(Appendable out) throws IOException
+	{
+		List<ServiceMetrics> services = getAllServices();
+
+		writeCounter(out, services, "taskmonitor_requests_total", "Requests sent", new Value()
+		{
+			public long get(ServiceMetrics metrics)
+			{
+				return metrics.getRequestCount();
+			}
+		});
+		writeCounter(out, services, "taskmonitor_faults_total", "SOAP faults received", new Value()
+		{
+			public long get(ServiceMetrics metrics)
+			{
+				return metrics.getFaultCount();
+			}
+		});
+		writeCounter(out, services, "taskmonitor_errors_total", "Failed requests", new Value()
+		{
+			public long get(ServiceMetrics metrics)
+			{
+				return metrics.getErrorCount();
+			}
+		});
+		writeCounter(out, services, "taskmonitor_sent_bytes_total", "Request bytes sent", new Value()
+		{
+			public long get(ServiceMetrics metrics)
+			{
+				return metrics.getBytesSent();
+			}
+		});
+		writeCounter(out, services, "taskmonitor_received_bytes_total", "Response bytes received", new Value()
+		{
+			public long get(ServiceMetrics metrics)
+			{
+				return metrics.getBytesReceived();
+			}
+		});
+
+		out.append("# HELP taskmonitor_in_flight Requests in flight\n");
+		out.append("# TYPE taskmonitor_in_flight gauge\n");
+		for (ServiceMetrics metrics : services) {
+			out.append("taskmonitor_in_flight{service=\"").append(metrics.getServiceName()).append("\"} ")
+					.append(Integer.toString(metrics.getInFlight())).append('\n');
+		}
+
+		out.append("# HELP taskmonitor_latency_seconds Request latency by phase\n");
+		out.append("# TYPE taskmonitor_latency_seconds summary\n");
+		for (ServiceMetrics metrics : services) {
+			for (ServiceMetrics.Phase phase : ServiceMetrics.Phase.values()) {
+				LatencyHistogram latencies = metrics.getLatencies(phase);
+				String labels = "service=\"" + metrics.getServiceName() + "\",phase=\"" +
+						phase.name().toLowerCase(Locale.ROOT) + "\"";
+				for (double quantile : QUANTILES) {
+					out.append("taskmonitor_latency_seconds{").append(labels).append(",quantile=\"")
+							.append(Double.toString(quantile)).append("\"} ")
+							.append(toSeconds(latencies.getPercentile(quantile * 100))).append('\n');
+				}
+				out.append("taskmonitor_latency_seconds_sum{").append(labels).append("} ")
+						.append(toSeconds(latencies.getSum())).append('\n');
+				out.append("taskmonitor_latency_seconds_count{").append(labels).append("} ")
+						.append(Long.toString(latencies.getCount())).append('\n');
+			}
+		}
+	}
+
+	private static void writeCounter(Appendable out, List<ServiceMetrics> services, String name, String help,
+									 Value value) throws IOException
+	{
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(" counter\n");
+		for (ServiceMetrics metrics : services) {
+			out.append(name).append("{service=\"").append(metrics.getServiceName()).append("\"} ")
+					.append(Long.toString(value.get(metrics))).append('\n');
+		}
+	}
+
+	private static String toSeconds(long nanos)
+	{
+		return Double.toString(nanos / 1e9);
+	}
+
+	/**
+	 * Starts an HTTP server exporting the metrics in the Prometheus text format at /metrics
+	 * @param port The port to listen to
+	 * @throws IOException The port cannot be listened to
+	 */
+	public static synchronized void startHttpExporter(int port) throws IOException
+	{
+		if (_httpExporter != null) {
+			throw new IllegalStateException("Metrics already exported on port " + _httpExporter.getAddress().getPort());
+		}
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", new HttpHandler()
+		{
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				StringWriter text = new StringWriter();
+				writePrometheus(text);
+				byte[] body = text.toString().getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				}
+				finally {
+					out.close();
+				}
+			}
+		});
+		server.start();
+		_httpExporter = server;
+	}
+
+	public static synchronized void stopHttpExporter()
+	{
+		if (_httpExporter != null) {
+			_httpExporter.stop(0);
+			_httpExporter = null;
+		}
+	}
+
+	private interface Value
+	{
+		long get(ServiceMetrics metrics);
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Provides the current monitor configuration (see MonitorConfig) to all threads.
+ *
+ * The configuration file named by the TASKMON_CONFIG environment variable is read at first
+ * use, then watched: when it changes, it is read again and the new configuration replaces
+ * the previous one atomically, and the listeners are notified. If the new file is invalid,
+ * the previous configuration is kept. Getting the configuration never touches the disk.
+ */
+public class ConfigService
+{
+	public static final String CONFIG_ENVIRONMENT_VARIABLE = "TASKMON_CONFIG";
+
+	/**
+	 * Editors often write a file in several steps: wait for the last one before reading it
+	 */
+	private static final long RELOAD_DELAY = 200;
+
+	private static final AtomicReference<MonitorConfig> _config = new AtomicReference<MonitorConfig>();
+	private static final List<ConfigListener> _listeners = new CopyOnWriteArrayList<ConfigListener>();
+	private static File _file;
+	private static WatchService _watchService;
+
+	/**
+	 * Notified when the configuration changes
+	 */
+	public interface ConfigListener
+	{
+		/**
+		 * Called by the thread which loaded the new configuration, once it is current
+		 * @param oldConfig The previous configuration
+		 * @param newConfig The new configuration
+		 */
+		void configChanged(MonitorConfig oldConfig, MonitorConfig newConfig);
+	}
+
+	/**
+	 * Returns the current configuration, reading the configuration file at first use
+	 * @return The current configuration
+	 */
+	public static MonitorConfig getConfig()
+	{
+		MonitorConfig config = _config.get();
+		if (config == null) {
+			config = initialize();
+		}
+		return config;
+	}
+
+	private static synchronized MonitorConfig initialize()
+	{
+		if (_config.get() == null) {
+			String path = System.getenv(CONFIG_ENVIRONMENT_VARIABLE);
+			if (path == null || path.isEmpty()) {
+				_config.set(MonitorConfig.DEFAULT);
+			}
+			else {
+				try {
+					load(new File(path));
+				}
+				catch (IOException exc) {
+					System.err.println("Cannot read the configuration, using defaults - " + exc.getMessage());
+					_config.compareAndSet(null, MonitorConfig.DEFAULT);
+				}
+			}
+		}
+		return _config.get();
+	}
+
+	/**
+	 * Reads a configuration file, makes it the current configuration and watches it for changes.
+	 * The file keeps being watched even if it cannot be read.
+	 * @param file The configuration file
+	 * @throws IOException The file cannot be read or is invalid
+	 */
+	public static synchronized void load(File file) throws IOException
+	{
+		file = file.getAbsoluteFile();
+		if (!file.equals(_file)) {
+			watch(file);
+		}
+		replace(MonitorConfig.load(file));
+	}
+
+	/**
+	 * Reads the current configuration file again
+	 * @throws IOException The file cannot be read or is invalid: the current configuration is kept
+	 */
+	public static synchronized void reload() throws IOException
+	{
+		if (_file != null) {
+			replace(MonitorConfig.load(_file));
+		}
+	}
+
+	/**
+	 * Makes a configuration current, without watching any file (for instance in tests)
+	 * @param config The new configuration
+	 */
+	public static synchronized void setConfig(MonitorConfig config)
+	{
+		stopWatching();
+		replace(config);
+	}
+
+	private static void replace(MonitorConfig config)
+	{
+		MonitorConfig oldConfig = _config.getAndSet(config);
+		if (oldConfig == null || oldConfig.equals(config)) {
+			return;
+		}
+		for (ConfigListener listener : _listeners) {
+			try {
+				listener.configChanged(oldConfig, config);
+			}
+			catch (RuntimeException exc) {
+				// A faulty listener must not prevent the others from being notified
+				exc.printStackTrace();
+			}
+		}
+	}
+
+	public static void addListener(ConfigListener listener)
+	{
+		_listeners.add(listener);
+	}
+
+	public static void removeListener(ConfigListener listener)
+	{
+		_listeners.remove(listener);
+	}
+
+	/**
+	 * Starts watching a configuration file, in place of the file watched so far
+	 * @param file The configuration file (absolute)
+	 */
+	private static void watch(File file)
+	{
+		stopWatching();
+		_file = file;
+		File directory = file.getParentFile();
+		if (directory == null || !directory.isDirectory()) {
+			return;
+		}
+		try {
+			final WatchService watchService = FileSystems.getDefault().newWatchService();
+			directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			_watchService = watchService;
+
+			final String fileName = file.getName();
+			Thread watcher = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					watchChanges(watchService, fileName);
+				}
+			}, "ConfigService");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		catch (IOException exc) {
+			System.err.println("Cannot watch the configuration " + file + " - " + exc);
+		}
+	}
+
+	private static void stopWatching()
+	{
+		if (_watchService != null) {
+			try {
+				_watchService.close();
+			}
+			catch (IOException exc) {
+				// Ignore
+			}
+			_watchService = null;
+		}
+		_file = null;
+	}
+
+	/**
+	 * The watcher thread loop, reloading the configuration when the file changes
+	 */
+	private static void watchChanges(WatchService watchService, String fileName)
+	{
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+							(context instanceof Path && ((Path) context).getFileName().toString().equals(fileName))) {
+						changed = true;
+					}
+				}
+				if (changed) {
+					Thread.sleep(RELOAD_DELAY);
+					// Discard the events of the same change
+					WatchKey next;
+					while ((next = watchService.poll()) != null) {
+						next.pollEvents();
+						next.reset();
+					}
+					synchronized (ConfigService.class) {
+						if (_watchService == watchService) {
+							try {
+								reload();
+							}
+							catch (IOException exc) {
+								System.err.println("Configuration not reloaded - " + exc.getMessage());
+							}
+						}
+					}
+				}
+				if (!key.reset()) {
+					return;
+				}
+			}
+		}
+		catch (InterruptedException exc) {
+			// Stopped
+		}
+		catch (ClosedWatchServiceException exc) {
+			// Stopped
+		}
+	}
+}
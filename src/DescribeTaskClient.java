@@ -27,7 +27,12 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import javax.xml.soap.SOAPMessage;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A concrete implementation for the CIS "DescribeTask" web service client,
@@ -39,6 +44,10 @@ public class DescribeTaskClient extends AbstractClient
 
 
 	private String TaskID;
+	private boolean m_uncompressAttachment = false;
+	private final List<String> m_executionIds = new ArrayList<String>();
+	private ExecutionHistoryStore m_historyStore;
+	private ExecutionMetricsStore m_metricsStore;
 
 	public DescribeTaskClient() {
 	}
@@ -48,6 +57,49 @@ public class DescribeTaskClient extends AbstractClient
 	}
 
 
+	/**
+	 * Sets whether a GZIP attachment is uncompressed when written to the output directory
+	 * @param uncompress true to uncompress the attachment
+	 */
+	public void setUncompressAttachment(boolean uncompress)
+	{
+		m_uncompressAttachment = uncompress;
+	}
+
+	/**
+	 * Sets the store the described task and its executions are kept in
+	 * @param store The history store, or null to keep nothing
+	 */
+	public void setHistoryStore(ExecutionHistoryStore store)
+	{
+		m_historyStore = store;
+	}
+
+	/**
+	 * Sets the store the metrics of the executions of the task are kept in
+	 * @param store The execution metrics store, or null to keep nothing
+	 */
+	public void setExecutionMetricsStore(ExecutionMetricsStore store)
+	{
+		m_metricsStore = store;
+	}
+
+	/**
+	 * @return The task identifier
+	 */
+	public String getTaskId()
+	{
+		return TaskID;
+	}
+
+	/**
+	 * @return The identifiers of the task executions returned by the last invocation
+	 */
+	public List<String> getExecutionIds()
+	{
+		return m_executionIds;
+	}
+
 	protected String getWebServiceName()
 	{
 		return "DescribeTask";
@@ -60,11 +112,33 @@ public class DescribeTaskClient extends AbstractClient
 		return "<taskspec attachments='false' executions='true' id=\"" + this.TaskID + "\" parameters='true'/>";
 	}
 
+	protected String getRequestPayloadTemplate()
+	{
+		return "<taskspec attachments='false' executions='true' id=\"${id}\" parameters='true'/>";
+	}
+
+	protected Map<String, String> getRequestParameters()
+	{
+		// Formatted as by getRequestPayload() when there is no identifier
+		return Collections.singletonMap("id", String.valueOf(TaskID));
+	}
+
 	protected boolean isResponseExcepted()
 	{
 		return true;
 	}
 
+	protected boolean isResponseCacheable()
+	{
+		return true;
+	}
+
+	protected boolean isIdempotent()
+	{
+		// Read-only
+		return true;
+	}
+
 	protected boolean hasResponseAttachments()
 	{
 		return true;
@@ -72,49 +146,100 @@ public class DescribeTaskClient extends AbstractClient
 
 	protected void processResponseAttachments(SOAPMessage messageSOAP) throws Exception
 	{
-		// Retrieve the attachment and persist it to a file
-		String filePath = OUTPUT_DIRECTORY + "/parameters.xml";
-		FileOutputStream outStream = new FileOutputStream(filePath);
-		WebServiceUtils.extractDocumentFromSOAPAttachment(messageSOAP, outStream);
-		outStream.close();
-		System.out.println("XML design as attachment successfully written to: " + filePath);
+		// Retrieve the attachment and persist it to a file of its own, as several tasks are described in turn
+		// No identifier when instantiated by ClientMain
+		String filePath = getOutputDirectory() + (TaskID != null
+				? "/parameters-" + TaskID.replaceAll("[^A-Za-z0-9._-]", "_") + ".xml" : "/parameters.xml");
+		WebServiceUtils.TransferStatistics transfer =
+				WebServiceUtils.extractDocumentFromSOAPAttachment(messageSOAP, new File(filePath), m_uncompressAttachment);
+		if (transfer != null) {
+			logMsg("XML design as attachment successfully written to: " + filePath + " - " + transfer);
+		}
 	}
 
 	protected void processResponse(Document responsePayload) throws Exception
 	{
 		Element tasks = responsePayload.getDocumentElement();
-		System.out.println(responsePayload.getTextContent());
+		logMsg(responsePayload.getTextContent());
 		
 		// Retrieve task description
 		NodeList taskNodes = tasks.getElementsByTagName("taskspec");
 		int nbNodes = taskNodes.getLength();
+		String taskName = "";
+		String taskId = TaskID;
 		for (int i=0; i<nbNodes; i++) {
-			System.out.println();
+			logMsg("");
 			Element taskspec = (Element) taskNodes.item(i);
-			System.out.println("> Instance name: " + taskspec.getAttribute("instance_name"));
-			System.out.println("> Name: " + taskspec.getAttribute("name"));
-			System.out.println("> Cron expression: " + taskspec.getAttribute("cron_expression"));
-			System.out.println("> Status: " + taskspec.getAttribute("status"));
-			System.out.println("> Submit time: " + taskspec.getAttribute("submit_time"));
-			System.out.println("> User Name: " + taskspec.getAttribute("username"));
-			
+			logMsg("> Instance name: " + taskspec.getAttribute("instance_name"));
+			logMsg("> Name: " + taskspec.getAttribute("name"));
+			taskName = taskspec.getAttribute("name");
+			if (taskId == null) {
+				taskId = taskspec.getAttribute("id");
+			}
+			logMsg("> Cron expression: " + taskspec.getAttribute("cron_expression"));
+			logMsg("> Status: " + taskspec.getAttribute("status"));
+			logMsg("> Submit time: " + taskspec.getAttribute("submit_time"));
+			logMsg("> User Name: " + taskspec.getAttribute("username"));
+			if (m_historyStore != null) {
+				storeHistory(TaskSummary.fromElement(getEndpoint().getName(), taskspec));
+			}
 		}
 		
 		// Retrieve task executions
 		NodeList execNodes = tasks.getElementsByTagName("taskexec");
 		nbNodes = execNodes.getLength();
+		m_executionIds.clear();
 		for (int i=0; i<nbNodes; i++) {
-			System.out.println();
+			logMsg("");
 			Element exec = (Element) execNodes.item(i);
 		
-			System.out.println("> id: " + exec.getAttribute("id"));
-			System.out.println("> Occurence id: " + exec.getAttribute("occurr_id"));
-			System.out.println("> Progress text: " + exec.getAttribute("progress_text"));
-			System.out.println("> Progress %: " + exec.getAttribute("progress_perc"));
-			System.out.println("> Run status: " + exec.getAttribute("runstatus"));
-			System.out.println("> Run time: " + exec.getAttribute("run_time"));
-			System.out.println("> Start time: " + exec.getAttribute("start_time"));
-			System.out.println("> End time: " + exec.getAttribute("end_time"));
+			m_executionIds.add(exec.getAttribute("id"));
+			logMsg("> id: " + exec.getAttribute("id"));
+			logMsg("> Occurence id: " + exec.getAttribute("occurr_id"));
+			logMsg("> Progress text: " + exec.getAttribute("progress_text"));
+			logMsg("> Progress %: " + exec.getAttribute("progress_perc"));
+			logMsg("> Run status: " + exec.getAttribute("runstatus"));
+			logMsg("> Run time: " + exec.getAttribute("run_time"));
+			logMsg("> Start time: " + exec.getAttribute("start_time"));
+			logMsg("> End time: " + exec.getAttribute("end_time"));
+			if (m_historyStore != null || m_metricsStore != null) {
+				ExecutionRecord execution = ExecutionRecord.fromElement(taskId != null ? taskId : "", exec);
+				if (m_historyStore != null) {
+					storeHistory(execution);
+				}
+				if (m_metricsStore != null) {
+					m_metricsStore.add(taskName, execution);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the state of the task in the history store
+	 * @param task The described task
+	 */
+	private void storeHistory(TaskSummary task)
+	{
+		try {
+			m_historyStore.append(task);
+		}
+		catch (IOException exc) {
+			// The description is output anyway
+			logMsg("> Task not kept in the history: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Keeps an execution of the task in the history store
+	 * @param execution The execution
+	 */
+	private void storeHistory(ExecutionRecord execution)
+	{
+		try {
+			m_historyStore.append(execution);
+		}
+		catch (IOException exc) {
+			logMsg("> Execution not kept in the history: " + exc.getMessage());
 		}
 	}
 }
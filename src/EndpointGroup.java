@@ -0,0 +1,386 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equivalent CIS nodes the requests of a client are balanced across (see AbstractClient.setEndpointGroup()).
+ *
+ * Each request is sent to the node chosen by the endpoint selector among the available nodes.
+ * A node is unavailable while ejected, after several consecutive requests failed to reach it,
+ * or while it does not answer the health checks (see startHealthChecks()).
+ * If no node is available, all nodes are selected from rather than failing the request.
+ * Can be shared by several clients and threads.
+ */
+public class EndpointGroup
+{
+	public static final int DEFAULT_MAX_FAILURES = 3;
+	public static final long DEFAULT_EJECTION_TIME = 30000;
+	public static final long DEFAULT_HEALTH_CHECK_TIMEOUT = 2000;
+
+	/**
+	 * The maximum ejection time of a node, as a multiple of the ejection time
+	 */
+	private static final int MAX_EJECTION_FACTOR = 8;
+
+	/**
+	 * The time over which the past response times of a node lose their weight, and over which
+	 * the average of an idle node decays, in nanoseconds
+	 */
+	private static final double LATENCY_DECAY_TIME = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * The weight of the last response time in the moving average of a node, when the previous one is recent
+	 */
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	/**
+	 * The minimum response time counted for a request which failed to reach a node, in nanoseconds
+	 */
+	private static final double FAILURE_LATENCY = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The maximum response time counted for consecutive failures, unless one took longer, in nanoseconds
+	 */
+	private static final double MAX_FAILURE_LATENCY = TimeUnit.SECONDS.toNanos(10);
+
+	private final List<Node> m_nodes;
+	private final EndpointSelector m_selector;
+	private volatile int m_maxFailures = DEFAULT_MAX_FAILURES;
+	private volatile long m_ejectionTime = DEFAULT_EJECTION_TIME;
+	private long m_healthCheckTimeout = DEFAULT_HEALTH_CHECK_TIMEOUT;
+	private ScheduledExecutorService m_healthChecker;
+
+	/**
+	 * @param endpoints The equivalent CIS nodes
+	 * @param selector The selector of the node each request is sent to
+	 */
+	public EndpointGroup(List<CISEndpoint> endpoints, EndpointSelector selector)
+	{
+		if (endpoints.isEmpty()) {
+			throw new IllegalArgumentException("No CIS node in the group");
+		}
+		List<Node> nodes = new ArrayList<Node>(endpoints.size());
+		for (CISEndpoint endpoint : endpoints) {
+			nodes.add(new Node(endpoint));
+		}
+		m_nodes = Collections.unmodifiableList(nodes);
+		m_selector = selector;
+	}
+
+	/**
+	 * @param name A selection policy: "round-robin", "least-outstanding" or "ewma"
+	 * @return The endpoint selector
+	 * @throws IllegalArgumentException Unknown policy
+	 */
+	public static EndpointSelector newSelector(String name)
+	{
+		if (name.equalsIgnoreCase("round-robin")) {
+			return new EndpointSelector.RoundRobin();
+		}
+		if (name.equalsIgnoreCase("least-outstanding")) {
+			return new EndpointSelector.LeastOutstanding();
+		}
+		if (name.equalsIgnoreCase("ewma")) {
+			return new EndpointSelector.LatencyWeighted();
+		}
+		throw new IllegalArgumentException("Unknown endpoint selection policy: " + name);
+	}
+
+	/**
+	 * Sets when a node is ejected, and for how long. The ejection time doubles each time
+	 * the node is ejected again without a successful request in between.
+	 * @param maxFailures The number of consecutive failed requests ejecting a node
+	 * @param ejectionTime The time the node is first ejected for, in milliseconds
+	 */
+	public void setEjection(int maxFailures, long ejectionTime)
+	{
+		if (maxFailures < 1) {
+			throw new IllegalArgumentException("Invalid number of failures: " + maxFailures);
+		}
+		m_maxFailures = maxFailures;
+		m_ejectionTime = ejectionTime;
+	}
+
+	public List<Node> getNodes()
+	{
+		return m_nodes;
+	}
+
+	/**
+	 * Selects the node a request is sent to. The request must be released once completed.
+	 * @return The selected node
+	 */
+	public Node acquire()
+	{
+		return acquire(null);
+	}
+
+	/**
+	 * Selects the node a request is sent to, other than a given node if another one is available
+	 * (for instance, to send a hedged request). The request must be released once completed.
+	 * @param excluded The node to avoid, or null
+	 * @return The selected node
+	 */
+	public Node acquire(Node excluded)
+	{
+		long now = System.currentTimeMillis();
+		List<Node> available = new ArrayList<Node>(m_nodes.size());
+		for (Node node : m_nodes) {
+			if (node != excluded && node.isAvailable(now)) {
+				available.add(node);
+			}
+		}
+		if (available.isEmpty() && excluded != null && excluded.isAvailable(now)) {
+			available.add(excluded);
+		}
+		Node node = m_selector.select(available.isEmpty() ? m_nodes : available);
+		node.m_outstanding.incrementAndGet();
+		return node;
+	}
+
+	/**
+	 * Starts checking whether the nodes answer HTTP requests at regular intervals.
+	 * The HTTP port of the nodes is checked, whatever the protocol of the requests.
+	 * @param interval The time between two checks of a node, in milliseconds
+	 * @param timeout The time a node has to answer a check, in milliseconds
+	 */
+	public synchronized void startHealthChecks(long interval, long timeout)
+	{
+		stopHealthChecks();
+		m_healthCheckTimeout = timeout;
+		m_healthChecker = Executors.newScheduledThreadPool(Math.min(m_nodes.size(), 4), new HealthCheckThreadFactory());
+		for (final Node node : m_nodes) {
+			m_healthChecker.scheduleWithFixedDelay(new Runnable()
+			{
+				public void run()
+				{
+					node.setHealthy(checkHealth(node.getEndpoint()));
+				}
+			}, 0, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the health checks: all nodes are then considered healthy
+	 */
+	public synchronized void stopHealthChecks()
+	{
+		if (m_healthChecker != null) {
+			m_healthChecker.shutdownNow();
+			m_healthChecker = null;
+			for (Node node : m_nodes) {
+				node.setHealthy(true);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a node answers HTTP requests, whatever the status of its answer
+	 * @param endpoint The node
+	 * @return true if the node answered
+	 */
+	protected boolean checkHealth(CISEndpoint endpoint)
+	{
+		HttpURLConnection connection = null;
+		try {
+			URL url = new URL("http", endpoint.getHost(), endpoint.getPort(), AbstractClient.CIS_CONTEXT);
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout((int) m_healthCheckTimeout);
+			connection.setReadTimeout((int) m_healthCheckTimeout);
+			connection.getResponseCode();
+			return true;
+		}
+		catch (IOException exc) {
+			return false;
+		}
+		finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	public String toString()
+	{
+		return m_selector + " " + m_nodes;
+	}
+
+	/**
+	 * A node of the group, and the state of the requests sent to it
+	 */
+	public class Node
+	{
+		private final CISEndpoint m_endpoint;
+		private final AtomicInteger m_outstanding = new AtomicInteger();
+		private volatile boolean m_healthy = true;
+		private volatile long m_ejectedUntil = 0;
+		private int m_failures = 0;
+		private int m_ejections = 0;
+		private double m_latency = 0;
+		private long m_latencyTime = 0;
+
+		Node(CISEndpoint endpoint)
+		{
+			m_endpoint = endpoint;
+		}
+
+		public CISEndpoint getEndpoint()
+		{
+			return m_endpoint;
+		}
+
+		/**
+		 * @return The number of requests sent to this node which are not released yet
+		 */
+		public int getOutstandingRequests()
+		{
+			return m_outstanding.get();
+		}
+
+		/**
+		 * @return The moving average of the response times of this node in nanoseconds (0 before any request),
+		 * where failures count as slow responses. The average decays while the node receives no response,
+		 * so that a node which failed is tried again once it has been left alone for a while.
+		 */
+		public synchronized double getLatency()
+		{
+			if (m_latencyTime == 0) {
+				return 0;
+			}
+			return m_latency * Math.exp(-(System.nanoTime() - m_latencyTime) / LATENCY_DECAY_TIME);
+		}
+
+		public boolean isHealthy()
+		{
+			return m_healthy;
+		}
+
+		public boolean isEjected()
+		{
+			return m_ejectedUntil > System.currentTimeMillis();
+		}
+
+		/**
+		 * Records the result of a health check. A node becoming healthy again forgets its response times,
+		 * as they predate its recovery.
+		 * @param healthy true if the node answered the check
+		 */
+		synchronized void setHealthy(boolean healthy)
+		{
+			if (healthy && !m_healthy) {
+				m_latency = 0;
+				m_latencyTime = 0;
+			}
+			m_healthy = healthy;
+		}
+
+		boolean isAvailable(long now)
+		{
+			return m_healthy && m_ejectedUntil <= now;
+		}
+
+		/**
+		 * Releases a request selecting this node, which could not be sent
+		 */
+		public void cancel()
+		{
+			m_outstanding.decrementAndGet();
+		}
+
+		/**
+		 * Releases a request sent to this node
+		 * @param responseTime The time taken by the request, in nanoseconds
+		 * @param reached false if the request could not be sent or its response could not be received
+		 */
+		public void release(long responseTime, boolean reached)
+		{
+			m_outstanding.decrementAndGet();
+			synchronized (this) {
+				if (reached) {
+					m_failures = 0;
+					m_ejections = 0;
+					addLatency(responseTime);
+				}
+				else {
+					// A failing node must not look faster than the others: each failure doubles its average, up to a bound
+					double penalty = Math.min(Math.max(2 * getLatency(), FAILURE_LATENCY), MAX_FAILURE_LATENCY);
+					addLatency(Math.max(responseTime, penalty));
+					if (++m_failures >= m_maxFailures) {
+						m_failures = 0;
+						m_ejections = Math.min(m_ejections + 1, Integer.numberOfTrailingZeros(MAX_EJECTION_FACTOR) + 1);
+						m_ejectedUntil = System.currentTimeMillis() + (m_ejectionTime << (m_ejections - 1));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adds a response time to the moving average: the older the average, the lower its weight
+		 * @param responseTime The response time in nanoseconds
+		 */
+		private void addLatency(double responseTime)
+		{
+			long now = System.nanoTime();
+			if (m_latencyTime == 0) {
+				m_latency = responseTime;
+			}
+			else {
+				double previousWeight = (1 - LATENCY_WEIGHT) * Math.exp(-(now - m_latencyTime) / LATENCY_DECAY_TIME);
+				m_latency = previousWeight * m_latency + (1 - previousWeight) * responseTime;
+			}
+			m_latencyTime = now;
+		}
+
+		public String toString()
+		{
+			return m_endpoint + (m_healthy ? "" : " (unhealthy)") + (isEjected() ? " (ejected)" : "");
+		}
+	}
+
+	/**
+	 * Creates the daemon threads checking the health of the nodes
+	 */
+	private static class HealthCheckThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "HealthCheck-" + s_threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects the node of an endpoint group a request is sent to (see EndpointGroup).
+ * Implementations are called concurrently by all clients sharing the group.
+ */
+public interface EndpointSelector
+{
+	/**
+	 * @param nodes The nodes available to the request, never empty
+	 * @return The selected node
+	 */
+	EndpointGroup.Node select(List<EndpointGroup.Node> nodes);
+
+	/**
+	 * Selects the nodes in turn
+	 */
+	class RoundRobin implements EndpointSelector
+	{
+		private final AtomicInteger m_next = new AtomicInteger();
+
+		public EndpointGroup.Node select(List<EndpointGroup.Node> nodes)
+		{
+			return nodes.get((m_next.getAndIncrement() & Integer.MAX_VALUE) % nodes.size());
+		}
+
+		public String toString()
+		{
+			return "round-robin";
+		}
+	}
+
+	/**
+	 * Selects the node with the fewest requests in progress, in turn among equal nodes
+	 */
+	class LeastOutstanding implements EndpointSelector
+	{
+		private final AtomicInteger m_next = new AtomicInteger();
+
+		public EndpointGroup.Node select(List<EndpointGroup.Node> nodes)
+		{
+			int first = (m_next.getAndIncrement() & Integer.MAX_VALUE) % nodes.size();
+			EndpointGroup.Node selected = null;
+			for (int i=0; i<nodes.size(); i++) {
+				EndpointGroup.Node node = nodes.get((first + i) % nodes.size());
+				if (selected == null || node.getOutstandingRequests() < selected.getOutstandingRequests()) {
+					selected = node;
+				}
+			}
+			return selected;
+		}
+
+		public String toString()
+		{
+			return "least-outstanding";
+		}
+	}
+
+	/**
+	 * Selects the node with the lowest expected latency: the moving average of its response
+	 * times (see EndpointGroup.Node.getLatency()), multiplied by its requests in progress.
+	 * As the average of a node decays while it receives no response, a node left alone after failures
+	 * ends up looking as fast as the others, and is tried again.
+	 */
+	class LatencyWeighted implements EndpointSelector
+	{
+		private final AtomicInteger m_next = new AtomicInteger();
+
+		public EndpointGroup.Node select(List<EndpointGroup.Node> nodes)
+		{
+			int first = (m_next.getAndIncrement() & Integer.MAX_VALUE) % nodes.size();
+			EndpointGroup.Node selected = null;
+			double selectedCost = 0;
+			for (int i=0; i<nodes.size(); i++) {
+				EndpointGroup.Node node = nodes.get((first + i) % nodes.size());
+				double cost = node.getLatency() * (node.getOutstandingRequests() + 1);
+				if (selected == null || cost < selectedCost) {
+					selected = node;
+					selectedCost = cost;
+				}
+			}
+			return selected;
+		}
+
+		public String toString()
+		{
+			return "ewma";
+		}
+	}
+}
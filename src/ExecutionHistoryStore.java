@@ -0,0 +1,637 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only local store of the tasks and executions described by CIS, which survives restarts.
+ *
+ * Records are appended to memory-mapped segment files ("00000001.seg", ...) of a fixed size.
+ * Each record is written as its length, the CRC-32 of its content, and its content: the length
+ * is written last, so that a record cut by a crash is ignored (as well as anything after a corrupt
+ * record) when the store is opened again. A record is only appended when the task or execution
+ * is new or changed since its last record, and the last record of each one wins.
+ *
+ * The location of the last record of each task and execution is indexed by task and execution
+ * identifier; the index is rebuilt by reading the segments when the store is opened.
+ * Can be used by several threads at once.
+ */
+public class ExecutionHistoryStore
+{
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int SEGMENT_MAGIC = 0x54484953;
+	private static final int FORMAT_VERSION = 1;
+	private static final int SEGMENT_HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final byte TASK_RECORD = 'T';
+	private static final byte EXECUTION_RECORD = 'E';
+
+	private final File m_directory;
+	private final int m_segmentSize;
+	private final List<MappedByteBuffer> m_segments = new ArrayList<MappedByteBuffer>();
+	private final Map<String, TaskEntry> m_index = new LinkedHashMap<String, TaskEntry>();
+	private final CRC32 m_crc = new CRC32();
+	private MappedByteBuffer m_active;
+	private int m_lastSegmentNumber = 0;
+	private long m_recordCount = 0;
+	private boolean m_closed = false;
+
+	/**
+	 * Opens a store, creating it if needed, and rebuilds its index
+	 * @param directory The directory of the segment files
+	 * @param segmentSize The size of the segment files in bytes (only applies to new segments)
+	 * @throws IOException The store cannot be read or created
+	 */
+	public ExecutionHistoryStore(File directory, int segmentSize) throws IOException
+	{
+		if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the history directory " + directory);
+		}
+		m_directory = directory;
+		m_segmentSize = segmentSize;
+
+		File[] files = directory.listFiles();
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (File file : files != null ? files : new File[0]) {
+			int number = getSegmentNumber(file.getName());
+			if (number > 0) {
+				numbers.add(number);
+			}
+		}
+		Collections.sort(numbers);
+		for (int number : numbers) {
+			m_active = mapSegment(getSegmentFile(number), 0);
+			m_segments.add(m_active);
+			m_lastSegmentNumber = number;
+			recover(m_segments.size() - 1);
+		}
+		if (m_active == null) {
+			addSegment();
+		}
+	}
+
+	public ExecutionHistoryStore(File directory) throws IOException
+	{
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Stores the state of a task, if it is new or changed
+	 * @param task The task
+	 * @return true if the task was stored
+	 * @throws IOException The store is full or closed
+	 */
+	public synchronized boolean append(TaskSummary task) throws IOException
+	{
+		TaskEntry entry = m_index.get(task.getId());
+		if (entry != null && entry.taskLocation >= 0 && task.equals(readTask(entry.taskLocation))) {
+			return false;
+		}
+		long location = appendRecord(encode(task));
+		getEntry(task.getId()).taskLocation = location;
+		return true;
+	}
+
+	/**
+	 * Stores an execution, if it is new or changed
+	 * @param execution The execution
+	 * @return true if the execution was stored
+	 * @throws IOException The store is full or closed
+	 */
+	public synchronized boolean append(ExecutionRecord execution) throws IOException
+	{
+		TaskEntry entry = m_index.get(execution.getTaskId());
+		Long previous = entry != null ? entry.executions.get(execution.getId()) : null;
+		if (previous != null && execution.equals(readExecution(previous))) {
+			return false;
+		}
+		long location = appendRecord(encode(execution));
+		getEntry(execution.getTaskId()).executions.put(execution.getId(), location);
+		return true;
+	}
+
+	/**
+	 * @return The identifiers of the stored tasks, in the order they were first stored
+	 */
+	public synchronized List<String> getTaskIds()
+	{
+		return new ArrayList<String>(m_index.keySet());
+	}
+
+	/**
+	 * @param taskId The task identifier
+	 * @return The last stored state of the task, or null if it was not stored
+	 * @throws IOException The store is closed
+	 */
+	public synchronized TaskSummary getTask(String taskId) throws IOException
+	{
+		TaskEntry entry = m_index.get(taskId);
+		return entry != null && entry.taskLocation >= 0 ? readTask(entry.taskLocation) : null;
+	}
+
+	/**
+	 * @param taskId The task identifier
+	 * @return The identifiers of the stored executions of the task, in the order they were first stored
+	 */
+	public synchronized Set<String> getExecutionIds(String taskId)
+	{
+		TaskEntry entry = m_index.get(taskId);
+		if (entry == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(new LinkedHashSet<String>(entry.executions.keySet()));
+	}
+
+	/**
+	 * @param taskId The task identifier
+	 * @param executionId The execution identifier
+	 * @return The last stored state of the execution, or null if it was not stored
+	 * @throws IOException The store is closed
+	 */
+	public synchronized ExecutionRecord getExecution(String taskId, String executionId) throws IOException
+	{
+		TaskEntry entry = m_index.get(taskId);
+		Long location = entry != null ? entry.executions.get(executionId) : null;
+		return location != null ? readExecution(location) : null;
+	}
+
+	/**
+	 * @param taskId The task identifier
+	 * @return The last stored state of the executions of the task, in the order they were first stored
+	 * @throws IOException The store is closed
+	 */
+	public synchronized List<ExecutionRecord> getExecutions(String taskId) throws IOException
+	{
+		TaskEntry entry = m_index.get(taskId);
+		if (entry == null) {
+			return Collections.emptyList();
+		}
+		List<ExecutionRecord> executions = new ArrayList<ExecutionRecord>(entry.executions.size());
+		for (long location : entry.executions.values()) {
+			executions.add(readExecution(location));
+		}
+		return executions;
+	}
+
+	/**
+	 * Writes the last stored state of all tasks and executions as a snapshot (see TaskSnapshotWriter)
+	 * @param out The stream the snapshot is written to, closed when done
+	 * @return The number of records written
+	 * @throws IOException IO problem, or the store is closed
+	 */
+	public synchronized long exportSnapshot(OutputStream out) throws IOException
+	{
+		TaskSnapshotWriter writer = new TaskSnapshotWriter(out);
+		boolean exported = false;
+		try {
+			for (TaskEntry entry : m_index.values()) {
+				if (entry.taskLocation >= 0) {
+					writer.write(readTask(entry.taskLocation));
+				}
+				for (long location : entry.executions.values()) {
+					writer.write(readExecution(location));
+				}
+			}
+			writer.close();
+			exported = true;
+		}
+		finally {
+			if (!exported) {
+				// Without its end marker, the incomplete snapshot is rejected when read
+				writer.abort();
+			}
+		}
+		return writer.getRecordCount();
+	}
+
+	/**
+	 * Stores the tasks and executions of a snapshot (see TaskSnapshotReader), if they are new or changed
+	 * @param in The stream the snapshot is read from, closed when done
+	 * @return The number of records stored
+	 * @throws IOException IO problem, invalid snapshot, or the store is full or closed
+	 */
+	public long importSnapshot(InputStream in) throws IOException
+	{
+		long count = 0;
+		TaskSnapshotReader reader = new TaskSnapshotReader(in);
+		try {
+			while (reader.next()) {
+				if (reader.getTask() != null ? append(reader.getTask()) : append(reader.getExecution())) {
+					count++;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of records in the store, including those superseded
+	 */
+	public synchronized long getRecordCount()
+	{
+		return m_recordCount;
+	}
+
+	/**
+	 * Writes the appended records to the disk
+	 */
+	public synchronized void force()
+	{
+		if (!m_closed) {
+			m_active.force();
+		}
+	}
+
+	/**
+	 * Writes the appended records to the disk, and closes the store and its segment files
+	 */
+	public synchronized void close()
+	{
+		if (!m_closed) {
+			m_active.force();
+			m_closed = true;
+			// Unmapped now rather than once garbage collected, as Windows locks the files while they are mapped
+			for (MappedByteBuffer segment : m_segments) {
+				unmap(segment);
+			}
+			m_segments.clear();
+			m_active = null;
+			m_index.clear();
+		}
+	}
+
+	public synchronized String toString()
+	{
+		return m_directory + ": " + m_index.size() + " tasks, " + m_recordCount + " records in "
+				+ m_segments.size() + " segments";
+	}
+
+	private TaskEntry getEntry(String taskId)
+	{
+		TaskEntry entry = m_index.get(taskId);
+		if (entry == null) {
+			entry = new TaskEntry();
+			m_index.put(taskId, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Appends a record to the active segment, or to a new segment if it is full
+	 * @param content The content of the record
+	 * @return The location of the record
+	 * @throws IOException The store is closed, or a new segment cannot be created
+	 */
+	private long appendRecord(byte[] content) throws IOException
+	{
+		if (m_closed) {
+			throw new IOException("The history store is closed");
+		}
+		if (content.length > m_segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE) {
+			throw new IOException("Record too large for the history segments: " + content.length + " bytes");
+		}
+		if (m_active.remaining() < RECORD_HEADER_SIZE + content.length) {
+			addSegment();
+		}
+		int offset = m_active.position();
+		m_crc.reset();
+		m_crc.update(content, 0, content.length);
+		m_active.putInt(offset + 4, (int) m_crc.getValue());
+		m_active.position(offset + RECORD_HEADER_SIZE);
+		m_active.put(content);
+		// Written last: the record only exists once complete
+		m_active.putInt(offset, content.length);
+		m_recordCount++;
+		return getLocation(m_segments.size() - 1, offset);
+	}
+
+	/**
+	 * Reads the records of a segment to rebuild their index, and positions the segment after the last valid one
+	 * @param segment The index of the segment
+	 */
+	private void recover(int segment)
+	{
+		MappedByteBuffer buffer = m_segments.get(segment);
+		int offset = SEGMENT_HEADER_SIZE;
+		boolean corrupt = false;
+		while (offset + RECORD_HEADER_SIZE <= buffer.limit()) {
+			int length = buffer.getInt(offset);
+			if (length == 0) {
+				break;
+			}
+			if (length < 0 || length > buffer.limit() - offset - RECORD_HEADER_SIZE) {
+				corrupt = true;
+				break;
+			}
+			byte[] content = new byte[length];
+			ByteBuffer record = buffer.duplicate();
+			record.position(offset + RECORD_HEADER_SIZE);
+			record.get(content);
+			m_crc.reset();
+			m_crc.update(content, 0, length);
+			if ((int) m_crc.getValue() != buffer.getInt(offset + 4)) {
+				corrupt = true;
+				break;
+			}
+			index(content, getLocation(segment, offset));
+			m_recordCount++;
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		if (corrupt) {
+			// Erase the rest, so that it cannot be mistaken for records once overwritten
+			for (int i = offset; i < buffer.limit(); i++) {
+				buffer.put(i, (byte) 0);
+			}
+		}
+		buffer.position(offset);
+	}
+
+	private void index(byte[] content, long location)
+	{
+		ByteBuffer in = ByteBuffer.wrap(content);
+		byte type = in.get();
+		String taskId = getString(in);
+		if (type == TASK_RECORD) {
+			getEntry(taskId).taskLocation = location;
+		}
+		else if (type == EXECUTION_RECORD) {
+			getEntry(taskId).executions.put(getString(in), location);
+		}
+	}
+
+	private void addSegment() throws IOException
+	{
+		if (m_active != null) {
+			// The full segment is no longer written: its records must not wait for close()
+			m_active.force();
+		}
+		m_active = mapSegment(getSegmentFile(m_lastSegmentNumber + 1), m_segmentSize);
+		m_lastSegmentNumber++;
+		m_active.putInt(0, SEGMENT_MAGIC);
+		m_active.putInt(4, FORMAT_VERSION);
+		m_active.position(SEGMENT_HEADER_SIZE);
+		m_segments.add(m_active);
+	}
+
+	private File getSegmentFile(int number)
+	{
+		return new File(m_directory, String.format("%08d", number) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @param name A file name
+	 * @return The number of the segment, or 0 if the file is not a segment
+	 */
+	private static int getSegmentNumber(String name)
+	{
+		if (!name.matches("[0-9]{1,9}\\" + SEGMENT_SUFFIX)) {
+			return 0;
+		}
+		return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Releases the mapping of a segment without waiting for the garbage collector.
+	 * The buffer must not be used anymore.
+	 * @param buffer The mapped segment
+	 */
+	private static void unmap(MappedByteBuffer buffer)
+	{
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			}
+			catch (NoSuchMethodException exc) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		}
+		catch (Exception exc) {
+			// Not supported by this JVM: the segment is unmapped once garbage collected
+		}
+	}
+
+	/**
+	 * @param file The segment file
+	 * @param size The size of a new segment, or 0 to map an existing segment
+	 * @return The mapped segment
+	 * @throws IOException The file cannot be mapped, or is not a segment
+	 */
+	private static MappedByteBuffer mapSegment(File file, int size) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long length = size > 0 ? size : raf.length();
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if (size == 0 && (length < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC)) {
+				throw new IOException("Not a history segment: " + file);
+			}
+			if (size == 0 && buffer.getInt(4) != FORMAT_VERSION) {
+				throw new IOException("Unsupported history segment version " + buffer.getInt(4) + ": " + file);
+			}
+			return buffer;
+		}
+		finally {
+			// The mapping remains valid once the file is closed
+			raf.close();
+		}
+	}
+
+	private static long getLocation(int segment, int offset)
+	{
+		return ((long) segment << 32) | offset;
+	}
+
+	/**
+	 * @param location The location of a record
+	 * @return The content of the record, past its type and task identifier
+	 * @throws IOException The store is closed
+	 */
+	private ByteBuffer readRecord(long location) throws IOException
+	{
+		if (m_closed) {
+			throw new IOException("The history store is closed");
+		}
+		MappedByteBuffer segment = m_segments.get((int) (location >>> 32));
+		int offset = (int) location;
+		ByteBuffer record = segment.duplicate();
+		record.position(offset + RECORD_HEADER_SIZE);
+		record.limit(offset + RECORD_HEADER_SIZE + segment.getInt(offset));
+		return record.slice();
+	}
+
+	private TaskSummary readTask(long location) throws IOException
+	{
+		ByteBuffer in = readRecord(location);
+		in.get();
+		String id = getString(in);
+		String name = getString(in);
+		String instanceName = getString(in);
+		String status = getString(in);
+		String submitTime = getString(in);
+		String username = getString(in);
+		// The server was added last: the records stored before have none
+		String server = in.hasRemaining() ? getString(in) : "";
+		return new TaskSummary(server, id, name, instanceName, status, submitTime, username);
+	}
+
+	private ExecutionRecord readExecution(long location) throws IOException
+	{
+		ByteBuffer in = readRecord(location);
+		in.get();
+		return new ExecutionRecord(getString(in), getString(in), getString(in), getString(in), getString(in),
+				getString(in), getString(in), getString(in), getString(in));
+	}
+
+	private static byte[] encode(TaskSummary task)
+	{
+		return encode(TASK_RECORD, task.getId(), task.getName(), task.getInstanceName(), task.getStatus(),
+				task.getSubmitTime(), task.getUsername(), task.getServer());
+	}
+
+	private static byte[] encode(ExecutionRecord execution)
+	{
+		return encode(EXECUTION_RECORD, execution.getTaskId(), execution.getId(), execution.getOccurrenceId(),
+				execution.getProgressText(), execution.getProgressPercent(), execution.getRunStatus(),
+				execution.getRunTime(), execution.getStartTime(), execution.getEndTime());
+	}
+
+	/**
+	 * @param type The record type
+	 * @param fields The record fields, the first one being the task identifier
+	 * @return The record content: the type, then each field as its UTF-8 length and bytes
+	 */
+	private static byte[] encode(byte type, String... fields)
+	{
+		byte[][] bytes = new byte[fields.length][];
+		int length = 1;
+		for (int i = 0; i < fields.length; i++) {
+			bytes[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+			length += 4 + bytes[i].length;
+		}
+		ByteBuffer out = ByteBuffer.allocate(length);
+		out.put(type);
+		for (byte[] field : bytes) {
+			out.putInt(field.length);
+			out.put(field);
+		}
+		return out.array();
+	}
+
+	private static String getString(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The locations of the last records of a task and of its executions
+	 */
+	private static class TaskEntry
+	{
+		long taskLocation = -1;
+		final LinkedHashMap<String, Long> executions = new LinkedHashMap<String, Long>();
+	}
+
+	/**
+	 * Outputs the stored history
+	 * @param args The store directory, optionally followed by a task identifier
+	 * @throws IOException The store cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 3 && (args[1].equals("-export") || args[1].equals("-import"))) {
+			ExecutionHistoryStore store = new ExecutionHistoryStore(new File(args[0]));
+			try {
+				long count = args[1].equals("-export") ? store.exportSnapshot(new FileOutputStream(args[2]))
+						: store.importSnapshot(new FileInputStream(args[2]));
+				System.out.println(count + " records " + (args[1].equals("-export") ? "exported to " : "imported from ") + args[2]);
+				System.out.println(store);
+			}
+			finally {
+				store.close();
+			}
+			return;
+		}
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ExecutionHistoryStore <directory> [task id | -export <file> | -import <file>]");
+			return;
+		}
+		ExecutionHistoryStore store = new ExecutionHistoryStore(new File(args[0]));
+		try {
+			List<String> taskIds = args.length > 1 ? Arrays.asList(args[1]) : store.getTaskIds();
+			for (String taskId : taskIds) {
+				TaskSummary task = store.getTask(taskId);
+				System.out.println(task != null ? task.toString().trim() : taskId);
+				for (ExecutionRecord execution : store.getExecutions(taskId)) {
+					System.out.println("  " + execution);
+				}
+			}
+			System.out.println(store);
+		}
+		finally {
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory store of the metrics of task executions (run time, progress, start and end times),
+ * meant for analysis over a large number of executions.
+ *
+ * Each metric is kept in a column of primitives, one row per execution, and the task names and
+ * run statuses are kept as codes of a StringDictionary: an execution takes 36 bytes in the metric
+ * columns, and scans go through contiguous arrays. Values which are missing or not numbers are kept as MISSING.
+ *
+ * An execution stored again (described again by a later invocation) updates its row. The rows are
+ * found by the code of the task identifier (another StringDictionary) and a 64-bit hash of the
+ * execution identifier, kept in two more columns (12 bytes), through an open-addressing table of
+ * row numbers (8 to 16 bytes per execution). An execution thus takes 56 to 64 bytes in all, without
+ * any object of its own; two executions of a task whose identifiers have the same 64-bit hash,
+ * which is unlikely, would share a row.
+ * Can be used by several threads at once.
+ */
+public class ExecutionMetricsStore
+{
+	/**
+	 * The value of a missing metric
+	 */
+	public static final long MISSING = Long.MIN_VALUE;
+
+	private static final int MISSING_PERCENT = Integer.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final StringDictionary m_taskNames = new StringDictionary(Integer.MAX_VALUE);
+	private final StringDictionary m_runStatuses = new StringDictionary(Integer.MAX_VALUE);
+	private final StringDictionary m_taskIds = new StringDictionary(Integer.MAX_VALUE);
+	private int[] m_taskIdCodes = new int[INITIAL_CAPACITY];
+	private long[] m_executionIdHashes = new long[INITIAL_CAPACITY];
+	// The rows by task identifier code and execution identifier hash: the row + 1, or 0 for a free slot
+	private int[] m_index = new int[INITIAL_CAPACITY * 2];
+	private int[] m_taskNameCodes = new int[INITIAL_CAPACITY];
+	private int[] m_runStatusCodes = new int[INITIAL_CAPACITY];
+	private int[] m_progressPercents = new int[INITIAL_CAPACITY];
+	private long[] m_runTimes = new long[INITIAL_CAPACITY];
+	private long[] m_startTimes = new long[INITIAL_CAPACITY];
+	private long[] m_endTimes = new long[INITIAL_CAPACITY];
+	private int m_size = 0;
+
+	/**
+	 * Summary of the run times of a set of executions
+	 */
+	public static class RunTimeSummary
+	{
+		private final int m_count;
+		private final long m_total;
+		private final long m_min;
+		private final long m_max;
+
+		private RunTimeSummary(int count, long total, long min, long max)
+		{
+			m_count = count;
+			m_total = total;
+			m_min = min;
+			m_max = max;
+		}
+
+		/**
+		 * @return The number of executions with a run time
+		 */
+		public int getCount()
+		{
+			return m_count;
+		}
+
+		public long getTotal()
+		{
+			return m_total;
+		}
+
+		/**
+		 * @return The shortest run time, or MISSING if there is none
+		 */
+		public long getMin()
+		{
+			return m_min;
+		}
+
+		/**
+		 * @return The longest run time, or MISSING if there is none
+		 */
+		public long getMax()
+		{
+			return m_max;
+		}
+
+		public double getMean()
+		{
+			return m_count > 0 ? (double) m_total / m_count : 0;
+		}
+
+		public String toString()
+		{
+			return m_count + " executions" + (m_count > 0 ? ", run time min " + m_min + " mean "
+					+ Math.round(getMean()) + " max " + m_max : "");
+		}
+	}
+
+	/**
+	 * Stores the metrics of an execution, or updates them if it was already stored
+	 * @param taskName The name of the task
+	 * @param execution The execution
+	 * @return The row of the execution
+	 */
+	public synchronized int add(String taskName, ExecutionRecord execution)
+	{
+		int taskIdCode = m_taskIds.add(execution.getTaskId());
+		long executionIdHash = hash(execution.getId());
+		int slot = findSlot(taskIdCode, executionIdHash);
+		int row = m_index[slot] - 1;
+		if (row < 0) {
+			if (m_size == m_runTimes.length) {
+				grow();
+			}
+			row = m_size++;
+			m_taskIdCodes[row] = taskIdCode;
+			m_executionIdHashes[row] = executionIdHash;
+			m_index[slot] = row + 1;
+			if (m_size * 2 > m_index.length) {
+				rehash();
+			}
+		}
+		m_taskNameCodes[row] = m_taskNames.add(taskName);
+		m_runStatusCodes[row] = m_runStatuses.add(execution.getRunStatus());
+		long percent = parse(execution.getProgressPercent());
+		m_progressPercents[row] = percent >= Integer.MIN_VALUE && percent <= Integer.MAX_VALUE ? (int) percent : MISSING_PERCENT;
+		m_runTimes[row] = parse(execution.getRunTime());
+		m_startTimes[row] = parse(execution.getStartTime());
+		m_endTimes[row] = parse(execution.getEndTime());
+		return row;
+	}
+
+	/**
+	 * Stores the metrics of all the executions of a history store
+	 * @param history The history store
+	 * @return The number of executions
+	 * @throws IOException The history store is closed
+	 */
+	public int addAll(ExecutionHistoryStore history) throws IOException
+	{
+		int count = 0;
+		for (String taskId : history.getTaskIds()) {
+			TaskSummary task = history.getTask(taskId);
+			String taskName = task != null ? task.getName() : "";
+			for (ExecutionRecord execution : history.getExecutions(taskId)) {
+				add(taskName, execution);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of executions (rows)
+	 */
+	public synchronized int size()
+	{
+		return m_size;
+	}
+
+	public synchronized String getTaskName(int row)
+	{
+		checkRow(row);
+		return m_taskNames.getString(m_taskNameCodes[row]);
+	}
+
+	public synchronized String getRunStatus(int row)
+	{
+		checkRow(row);
+		return m_runStatuses.getString(m_runStatusCodes[row]);
+	}
+
+	/**
+	 * @param row The row of an execution
+	 * @return The progress in percent, or MISSING
+	 */
+	public synchronized long getProgressPercent(int row)
+	{
+		checkRow(row);
+		return m_progressPercents[row] != MISSING_PERCENT ? m_progressPercents[row] : MISSING;
+	}
+
+	/**
+	 * @param row The row of an execution
+	 * @return The run time, or MISSING
+	 */
+	public synchronized long getRunTime(int row)
+	{
+		checkRow(row);
+		return m_runTimes[row];
+	}
+
+	/**
+	 * @param row The row of an execution
+	 * @return The start time in milliseconds, or MISSING
+	 */
+	public synchronized long getStartTime(int row)
+	{
+		checkRow(row);
+		return m_startTimes[row];
+	}
+
+	/**
+	 * @param row The row of an execution
+	 * @return The end time in milliseconds, or MISSING (not ended)
+	 */
+	public synchronized long getEndTime(int row)
+	{
+		checkRow(row);
+		return m_endTimes[row];
+	}
+
+	/**
+	 * Summarizes the run times of the executions of a task and/or with a run status
+	 * @param taskName The name of the task, or null for all tasks
+	 * @param runStatus The run status, or null for all statuses
+	 * @return The summary
+	 */
+	public synchronized RunTimeSummary getRunTimeSummary(String taskName, String runStatus)
+	{
+		int taskNameCode = taskName != null ? m_taskNames.getCode(taskName) : -1;
+		int runStatusCode = runStatus != null ? m_runStatuses.getCode(runStatus) : -1;
+		int count = 0;
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		long max = MISSING;
+		if ((taskName == null || taskNameCode >= 0) && (runStatus == null || runStatusCode >= 0)) {
+			for (int row = 0; row < m_size; row++) {
+				long runTime = m_runTimes[row];
+				if (runTime != MISSING && (taskName == null || m_taskNameCodes[row] == taskNameCode)
+						&& (runStatus == null || m_runStatusCodes[row] == runStatusCode)) {
+					count++;
+					total += runTime;
+					min = Math.min(min, runTime);
+					max = Math.max(max, runTime);
+				}
+			}
+		}
+		return new RunTimeSummary(count, total, count > 0 ? min : MISSING, max);
+	}
+
+	/**
+	 * @return The number of executions by run status
+	 */
+	public synchronized Map<String, Integer> getRunStatusCounts()
+	{
+		int[] counts = new int[m_runStatuses.size()];
+		for (int row = 0; row < m_size; row++) {
+			counts[m_runStatusCodes[row]]++;
+		}
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (int code = 0; code < counts.length; code++) {
+			if (counts[code] > 0) {
+				result.put(m_runStatuses.getString(code), counts[code]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the executions which were running at a time: started, and not ended yet
+	 * @param time The time in milliseconds
+	 * @return The number of executions
+	 */
+	public synchronized int getRunningCount(long time)
+	{
+		int count = 0;
+		for (int row = 0; row < m_size; row++) {
+			long startTime = m_startTimes[row];
+			long endTime = m_endTimes[row];
+			if (startTime != MISSING && startTime <= time && (endTime == MISSING || endTime > time)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public synchronized String toString()
+	{
+		return m_size + " executions of " + m_taskNames.size() + " tasks, " + getRunTimeSummary(null, null).getCount()
+				+ " with a run time, by status " + getRunStatusCounts();
+	}
+
+	private void grow()
+	{
+		int capacity = m_runTimes.length * 2;
+		m_taskIdCodes = Arrays.copyOf(m_taskIdCodes, capacity);
+		m_executionIdHashes = Arrays.copyOf(m_executionIdHashes, capacity);
+		m_taskNameCodes = Arrays.copyOf(m_taskNameCodes, capacity);
+		m_runStatusCodes = Arrays.copyOf(m_runStatusCodes, capacity);
+		m_progressPercents = Arrays.copyOf(m_progressPercents, capacity);
+		m_runTimes = Arrays.copyOf(m_runTimes, capacity);
+		m_startTimes = Arrays.copyOf(m_startTimes, capacity);
+		m_endTimes = Arrays.copyOf(m_endTimes, capacity);
+	}
+
+	/**
+	 * @param taskIdCode The code of a task identifier
+	 * @param executionIdHash The hash of an execution identifier
+	 * @return The slot of the index holding the row of the execution, or the free slot it goes to
+	 */
+	private int findSlot(int taskIdCode, long executionIdHash)
+	{
+		int mask = m_index.length - 1;
+		int slot = getSlot(taskIdCode, executionIdHash) & mask;
+		while (m_index[slot] != 0) {
+			int row = m_index[slot] - 1;
+			if (m_taskIdCodes[row] == taskIdCode && m_executionIdHashes[row] == executionIdHash) {
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles the size of the index, so that at most half of its slots are used
+	 */
+	private void rehash()
+	{
+		m_index = new int[m_index.length * 2];
+		int mask = m_index.length - 1;
+		for (int row = 0; row < m_size; row++) {
+			int slot = getSlot(m_taskIdCodes[row], m_executionIdHashes[row]) & mask;
+			while (m_index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			m_index[slot] = row + 1;
+		}
+	}
+
+	private static int getSlot(int taskIdCode, long executionIdHash)
+	{
+		// Mixes all the bits (finalizer of MurmurHash3), as linear probing needs well-spread slots
+		long h = executionIdHash * 31 + taskIdCode;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (h ^ (h >>> 33));
+	}
+
+	/**
+	 * @param string A string
+	 * @return The 64-bit FNV-1a hash of its characters
+	 */
+	private static long hash(String string)
+	{
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < string.length(); i++) {
+			h = (h ^ string.charAt(i)) * 0x100000001B3L;
+		}
+		return h;
+	}
+
+	private void checkRow(int row)
+	{
+		if (row < 0 || row >= m_size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + m_size);
+		}
+	}
+
+	private static long parse(String value)
+	{
+		if (value == null || value.isEmpty()) {
+			return MISSING;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException exc) {
+			return MISSING;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Element;
+
+/**
+ * An execution of a task, as returned by the DescribeTask web service ("taskexec" element)
+ */
+public class ExecutionRecord
+{
+	private final String m_taskId;
+	private final String m_id;
+	private final String m_occurrenceId;
+	private final String m_progressText;
+	private final String m_progressPercent;
+	private final String m_runStatus;
+	private final String m_runTime;
+	private final String m_startTime;
+	private final String m_endTime;
+
+	public ExecutionRecord(String taskId, String id, String occurrenceId, String progressText, String progressPercent,
+						   String runStatus, String runTime, String startTime, String endTime)
+	{
+		m_taskId = taskId;
+		m_id = id;
+		m_occurrenceId = occurrenceId;
+		m_progressText = progressText;
+		m_progressPercent = progressPercent;
+		m_runStatus = runStatus;
+		m_runTime = runTime;
+		m_startTime = startTime;
+		m_endTime = endTime;
+	}
+
+	/**
+	 * @param taskId The identifier of the task
+	 * @param taskexec The "taskexec" element of the DescribeTask response
+	 * @return The execution record
+	 */
+	public static ExecutionRecord fromElement(String taskId, Element taskexec)
+	{
+		return new ExecutionRecord(taskId, taskexec.getAttribute("id"), taskexec.getAttribute("occurr_id"),
+				taskexec.getAttribute("progress_text"), taskexec.getAttribute("progress_perc"),
+				taskexec.getAttribute("runstatus"), taskexec.getAttribute("run_time"),
+				taskexec.getAttribute("start_time"), taskexec.getAttribute("end_time"));
+	}
+
+	public String getTaskId()
+	{
+		return m_taskId;
+	}
+
+	public String getId()
+	{
+		return m_id;
+	}
+
+	public String getOccurrenceId()
+	{
+		return m_occurrenceId;
+	}
+
+	public String getProgressText()
+	{
+		return m_progressText;
+	}
+
+	public String getProgressPercent()
+	{
+		return m_progressPercent;
+	}
+
+	public String getRunStatus()
+	{
+		return m_runStatus;
+	}
+
+	public String getRunTime()
+	{
+		return m_runTime;
+	}
+
+	public String getStartTime()
+	{
+		return m_startTime;
+	}
+
+	public String getEndTime()
+	{
+		return m_endTime;
+	}
+
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof ExecutionRecord)) {
+			return false;
+		}
+		ExecutionRecord other = (ExecutionRecord) obj;
+		return m_taskId.equals(other.m_taskId) && m_id.equals(other.m_id)
+				&& m_occurrenceId.equals(other.m_occurrenceId) && m_progressText.equals(other.m_progressText)
+				&& m_progressPercent.equals(other.m_progressPercent) && m_runStatus.equals(other.m_runStatus)
+				&& m_runTime.equals(other.m_runTime) && m_startTime.equals(other.m_startTime)
+				&& m_endTime.equals(other.m_endTime);
+	}
+
+	public int hashCode()
+	{
+		return m_taskId.hashCode() * 31 + m_id.hashCode();
+	}
+
+	public String toString()
+	{
+		return m_taskId + " " + m_id + " (" + m_occurrenceId + ") " + m_runStatus + " " + m_progressPercent + "% "
+				+ m_startTime + "-" + m_endTime;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An input stream returning the GZIP compressed form of another stream.
+ *
+ * Data is compressed as it is read, one buffer at a time, so that any amount of
+ * data can be compressed in constant memory and without any additional thread
+ * (for instance, while a SOAP message with attachments is being written).
+ */
+public class GZIPCompressingInputStream extends InputStream
+{
+	private static final byte[] GZIP_HEADER = {
+			(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+	};
+	private static final int TRAILER_SIZE = 8;
+
+	private static final int STATE_HEADER = 0;
+	private static final int STATE_DATA = 1;
+	private static final int STATE_TRAILER = 2;
+	private static final int STATE_END = 3;
+
+	private final InputStream m_source;
+	private final Deflater m_deflater;
+	private final CRC32 m_crc = new CRC32();
+	private final byte[] m_inputBuffer;
+	private final byte[] m_trailer = new byte[TRAILER_SIZE];
+	private final byte[] m_singleByte = new byte[1];
+	private int m_state = STATE_HEADER;
+	private int m_position = 0;
+	private boolean m_sourceEnded = false;
+
+	/**
+	 * @param source The data to compress
+	 * @param level The compression level (0-9, or Deflater.DEFAULT_COMPRESSION)
+	 * @param bufferSize The size of the buffer the data is read into
+	 */
+	public GZIPCompressingInputStream(InputStream source, int level, int bufferSize)
+	{
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		}
+		m_source = source;
+		m_deflater = new Deflater(level, true);
+		m_inputBuffer = new byte[bufferSize];
+	}
+
+	public int read() throws IOException
+	{
+		return read(m_singleByte, 0, 1) == -1 ? -1 : m_singleByte[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			switch (m_state) {
+				case STATE_HEADER:
+					return copy(GZIP_HEADER, b, off, len, STATE_DATA);
+
+				case STATE_DATA:
+					int count = deflate(b, off, len);
+					if (count > 0) {
+						return count;
+					}
+					break;
+
+				case STATE_TRAILER:
+					return copy(m_trailer, b, off, len, STATE_END);
+
+				default:
+					return -1;
+			}
+		}
+	}
+
+	/**
+	 * Compresses data into the caller buffer, reading more data when needed
+	 * @return The number of compressed bytes, 0 once all data has been compressed
+	 */
+	private int deflate(byte[] b, int off, int len) throws IOException
+	{
+		while (!m_deflater.finished()) {
+			if (!m_sourceEnded && m_deflater.needsInput()) {
+				int count = m_source.read(m_inputBuffer, 0, m_inputBuffer.length);
+				if (count == -1) {
+					m_sourceEnded = true;
+					m_deflater.finish();
+				}
+				else if (count > 0) {
+					m_crc.update(m_inputBuffer, 0, count);
+					m_deflater.setInput(m_inputBuffer, 0, count);
+				}
+			}
+			int compressed = m_deflater.deflate(b, off, len);
+			if (compressed > 0) {
+				return compressed;
+			}
+		}
+
+		writeTrailer();
+		m_state = STATE_TRAILER;
+		return 0;
+	}
+
+	private void writeTrailer()
+	{
+		writeInt((int) m_crc.getValue(), 0);
+		writeInt((int) m_deflater.getBytesRead(), 4);
+	}
+
+	private void writeInt(int value, int offset)
+	{
+		// Little endian, as required by the GZIP format
+		for (int i = 0; i < 4; i++) {
+			m_trailer[offset + i] = (byte) (value >> (8 * i));
+		}
+	}
+
+	private int copy(byte[] source, byte[] b, int off, int len, int nextState)
+	{
+		int count = Math.min(len, source.length - m_position);
+		System.arraycopy(source, m_position, b, off, count);
+		m_position += count;
+		if (m_position == source.length) {
+			m_position = 0;
+			m_state = nextState;
+		}
+		return count;
+	}
+
+	public void close() throws IOException
+	{
+		m_state = STATE_END;
+		m_deflater.end();
+		m_source.close();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with a relative precision of about 6%.
+ *
+ * Values are counted in buckets whose width grows with the value: each power of two
+ * is divided into 16 buckets. Can be updated and read by several threads at once.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray m_counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong m_count = new AtomicLong();
+	private final AtomicLong m_sum = new AtomicLong();
+	private final AtomicLong m_max = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		m_counts.incrementAndGet(indexOf(nanos));
+		m_count.incrementAndGet();
+		m_sum.addAndGet(nanos);
+		long max;
+		while (nanos > (max = m_max.get()) && !m_max.compareAndSet(max, nanos)) {
+			// Retry until the maximum is updated by this or another thread
+		}
+	}
+
+	public long getCount()
+	{
+		return m_count.get();
+	}
+
+	/**
+	 * @return The sum of all recorded latencies in nanoseconds
+	 */
+	public long getSum()
+	{
+		return m_sum.get();
+	}
+
+	/**
+	 * @return The maximum recorded latency in nanoseconds
+	 */
+	public long getMax()
+	{
+		return m_max.get();
+	}
+
+	/**
+	 * @param percentile The percentile (0 to 100)
+	 * @return The latency at this percentile in nanoseconds (upper bound of its bucket), 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long count = m_count.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulated = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulated += m_counts.get(i);
+			if (cumulated >= target) {
+				return Math.min(lowerBoundOf(i + 1) - 1, m_max.get());
+			}
+		}
+		return m_max.get();
+	}
+
+	private static int indexOf(long value)
+	{
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int group = msb - SUB_BUCKET_BITS + 1;
+		int subBucket = (int) (value >> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return group * SUB_BUCKETS + subBucket;
+	}
+
+	private static long lowerBoundOf(int index)
+	{
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		if (index >= BUCKET_COUNT) {
+			return Long.MAX_VALUE;
+		}
+		int group = index / SUB_BUCKETS;
+		int subBucket = index % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + subBucket) << (group - 1);
+	}
+}
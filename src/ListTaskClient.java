@@ -25,20 +25,148 @@
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.mail.Session;
 
 
 
 /**
  * A concrete implementation for the CIS "ListTasks" web service client.
+ *
+ * Each listed task is described through the "DescribeTask" web service.
+ * Descriptions can be requested concurrently (see setMaxInFlight()): the output
+ * of each task is then buffered and written in listing order, and a failing or
+ * slow task does not prevent the other tasks from being described.
  */
 public class ListTaskClient extends AbstractClient
 {
+	/**
+	 * The number of completed descriptions that may wait for a slower task
+	 * listed before them, per concurrent request
+	 */
+	private static final int PENDING_RESULTS_PER_REQUEST = 4;
+
+	private int m_maxInFlight = 1;
+	private long m_describeTimeout = 0;
+	private boolean m_streamingMode = false;
+	private boolean m_asyncMode = false;
+	private TaskWatcher m_watcher;
+	private List<TaskSummary> m_listedTasks;
+	private ExecutionHistoryStore m_historyStore;
+	private ExecutionMetricsStore m_metricsStore;
+
 	public ListTaskClient() throws Exception
 	{
 	}
 
+	/**
+	 * Sets the maximum number of DescribeTask requests sent concurrently.
+	 * @param maxInFlight The maximum number of concurrent requests (1 means sequential)
+	 */
+	public void setMaxInFlight(int maxInFlight)
+	{
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("Invalid number of concurrent requests: " + maxInFlight);
+		}
+		m_maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Sets how long the sweep waits for a task description once all tasks listed
+	 * before it have been output. Only applies to concurrent requests.
+	 * @param timeout The timeout in milliseconds (0 means no timeout)
+	 */
+	public void setDescribeTimeout(long timeout)
+	{
+		m_describeTimeout = timeout;
+	}
+
+
+	/**
+	 * Sets whether the ListTasks response is read as it is received (see TaskSpecReader)
+	 * rather than built as a DOM document. Tasks are then described while the listing
+	 * is still being read, and memory use does not depend on the number of tasks.
+	 * The ListTasks connection stays open until all tasks are described.
+	 * @param streamingMode true to stream the response
+	 */
+	public void setStreamingMode(boolean streamingMode)
+	{
+		m_streamingMode = streamingMode;
+	}
+
+	/**
+	 * Sets whether concurrent DescribeTask requests are sent without blocking (see invokeAsync()),
+	 * rather than by a thread per request. Many more requests can then be in flight at once.
+	 * @param asyncMode true to send the requests asynchronously
+	 */
+	public void setAsyncMode(boolean asyncMode)
+	{
+		m_asyncMode = asyncMode;
+	}
+
+	/**
+	 * Sets the watcher remembering the tasks seen by previous invocations of this client.
+	 * If set, only the tasks which are new or whose status or submit time changed are described.
+	 * @param watcher The task watcher, or null to describe all tasks
+	 */
+	public void setTaskWatcher(TaskWatcher watcher)
+	{
+		m_watcher = watcher;
+	}
+
+	/**
+	 * Sets the store the described tasks and their executions are kept in
+	 * (see DescribeTaskClient.setHistoryStore())
+	 * @param store The history store, or null to keep nothing
+	 */
+	public void setHistoryStore(ExecutionHistoryStore store)
+	{
+		m_historyStore = store;
+	}
+
+	/**
+	 * Sets the store the metrics of the executions of the described tasks are kept in
+	 * (see DescribeTaskClient.setExecutionMetricsStore())
+	 * @param store The execution metrics store, or null to keep nothing
+	 */
+	public void setExecutionMetricsStore(ExecutionMetricsStore store)
+	{
+		m_metricsStore = store;
+	}
+
+	/**
+	 * Sets whether the tasks listed by the next invocations are kept (see getListedTasks())
+	 * @param collect true to keep the listed tasks
+	 */
+	public void setCollectListedTasks(boolean collect)
+	{
+		m_listedTasks = collect ? new ArrayList<TaskSummary>() : null;
+	}
+
+	/**
+	 * @return The tasks listed by the last invocation, tagged with the name of the CIS server,
+	 * or null if they are not kept (see setCollectListedTasks())
+	 */
+	public List<TaskSummary> getListedTasks()
+	{
+		return m_listedTasks;
+	}
 
 	protected String getWebServiceName()
 	{
@@ -65,11 +193,28 @@ public class ListTaskClient extends AbstractClient
 	}
 	
 
+	protected String getRequestPayloadTemplate()
+	{
+		// No parameter: the whole request is compiled once
+		return getRequestPayload();
+	}
+
 	protected boolean isResponseExcepted()
 	{
 		return true;
 	}
 
+	protected boolean isResponseCacheable()
+	{
+		return true;
+	}
+
+	protected boolean isIdempotent()
+	{
+		// Read-only
+		return true;
+	}
+
 	protected void processResponse(Document responsePayload) throws Exception
 	{
 		Element tasks = responsePayload.getDocumentElement();
@@ -77,25 +222,320 @@ public class ListTaskClient extends AbstractClient
 		// Retrieve task nodes
 		NodeList nodes = tasks.getElementsByTagName("taskspec");
 		int nbNodes = nodes.getLength();
-		System.out.println();
-		System.out.println("Tasks: " + nbNodes);
+		logMsg("");
+		logMsg("Tasks: " + nbNodes);
+
+		List<Element> taskspecs = new ArrayList<Element>(nbNodes);
 		for (int i=0; i<nbNodes; i++) {
-			System.out.println();
-			Element taskspec = (Element) nodes.item(i);
-			//System.out.println("> Instance name: " + taskspec.getAttribute("instance_name"));
-			//System.out.println("> Name: " + taskspec.getAttribute("name"));
-			//System.out.println("> Cron expression: " + taskspec.getAttribute("cron_expression"));
-			//System.out.println("> Status: " + taskspec.getAttribute("status"));
-			//System.out.println("> Submit time: " + taskspec.getAttribute("submit_time"));
-			//System.out.println("> User Name: " + taskspec.getAttribute("username"));
-			//System.out.println("> ID: " + taskspec.getAttribute("id"));
-			//**************************************************************************************************************
-			DescribeTaskClient taskClient = new DescribeTaskClient(taskspec.getAttribute("id"));
-			taskClient.invoke(true);
-
-
-
-			//**************************************************************************************************************
+			taskspecs.add((Element) nodes.item(i));
+		}
+		describeListedTasks(taskspecs.iterator());
+	}
+
+	protected boolean isResponseStreamed()
+	{
+		return m_streamingMode;
+	}
+
+	protected void processResponseStream(InputStream responseContent) throws Exception
+	{
+		TaskSpecReader taskspecs = new TaskSpecReader(responseContent);
+		describeListedTasks(taskspecs);
+		logMsg("");
+		logMsg("Tasks: " + taskspecs.getCount());
+	}
+
+	/**
+	 * Describes the listed tasks, or only those which changed if a task watcher is set
+	 * @param listedTaskspecs The "taskspec" elements of the ListTasks response
+	 * @throws Exception Interrupted while waiting for a result
+	 */
+	private void describeListedTasks(Iterator<Element> listedTaskspecs) throws Exception
+	{
+		final Iterator<Element> taskspecs = m_listedTasks == null ? listedTaskspecs
+				: new CollectedTaskSpecs(listedTaskspecs, getEndpoint().getName(), m_listedTasks);
+		if (m_watcher == null) {
+			describeTasks(new Iterator<String>()
+			{
+				public boolean hasNext()
+				{
+					return taskspecs.hasNext();
+				}
+
+				public String next()
+				{
+					return taskspecs.next().getAttribute("id");
+				}
+
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			});
+			return;
+		}
+
+		m_watcher.beginCycle();
+		ChangedTaskIds changedTasks = new ChangedTaskIds(taskspecs, m_watcher);
+		describeTasks(changedTasks);
+		int removed = m_watcher.endCycle();
+		logMsg("");
+		logMsg("Changed tasks: " + changedTasks.count + ", removed tasks: " + removed);
+	}
+
+	/**
+	 * Invokes the DescribeTask web service for each task and outputs the results in order
+	 * @param taskIds The identifiers of the tasks to describe
+	 * @throws Exception Interrupted while waiting for a result
+	 */
+	protected void describeTasks(Iterator<String> taskIds) throws Exception
+	{
+		if (m_maxInFlight <= 1) {
+			while (taskIds.hasNext()) {
+				String taskId = taskIds.next();
+				logMsg("");
+				try {
+					DescribeTaskClient taskClient = newDescribeTaskClient(taskId, null);
+					taskClient.invoke();
+					recordDescription(taskClient);
+				}
+				catch (Exception exc) {
+					logDescribeFailure(taskId, exc, null);
+				}
+			}
+			return;
+		}
+
+		ExecutorService executor = m_asyncMode ? null :
+				Executors.newFixedThreadPool(m_maxInFlight, new DescribeThreadFactory());
+		Deque<PendingDescription> pending = new ArrayDeque<PendingDescription>();
+		int maxPending = m_maxInFlight * PENDING_RESULTS_PER_REQUEST;
+		try {
+			while (taskIds.hasNext()) {
+				if (pending.size() >= maxPending) {
+					completeDescription(pending.removeFirst());
+				}
+				final String taskId = taskIds.next();
+				final BufferedClientLogger output = new BufferedClientLogger();
+				final DescribeTaskClient taskClient = newDescribeTaskClient(taskId, output);
+				Future<?> result;
+				if (m_asyncMode) {
+					result = taskClient.invokeAsync();
+				}
+				else {
+					result = executor.submit(new Callable<Void>()
+					{
+						public Void call() throws Exception
+						{
+							taskClient.invoke();
+							return null;
+						}
+					});
+				}
+				pending.addLast(new PendingDescription(taskClient, output, result));
+			}
+			while (!pending.isEmpty()) {
+				completeDescription(pending.removeFirst());
+			}
+		}
+		finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Creates the client used to describe a listed task
+	 * @param taskId The task identifier
+	 * @param logger The logger for the task output, or null to use the logger of this client
+	 * @return The DescribeTask client
+	 */
+	protected DescribeTaskClient newDescribeTaskClient(String taskId, IClientLogger logger)
+	{
+		DescribeTaskClient taskClient = new DescribeTaskClient(taskId);
+		copySettingsTo(taskClient);
+		taskClient.setHistoryStore(m_historyStore);
+		taskClient.setExecutionMetricsStore(m_metricsStore);
+		if (logger != null) {
+			taskClient.setLogger(logger);
+		}
+		return taskClient;
+	}
+
+	/**
+	 * Waits for a task description to complete and outputs it
+	 * @param description The pending description
+	 * @throws InterruptedException Interrupted while waiting
+	 */
+	private void completeDescription(PendingDescription description) throws InterruptedException
+	{
+		try {
+			if (m_describeTimeout > 0) {
+				description.result.get(m_describeTimeout, TimeUnit.MILLISECONDS);
+			}
+			else {
+				description.result.get();
+			}
+			recordDescription(description.client);
+		}
+		catch (TimeoutException exc) {
+			description.result.cancel(true);
+			logDescribeFailure(description.client.getTaskId(), null, description.output);
+		}
+		catch (ExecutionException exc) {
+			logDescribeFailure(description.client.getTaskId(), exc.getCause(), description.output);
+		}
+
+		logMsg("");
+		description.output.flushTo(getLogger());
+	}
+
+	/**
+	 * Remembers a task which was described, so that it is only described again once changed
+	 * @param taskClient The client which described the task
+	 */
+	private void recordDescription(DescribeTaskClient taskClient)
+	{
+		if (m_watcher != null) {
+			int added = m_watcher.recordDescription(taskClient.getTaskId(), taskClient.getExecutionIds());
+			taskClient.logMsg("> New executions: " + added);
+		}
+	}
+
+	/**
+	 * Reports a task that could not be described (it is described again by the next invocation)
+	 * @param taskId The task identifier
+	 * @param cause The failure, or null if the description timed out
+	 * @param output The task output, or null to use the logger of this client
+	 */
+	private void logDescribeFailure(String taskId, Throwable cause, BufferedClientLogger output)
+	{
+		String msg = cause == null
+				? "> DescribeTask timed out after " + m_describeTimeout + " ms for task " + taskId
+				: "> DescribeTask failed for task " + taskId + ": " + cause;
+		if (output != null) {
+			output.logMessage(msg);
+		}
+		else {
+			logMsg(msg);
+		}
+	}
+
+	/**
+	 * The identifiers of the listed tasks which changed since they were last seen
+	 */
+	private static class ChangedTaskIds implements Iterator<String>
+	{
+		private final Iterator<Element> m_taskspecs;
+		private final TaskWatcher m_watcher;
+		private String m_next;
+		int count = 0;
+
+		ChangedTaskIds(Iterator<Element> taskspecs, TaskWatcher watcher)
+		{
+			m_taskspecs = taskspecs;
+			m_watcher = watcher;
+			m_next = findNext();
+		}
+
+		public boolean hasNext()
+		{
+			return m_next != null;
+		}
+
+		public String next()
+		{
+			if (m_next == null) {
+				throw new NoSuchElementException();
+			}
+			String taskId = m_next;
+			count++;
+			m_next = findNext();
+			return taskId;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		private String findNext()
+		{
+			while (m_taskspecs.hasNext()) {
+				Element taskspec = m_taskspecs.next();
+				if (m_watcher.hasChanged(taskspec)) {
+					return taskspec.getAttribute("id");
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The listed "taskspec" elements, each one being summarized as it is iterated
+	 */
+	private static class CollectedTaskSpecs implements Iterator<Element>
+	{
+		private final Iterator<Element> m_taskspecs;
+		private final String m_server;
+		private final List<TaskSummary> m_tasks;
+
+		CollectedTaskSpecs(Iterator<Element> taskspecs, String server, List<TaskSummary> tasks)
+		{
+			m_taskspecs = taskspecs;
+			m_server = server;
+			m_tasks = tasks;
+			tasks.clear();
+		}
+
+		public boolean hasNext()
+		{
+			return m_taskspecs.hasNext();
+		}
+
+		public Element next()
+		{
+			Element taskspec = m_taskspecs.next();
+			m_tasks.add(TaskSummary.fromElement(m_server, taskspec));
+			return taskspec;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A DescribeTask request submitted for concurrent processing
+	 */
+	private static class PendingDescription
+	{
+		final DescribeTaskClient client;
+		final BufferedClientLogger output;
+		final Future<?> result;
+
+		PendingDescription(DescribeTaskClient client, BufferedClientLogger output, Future<?> result)
+		{
+			this.client = client;
+			this.output = output;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Creates the daemon threads sending concurrent DescribeTask requests
+	 */
+	private static class DescribeThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "DescribeTask-" + s_threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
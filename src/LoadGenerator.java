@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invokes clients at a target request rate and reports the latency distribution.
+ *
+ * Requests are started on a fixed schedule whatever the response times (open loop), and
+ * latencies are measured from the scheduled start time, so that the time spent queued
+ * when the clients cannot keep up with the rate is included in the results:
+ *
+ *   java LoadGenerator <client class> <requests per second> <seconds>
+ *                      [-concurrency n] [-param p] [-mock] [-tasks n]
+ *
+ * With -mock, an embedded MockCISServer is started on the CIS port first.
+ */
+public class LoadGenerator
+{
+	/**
+	 * Creates the client for each request
+	 */
+	public interface ClientFactory
+	{
+		/**
+		 * @param sequence The request sequence number
+		 * @return The client to invoke
+		 * @throws Exception Client creation problem
+		 */
+		AbstractClient newClient(long sequence) throws Exception;
+	}
+
+	private static final AbstractClient.IClientLogger NO_LOGGER = new AbstractClient.IClientLogger()
+	{
+		public void logMessage(String message)
+		{
+		}
+	};
+
+	private final ClientFactory m_factory;
+	private final double m_rate;
+	private final long m_duration;
+	private final int m_concurrency;
+
+	private long[] m_latencies;
+	private final AtomicInteger m_completed = new AtomicInteger();
+	private final AtomicLong m_errors = new AtomicLong();
+	private volatile Exception m_lastError;
+
+	/**
+	 * @param factory The factory of the clients to invoke
+	 * @param rate The target number of requests per second
+	 * @param duration The duration of the test in milliseconds
+	 * @param concurrency The maximum number of requests in flight
+	 */
+	public LoadGenerator(ClientFactory factory, double rate, long duration, int concurrency)
+	{
+		m_factory = factory;
+		m_rate = rate;
+		m_duration = duration;
+		m_concurrency = concurrency;
+	}
+
+	/**
+	 * Runs the test and waits for all requests to complete
+	 * @return The test report
+	 * @throws InterruptedException Interrupted while waiting
+	 */
+	public Report run() throws InterruptedException
+	{
+		int requestCount = (int) Math.max(1, m_rate * m_duration / 1000);
+		m_latencies = new long[requestCount];
+		m_completed.set(0);
+		m_errors.set(0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(m_concurrency);
+		long intervalNanos = (long) (1e9 / m_rate);
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < requestCount; i++) {
+				final long scheduledTime = start + i * intervalNanos;
+				long wait = scheduledTime - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				final long sequence = i;
+				executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						invoke(sequence, scheduledTime);
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		long[] latencies = Arrays.copyOf(m_latencies, m_completed.get());
+		Arrays.sort(latencies);
+		return new Report(latencies, m_errors.get(), elapsed, m_lastError);
+	}
+
+	private void invoke(long sequence, long scheduledTime)
+	{
+		try {
+			AbstractClient client = m_factory.newClient(sequence);
+			client.setLogger(NO_LOGGER);
+			client.invoke();
+		}
+		catch (Exception exc) {
+			m_errors.incrementAndGet();
+			m_lastError = exc;
+		}
+		long latency = System.nanoTime() - scheduledTime;
+		m_latencies[m_completed.getAndIncrement()] = latency;
+	}
+
+	/**
+	 * The results of a load test
+	 */
+	public static class Report
+	{
+		private final long[] m_latencies;
+		private final long m_errors;
+		private final long m_elapsed;
+		private final Exception m_lastError;
+
+		Report(long[] sortedLatencies, long errors, long elapsed, Exception lastError)
+		{
+			m_latencies = sortedLatencies;
+			m_errors = errors;
+			m_elapsed = elapsed;
+			m_lastError = lastError;
+		}
+
+		/**
+		 * @param percentile The percentile (0 to 100)
+		 * @return The latency at this percentile, in milliseconds
+		 */
+		public double getLatency(double percentile)
+		{
+			if (m_latencies.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100 * m_latencies.length) - 1;
+			return m_latencies[Math.max(0, Math.min(index, m_latencies.length - 1))] / 1e6;
+		}
+
+		public long getRequestCount()
+		{
+			return m_latencies.length;
+		}
+
+		public long getErrorCount()
+		{
+			return m_errors;
+		}
+
+		/**
+		 * @return The number of requests completed per second
+		 */
+		public double getThroughput()
+		{
+			return m_latencies.length / (m_elapsed / 1e9);
+		}
+
+		public String toString()
+		{
+			return String.format("requests=%d errors=%d throughput=%.1f/s latency ms: " +
+							"p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+					getRequestCount(), m_errors, getThroughput(), getLatency(50), getLatency(90),
+					getLatency(99), getLatency(99.9), getLatency(100)) +
+					(m_lastError != null ? "\nLast error: " + m_lastError : "");
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 3) {
+			System.err.println("Usage: LoadGenerator <client class> <requests per second> <seconds> " +
+					"[-concurrency n] [-param p] [-mock] [-tasks n]");
+			return;
+		}
+		final String clientClassName = args[0];
+		double rate = Double.parseDouble(args[1]);
+		long duration = Long.parseLong(args[2]) * 1000;
+		int concurrency = 16;
+		String clientParam = null;
+		boolean mock = false;
+		int taskCount = 100;
+		for (int i = 3; i < args.length; i++) {
+			if (args[i].equals("-concurrency")) {
+				concurrency = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-param")) {
+				clientParam = args[++i];
+			}
+			else if (args[i].equals("-mock")) {
+				mock = true;
+			}
+			else if (args[i].equals("-tasks")) {
+				taskCount = Integer.parseInt(args[++i]);
+			}
+			else {
+				System.err.println("Error: Invalid argument " + args[i]);
+				return;
+			}
+		}
+
+		MockCISServer server = null;
+		if (mock) {
+			server = new MockCISServer(AbstractClient.CIS_PORT);
+			server.setTaskCount(taskCount);
+			server.start();
+		}
+
+		final Class<? extends AbstractClient> clientClass = Class.forName(clientClassName).asSubclass(AbstractClient.class);
+		final String param = clientParam;
+		final int describedTasks = taskCount;
+		ClientFactory factory = new ClientFactory()
+		{
+			public AbstractClient newClient(long sequence) throws Exception
+			{
+				if (clientClass == DescribeTaskClient.class) {
+					// Describe each task in turn, unless a task is given
+					return new DescribeTaskClient(param != null ? param
+							: CISFixtures.getTaskId((int) (sequence % describedTasks)));
+				}
+				return clientClass.getDeclaredConstructor().newInstance();
+			}
+		};
+
+		try {
+			Report report = new LoadGenerator(factory, rate, duration, concurrency).run();
+			System.out.println(clientClassName + ": " + report);
+			for (SOAPTransport.PoolStatistics statistics : WebServiceUtils.getSOAPTransport().getStatistics()) {
+				System.out.println(statistics);
+			}
+		}
+		finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * An embedded stand-in for CIS, serving the ListTasks and DescribeTask web services
+ * with generated content (see CISFixtures), for load tests and local runs.
+ *
+ * The response latency, the number of tasks and executions, the size of the GZIP
+ * attachment returned by DescribeTask and the rate of SOAP faults can be configured.
+ * By default it listens on the port the clients connect to, so that clients can be
+ * run against it unchanged:
+ *
+ *   java MockCISServer [-port n] [-tasks n] [-executions n] [-latency ms] [-jitter ms]
+ *                      [-attachment bytes] [-faults rate]
+ */
+public class MockCISServer
+{
+	private static final String CIS_NULL_RESPONSE_FAULT =
+			"chs.bridges.webservices.exceptions.WebServiceNullResponseException";
+	private static final String BOUNDARY = "MockCISBoundary";
+	private static final Pattern TASK_ID_PATTERN = Pattern.compile("id=[\"']UID([0-9a-f]+)-");
+
+	private final int m_port;
+	private HttpServer m_server;
+	private ExecutorService m_executor;
+
+	private volatile int m_taskCount = 100;
+	private volatile int m_executionCount = 10;
+	private volatile long m_latency = 0;
+	private volatile long m_jitter = 0;
+	private volatile long m_attachmentSize = 0;
+	private volatile double m_faultRate = 0;
+	private volatile byte[] m_listTasksResponse;
+
+	private final AtomicLong m_requests = new AtomicLong();
+	private final AtomicLong m_faults = new AtomicLong();
+
+	/**
+	 * @param port The port to listen on (0 for any free port)
+	 */
+	public MockCISServer(int port)
+	{
+		m_port = port;
+	}
+
+	public void setTaskCount(int taskCount)
+	{
+		m_taskCount = taskCount;
+		m_listTasksResponse = null;
+	}
+
+	public void setExecutionCount(int executionCount)
+	{
+		m_executionCount = executionCount;
+	}
+
+	/**
+	 * Sets the time taken to respond to each request
+	 * @param latency The minimum response time in milliseconds
+	 * @param jitter The maximum random time added to the minimum response time, in milliseconds
+	 */
+	public void setLatency(long latency, long jitter)
+	{
+		m_latency = latency;
+		m_jitter = jitter;
+	}
+
+	/**
+	 * @param attachmentSize The uncompressed size of the DescribeTask attachment in bytes (0 for no attachment)
+	 */
+	public void setAttachmentSize(long attachmentSize)
+	{
+		m_attachmentSize = attachmentSize;
+	}
+
+	/**
+	 * @param faultRate The proportion of requests answered with a WebServiceNullResponseException fault (0 to 1)
+	 */
+	public void setFaultRate(double faultRate)
+	{
+		m_faultRate = faultRate;
+	}
+
+	public void start() throws IOException
+	{
+		m_server = HttpServer.create(new InetSocketAddress(m_port), 0);
+		m_executor = Executors.newCachedThreadPool();
+		m_server.setExecutor(m_executor);
+		m_server.createContext("/chs/cis/ListTasks", new ServiceHandler()
+		{
+			void respond(HttpExchange exchange, String request) throws IOException
+			{
+				byte[] response = m_listTasksResponse;
+				if (response == null) {
+					response = CISFixtures.envelope(CISFixtures.listTasksPayload(m_taskCount));
+					m_listTasksResponse = response;
+				}
+				sendXML(exchange, 200, response);
+			}
+		});
+		m_server.createContext("/chs/cis/DescribeTask", new ServiceHandler()
+		{
+			void respond(HttpExchange exchange, String request) throws IOException
+			{
+				Matcher matcher = TASK_ID_PATTERN.matcher(request);
+				int taskIndex = matcher.find() ? Integer.parseInt(matcher.group(1), 16) : 0;
+				byte[] envelope = CISFixtures.envelope(CISFixtures.describeTaskPayload(taskIndex, m_executionCount));
+				if (m_attachmentSize > 0) {
+					sendWithAttachment(exchange, envelope, m_attachmentSize);
+				}
+				else {
+					sendXML(exchange, 200, envelope);
+				}
+			}
+		});
+		m_server.start();
+	}
+
+	public void stop()
+	{
+		if (m_server != null) {
+			m_server.stop(0);
+			m_executor.shutdownNow();
+			m_server = null;
+		}
+	}
+
+	/**
+	 * @return The port the server listens on
+	 */
+	public int getPort()
+	{
+		return m_server.getAddress().getPort();
+	}
+
+	public long getRequestCount()
+	{
+		return m_requests.get();
+	}
+
+	public long getFaultCount()
+	{
+		return m_faults.get();
+	}
+
+	private static void sendXML(HttpExchange exchange, int status, byte[] envelope) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", SOAPRequest.SOAP_CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, envelope.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(envelope);
+		out.close();
+	}
+
+	/**
+	 * Sends a SOAP message with a GZIP attachment, compressed while being sent
+	 */
+	private static void sendWithAttachment(HttpExchange exchange, byte[] envelope, long attachmentSize)
+			throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", "multipart/related; type=\"text/xml\"; boundary=\"" +
+				BOUNDARY + "\"; start=\"<rootpart>\"");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		out.write(("--" + BOUNDARY + "\r\nContent-Type: " + SOAPRequest.SOAP_CONTENT_TYPE +
+				"\r\nContent-Id: <rootpart>\r\n\r\n").getBytes("UTF8"));
+		out.write(envelope);
+		out.write(("\r\n--" + BOUNDARY + "\r\nContent-Type: application/gzip" +
+				"\r\nContent-Id: <parameters>\r\n\r\n").getBytes("UTF8"));
+		InputStream attachment = new GZIPCompressingInputStream(CISFixtures.attachmentData(attachmentSize),
+				Deflater.BEST_SPEED, 64 * 1024);
+		byte[] buffer = new byte[64 * 1024];
+		int count;
+		while ((count = attachment.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		attachment.close();
+		out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("UTF8"));
+		out.close();
+	}
+
+	/**
+	 * Handles a web service request: reads it, waits for the configured latency,
+	 * then either answers with a SOAP fault or with the service response
+	 */
+	private abstract class ServiceHandler implements HttpHandler
+	{
+		private final Random m_random = new Random();
+
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try {
+				m_requests.incrementAndGet();
+				String request = readRequest(exchange.getRequestBody());
+
+				long delay = m_latency;
+				double faultDraw;
+				synchronized (m_random) {
+					if (m_jitter > 0) {
+						delay += (long) (m_random.nextDouble() * m_jitter);
+					}
+					faultDraw = m_random.nextDouble();
+				}
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+
+				if (faultDraw < m_faultRate) {
+					m_faults.incrementAndGet();
+					sendXML(exchange, 500, CISFixtures.faultEnvelope(CIS_NULL_RESPONSE_FAULT));
+				}
+				else {
+					respond(exchange, request);
+				}
+			}
+			catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				exchange.close();
+			}
+		}
+
+		abstract void respond(HttpExchange exchange, String request) throws IOException;
+
+		private String readRequest(InputStream in) throws IOException
+		{
+			StringBuilder request = new StringBuilder();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				// Requests are small: only the beginning is kept
+				if (request.length() < 64 * 1024) {
+					request.append(new String(buffer, 0, count, "UTF8"));
+				}
+			}
+			return request.toString();
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int port = AbstractClient.CIS_PORT;
+		int taskCount = 100;
+		int executionCount = 10;
+		long latency = 0;
+		long jitter = 0;
+		long attachmentSize = 0;
+		double faultRate = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-tasks")) {
+				taskCount = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-executions")) {
+				executionCount = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-latency")) {
+				latency = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-jitter")) {
+				jitter = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-attachment")) {
+				attachmentSize = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-faults")) {
+				faultRate = Double.parseDouble(args[++i]);
+			}
+			else {
+				System.err.println("Error: Invalid argument " + args[i]);
+				return;
+			}
+		}
+
+		MockCISServer server = new MockCISServer(port);
+		server.setTaskCount(taskCount);
+		server.setExecutionCount(executionCount);
+		server.setLatency(latency, jitter);
+		server.setAttachmentSize(attachmentSize);
+		server.setFaultRate(faultRate);
+		server.start();
+		System.out.println("Mock CIS listening on port " + server.getPort());
+	}
+}
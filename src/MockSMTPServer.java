@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal embedded SMTP server accepting all messages, to try notification delivery
+ * (see NotificationDispatcher) without a mail server.
+ *
+ * It counts connections and messages, keeps the last messages received, and can reject
+ * a share of the messages with a transient error to exercise retries:
+ *
+ *   java MockSMTPServer [-port n] [-failures rate]
+ */
+public class MockSMTPServer
+{
+	private static final int MAX_KEPT_MESSAGES = 100;
+
+	private final int m_port;
+	private ServerSocket m_socket;
+	private ExecutorService m_executor;
+	private volatile double m_failureRate = 0;
+	private final Random m_random = new Random();
+
+	private final AtomicLong m_connections = new AtomicLong();
+	private final AtomicLong m_messages = new AtomicLong();
+	private final AtomicLong m_rejected = new AtomicLong();
+	private final List<String> m_received = new ArrayList<String>();
+
+	/**
+	 * @param port The port to listen on (0 for any free port)
+	 */
+	public MockSMTPServer(int port)
+	{
+		m_port = port;
+	}
+
+	/**
+	 * @param failureRate The share of the messages rejected with a transient error (0 to 1)
+	 */
+	public void setFailureRate(double failureRate)
+	{
+		m_failureRate = failureRate;
+	}
+
+	public synchronized void start() throws IOException
+	{
+		m_socket = new ServerSocket();
+		m_socket.bind(new InetSocketAddress(m_port));
+		m_executor = Executors.newCachedThreadPool();
+		m_executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				accept();
+			}
+		});
+	}
+
+	public synchronized void stop()
+	{
+		try {
+			m_socket.close();
+		}
+		catch (IOException exc) {
+			// Ignore
+		}
+		m_executor.shutdownNow();
+	}
+
+	public int getPort()
+	{
+		return m_socket.getLocalPort();
+	}
+
+	public long getConnectionCount()
+	{
+		return m_connections.get();
+	}
+
+	public long getMessageCount()
+	{
+		return m_messages.get();
+	}
+
+	public long getRejectedCount()
+	{
+		return m_rejected.get();
+	}
+
+	/**
+	 * @return The data of the last messages received, oldest first
+	 */
+	public List<String> getReceivedMessages()
+	{
+		synchronized (m_received) {
+			return new ArrayList<String>(m_received);
+		}
+	}
+
+	private void accept()
+	{
+		while (!m_socket.isClosed()) {
+			try {
+				final Socket connection = m_socket.accept();
+				m_connections.incrementAndGet();
+				m_executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						serve(connection);
+					}
+				});
+			}
+			catch (IOException exc) {
+				// Closed
+			}
+		}
+	}
+
+	/**
+	 * Serves one SMTP session
+	 */
+	private void serve(Socket connection)
+	{
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+			OutputStream out = connection.getOutputStream();
+			reply(out, "220 localhost Mock SMTP ready");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+				if (command.equals("EHLO")) {
+					reply(out, "250-localhost\r\n250 8BITMIME");
+				}
+				else if (command.equals("HELO") || command.equals("MAIL") || command.equals("RCPT") ||
+						command.equals("RSET") || command.equals("NOOP")) {
+					reply(out, "250 OK");
+				}
+				else if (command.equals("DATA")) {
+					reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					StringBuilder data = new StringBuilder();
+					while ((line = in.readLine()) != null && !line.equals(".")) {
+						data.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+					}
+					if (m_failureRate > 0 && m_random.nextDouble() < m_failureRate) {
+						m_rejected.incrementAndGet();
+						reply(out, "451 Temporary failure, try again later");
+					}
+					else {
+						m_messages.incrementAndGet();
+						synchronized (m_received) {
+							if (m_received.size() >= MAX_KEPT_MESSAGES) {
+								m_received.remove(0);
+							}
+							m_received.add(data.toString());
+						}
+						reply(out, "250 OK queued");
+					}
+				}
+				else if (command.equals("QUIT")) {
+					reply(out, "221 Bye");
+					break;
+				}
+				else {
+					reply(out, "502 Command not implemented");
+				}
+			}
+		}
+		catch (SocketException exc) {
+			// Connection closed by the client or the server stopped
+		}
+		catch (IOException exc) {
+			System.err.println("Mock SMTP session failed - " + exc);
+		}
+		finally {
+			try {
+				connection.close();
+			}
+			catch (IOException exc) {
+				// Ignore
+			}
+		}
+	}
+
+	private static void reply(OutputStream out, String line) throws IOException
+	{
+		out.write((line + "\r\n").getBytes("UTF-8"));
+		out.flush();
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int port = NotificationDispatcher.DEFAULT_SMTP_PORT;
+		double failureRate = 0;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-failures")) {
+				failureRate = Double.parseDouble(args[++i]);
+			}
+			else {
+				System.err.println("Error: Invalid argument " + args[i]);
+				return;
+			}
+		}
+
+		MockSMTPServer server = new MockSMTPServer(port);
+		server.setFailureRate(failureRate);
+		server.start();
+		System.out.println("Mock SMTP listening on port " + server.getPort());
+	}
+}
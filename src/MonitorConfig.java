@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An immutable snapshot of the monitor configuration, safe to be shared by several threads.
+ *
+ * The configuration is read from a properties XML file (see ConfigService) whose keys are
+ * case insensitive. Missing keys take the default values, which are the constants declared
+ * in AbstractClient for the CIS connection.
+ */
+public class MonitorConfig
+{
+	/**
+	 * The configuration with default values only
+	 */
+	public static final MonitorConfig DEFAULT = new MonitorConfig(Collections.<String, String>emptyMap(), null);
+
+	private final Map<String, String> m_properties;
+	private final File m_source;
+
+	private final String m_cisHost;
+	private final int m_cisPort;
+	private final int m_cisSecurePort;
+	private final String m_chsUser;
+	private final String m_chsPassword;
+	private final String m_outputDirectory;
+	private final int m_connectTimeout;
+	private final int m_readTimeout;
+	private final int m_maxConnectionsPerHost;
+	private final CISEndpoint m_cisEndpoint;
+	private final List<CISEndpoint> m_cisEndpoints;
+
+	private final String m_mailTo;
+	private final String m_mailFrom;
+	private final String m_mailSubject;
+	private final String m_smtpHost;
+	private final int m_smtpPort;
+	private final long m_digestWindow;
+
+	private MonitorConfig(Map<String, String> properties, File source)
+	{
+		m_properties = properties;
+		m_source = source;
+
+		m_cisHost = getString("cisHost", AbstractClient.CIS_HOST);
+		m_cisPort = getInt("cisPort", AbstractClient.CIS_PORT);
+		m_cisSecurePort = getInt("cisSecurePort", AbstractClient.CIS_SECURE_PORT);
+		m_chsUser = getString("chsUser", AbstractClient.CHS_USER);
+		m_chsPassword = getString("chsPassword", AbstractClient.CHS_PASSWORD);
+		m_outputDirectory = getString("outputDirectory", AbstractClient.OUTPUT_DIRECTORY);
+		m_connectTimeout = getInt("connectTimeout", SOAPTransport.DEFAULT_CONNECT_TIMEOUT);
+		m_readTimeout = getInt("readTimeout", SOAPTransport.DEFAULT_READ_TIMEOUT);
+		m_maxConnectionsPerHost = getInt("maxConnectionsPerHost", SOAPTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+		m_cisEndpoint = new CISEndpoint(m_cisHost + ":" + m_cisPort, m_cisHost, m_cisPort, m_cisSecurePort);
+		String servers = getProperty("cisServers");
+		m_cisEndpoints = Collections.unmodifiableList(servers != null && !servers.isEmpty() ?
+				CISEndpoint.parseList(servers) : Collections.singletonList(m_cisEndpoint));
+
+		m_mailTo = getString("to", "");
+		m_mailFrom = getString("from", "");
+		m_mailSubject = getString("subject", "");
+		m_smtpHost = getString("smtpHost", "");
+		m_smtpPort = getInt("smtpPort", NotificationDispatcher.DEFAULT_SMTP_PORT);
+		// In seconds in the file
+		m_digestWindow = getInt("digestWindow", 0) * 1000L;
+	}
+
+	/**
+	 * Reads a configuration file
+	 * @param file The properties XML file
+	 * @return The configuration
+	 * @throws IOException The file cannot be read or is invalid
+	 */
+	public static MonitorConfig load(File file) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.loadFromXML(in);
+		}
+		finally {
+			in.close();
+		}
+		try {
+			return fromProperties(properties, file);
+		}
+		catch (IllegalArgumentException exc) {
+			throw new IOException("Invalid configuration " + file + ": " + exc.getMessage(), exc);
+		}
+	}
+
+	/**
+	 * @param properties The configuration properties
+	 * @param source The file the properties were read from, or null
+	 * @return The configuration
+	 * @throws IllegalArgumentException Invalid property value
+	 */
+	public static MonitorConfig fromProperties(Properties properties, File source)
+	{
+		Map<String, String> normalized = new HashMap<String, String>();
+		for (String name : properties.stringPropertyNames()) {
+			normalized.put(name.toLowerCase(Locale.ROOT), properties.getProperty(name).trim());
+		}
+		return new MonitorConfig(Collections.unmodifiableMap(normalized), source);
+	}
+
+	/**
+	 * @param name The property name (case insensitive)
+	 * @return The property value as found in the file, or null if it is missing
+	 */
+	public String getProperty(String name)
+	{
+		return m_properties.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	private String getString(String name, String defaultValue)
+	{
+		String value = getProperty(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private int getInt(String name, int defaultValue)
+	{
+		String value = getProperty(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException exc) {
+			throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+		}
+	}
+
+	/**
+	 * @return The file the configuration was read from, or null for the default configuration
+	 */
+	public File getSource()
+	{
+		return m_source;
+	}
+
+	public String getCISHost()
+	{
+		return m_cisHost;
+	}
+
+	public int getCISPort()
+	{
+		return m_cisPort;
+	}
+
+	public int getCISSecurePort()
+	{
+		return m_cisSecurePort;
+	}
+
+	/**
+	 * @return The endpoint of the CIS server (cisHost, cisPort and cisSecurePort)
+	 */
+	public CISEndpoint getCISEndpoint()
+	{
+		return m_cisEndpoint;
+	}
+
+	/**
+	 * @return The endpoints of the CIS servers to monitor (cisServers, separated by commas,
+	 * see CISEndpoint.parse()), or only the CIS server endpoint if not set
+	 */
+	public List<CISEndpoint> getCISEndpoints()
+	{
+		return m_cisEndpoints;
+	}
+
+	public String getCHSUser()
+	{
+		return m_chsUser;
+	}
+
+	public String getCHSPassword()
+	{
+		return m_chsPassword;
+	}
+
+	public String getOutputDirectory()
+	{
+		return m_outputDirectory;
+	}
+
+	/**
+	 * @return The connection timeout of the SOAP transport in milliseconds (0 means no timeout)
+	 */
+	public int getConnectTimeout()
+	{
+		return m_connectTimeout;
+	}
+
+	/**
+	 * @return The read timeout of the SOAP transport in milliseconds (0 means no timeout)
+	 */
+	public int getReadTimeout()
+	{
+		return m_readTimeout;
+	}
+
+	public int getMaxConnectionsPerHost()
+	{
+		return m_maxConnectionsPerHost;
+	}
+
+	public String getMailTo()
+	{
+		return m_mailTo;
+	}
+
+	public String getMailFrom()
+	{
+		return m_mailFrom;
+	}
+
+	public String getMailSubject()
+	{
+		return m_mailSubject;
+	}
+
+	public String getSMTPHost()
+	{
+		return m_smtpHost;
+	}
+
+	public int getSMTPPort()
+	{
+		return m_smtpPort;
+	}
+
+	/**
+	 * @return The notification digest window in milliseconds
+	 */
+	public long getDigestWindow()
+	{
+		return m_digestWindow;
+	}
+
+	/**
+	 * @param other Another configuration
+	 * @return true if both configurations authenticate to CIS with the same credentials
+	 */
+	public boolean hasSameCredentials(MonitorConfig other)
+	{
+		return m_chsUser.equals(other.m_chsUser) && m_chsPassword.equals(other.m_chsPassword);
+	}
+
+	/**
+	 * @param other Another configuration
+	 * @return true if both configurations send notifications the same way
+	 */
+	public boolean hasSameMailSettings(MonitorConfig other)
+	{
+		return m_mailTo.equals(other.m_mailTo) && m_mailFrom.equals(other.m_mailFrom) &&
+				m_mailSubject.equals(other.m_mailSubject) && m_smtpHost.equals(other.m_smtpHost) &&
+				m_smtpPort == other.m_smtpPort && m_digestWindow == other.m_digestWindow;
+	}
+
+	public boolean equals(Object obj)
+	{
+		return obj instanceof MonitorConfig && m_properties.equals(((MonitorConfig) obj).m_properties);
+	}
+
+	public int hashCode()
+	{
+		return m_properties.hashCode();
+	}
+
+	public String toString()
+	{
+		return "MonitorConfig: " + (m_source != null ? m_source.getPath() : "defaults") +
+				" cis=" + m_cisHost + ":" + m_cisPort + "/" + m_cisSecurePort + " user=" + m_chsUser;
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Monitors the tasks of several CIS servers at once.
+ *
+ * Each sweep invokes the ListTasks web service (and DescribeTask for each listed task)
+ * on all servers concurrently, so that it takes as long as the slowest server.
+ * The output of each server is buffered and written in server order, and the listed
+ * tasks are merged into one list tagged with the server names.
+ * A failing or unreachable server does not prevent the other servers from being monitored.
+ */
+public class MultiServerMonitor
+{
+	private final List<CISEndpoint> m_endpoints;
+	private final Map<CISEndpoint, TaskWatcher> m_watchers = new HashMap<CISEndpoint, TaskWatcher>();
+	private final Map<CISEndpoint, ExecutionHistoryStore> m_historyStores =
+			new HashMap<CISEndpoint, ExecutionHistoryStore>();
+	private int m_maxInFlightPerServer = 1;
+	private boolean m_streamingMode = false;
+	private boolean m_asyncMode = false;
+	private ExecutionMetricsStore m_metricsStore;
+	private AbstractClient.IClientLogger m_logger = new AbstractClient.IClientLogger()
+	{
+		public void logMessage(String message)
+		{
+			System.out.println(message);
+		}
+	};
+
+	/**
+	 * @param endpoints The CIS servers to monitor
+	 */
+	public MultiServerMonitor(List<CISEndpoint> endpoints)
+	{
+		if (endpoints.isEmpty()) {
+			throw new IllegalArgumentException("No CIS server to monitor");
+		}
+		m_endpoints = new ArrayList<CISEndpoint>(endpoints);
+	}
+
+	public List<CISEndpoint> getEndpoints()
+	{
+		return Collections.unmodifiableList(m_endpoints);
+	}
+
+	/**
+	 * Sets the maximum number of DescribeTask requests sent concurrently to each server
+	 * (see ListTaskClient.setMaxInFlight())
+	 * @param maxInFlight The maximum number of concurrent requests per server
+	 */
+	public void setMaxInFlightPerServer(int maxInFlight)
+	{
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("Invalid number of concurrent requests: " + maxInFlight);
+		}
+		m_maxInFlightPerServer = maxInFlight;
+	}
+
+	/**
+	 * @param streamingMode true to stream the ListTasks responses (see ListTaskClient.setStreamingMode())
+	 */
+	public void setStreamingMode(boolean streamingMode)
+	{
+		m_streamingMode = streamingMode;
+	}
+
+	/**
+	 * @param asyncMode true to send the DescribeTask requests asynchronously (see ListTaskClient.setAsyncMode())
+	 */
+	public void setAsyncMode(boolean asyncMode)
+	{
+		m_asyncMode = asyncMode;
+	}
+
+	/**
+	 * Keeps the described tasks and executions of each server in its own history store,
+	 * in a subdirectory named after the server (see ListTaskClient.setHistoryStore())
+	 * @param directory The directory of the history stores
+	 * @throws IOException A store cannot be opened
+	 */
+	public synchronized void setHistoryDirectory(File directory) throws IOException
+	{
+		closeHistoryStores();
+		for (CISEndpoint endpoint : m_endpoints) {
+			String name = endpoint.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+			m_historyStores.put(endpoint, new ExecutionHistoryStore(new File(directory, name)));
+		}
+	}
+
+	/**
+	 * Sets the store the metrics of the executions described on all servers are kept in
+	 * (see ListTaskClient.setExecutionMetricsStore()). The executions already kept in the history
+	 * stores are added to it (see setHistoryDirectory()).
+	 * @param store The execution metrics store, or null to keep nothing
+	 * @throws IOException A history store cannot be read
+	 */
+	public synchronized void setExecutionMetricsStore(ExecutionMetricsStore store) throws IOException
+	{
+		m_metricsStore = store;
+		if (store != null) {
+			for (ExecutionHistoryStore history : m_historyStores.values()) {
+				store.addAll(history);
+			}
+		}
+	}
+
+	/**
+	 * Closes the history stores (see setHistoryDirectory())
+	 */
+	public synchronized void closeHistoryStores()
+	{
+		for (ExecutionHistoryStore store : m_historyStores.values()) {
+			store.close();
+		}
+		m_historyStores.clear();
+	}
+
+	/**
+	 * Sets whether each sweep only describes the tasks which changed since the previous sweep
+	 * (see ListTaskClient.setTaskWatcher()). Each server has its own task watcher, which remembers
+	 * the tasks of its history store if any.
+	 * @param watching true to only describe the changed tasks
+	 * @throws IOException A history store cannot be read
+	 */
+	public synchronized void setWatching(boolean watching) throws IOException
+	{
+		m_watchers.clear();
+		if (watching) {
+			for (CISEndpoint endpoint : m_endpoints) {
+				TaskWatcher watcher = new TaskWatcher();
+				ExecutionHistoryStore store = m_historyStores.get(endpoint);
+				if (store != null) {
+					watcher.seed(store);
+				}
+				m_watchers.put(endpoint, watcher);
+			}
+		}
+	}
+
+	/**
+	 * @param logger The logger the output of all servers is written to
+	 */
+	public void setLogger(AbstractClient.IClientLogger logger)
+	{
+		m_logger = logger;
+	}
+
+	/**
+	 * Lists and describes the tasks of all servers concurrently, and waits for all of them
+	 * @param loggingMode If true, request and response SOAP messages will be output
+	 * @return The merged results of all servers
+	 * @throws Exception Software configuration problem, or interrupted while waiting
+	 */
+	public synchronized SweepResult sweep(final boolean loggingMode) throws Exception
+	{
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(m_endpoints.size(), new ServerThreadFactory());
+		try {
+			List<ListTaskClient> clients = new ArrayList<ListTaskClient>(m_endpoints.size());
+			List<AbstractClient.BufferedClientLogger> outputs =
+					new ArrayList<AbstractClient.BufferedClientLogger>(m_endpoints.size());
+			List<Future<Long>> results = new ArrayList<Future<Long>>(m_endpoints.size());
+			for (CISEndpoint endpoint : m_endpoints) {
+				final ListTaskClient client = newListTaskClient(endpoint);
+				AbstractClient.BufferedClientLogger output = new AbstractClient.BufferedClientLogger();
+				client.setLogger(output);
+				clients.add(client);
+				outputs.add(output);
+				results.add(executor.submit(new Callable<Long>()
+				{
+					public Long call() throws Exception
+					{
+						long serverStart = System.nanoTime();
+						client.invoke(loggingMode);
+						return System.nanoTime() - serverStart;
+					}
+				}));
+			}
+
+			// Output the servers in order, as soon as each one is complete
+			SweepResult sweep = new SweepResult();
+			for (int i=0; i<m_endpoints.size(); i++) {
+				String server = m_endpoints.get(i).getName();
+				m_logger.logMessage("");
+				m_logger.logMessage("====== CIS server " + server);
+				try {
+					sweep.m_durations.put(server, results.get(i).get() / 1000000);
+				}
+				catch (ExecutionException exc) {
+					sweep.m_failures.put(server, exc.getCause());
+					outputs.get(i).logMessage("> ListTasks failed for server " + server + ": " + exc.getCause());
+				}
+				outputs.get(i).flushTo(m_logger);
+				List<TaskSummary> tasks = clients.get(i).getListedTasks();
+				if (tasks != null) {
+					sweep.m_tasks.addAll(tasks);
+				}
+			}
+			sweep.m_elapsed = (System.nanoTime() - start) / 1000000;
+			return sweep;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates the client listing the tasks of a server
+	 * @param endpoint The server
+	 * @return The ListTasks client
+	 * @throws Exception Software configuration problem
+	 */
+	protected ListTaskClient newListTaskClient(CISEndpoint endpoint) throws Exception
+	{
+		ListTaskClient client = new ListTaskClient();
+		client.setEndpoint(endpoint);
+		client.setMaxInFlight(m_maxInFlightPerServer);
+		client.setStreamingMode(m_streamingMode);
+		client.setAsyncMode(m_asyncMode);
+		client.setTaskWatcher(m_watchers.get(endpoint));
+		client.setHistoryStore(m_historyStores.get(endpoint));
+		client.setExecutionMetricsStore(m_metricsStore);
+		client.setCollectListedTasks(true);
+		return client;
+	}
+
+	/**
+	 * The results of a sweep of all servers
+	 */
+	public static class SweepResult
+	{
+		private final List<TaskSummary> m_tasks = new ArrayList<TaskSummary>();
+		private final Map<String, Throwable> m_failures = new LinkedHashMap<String, Throwable>();
+		private final Map<String, Long> m_durations = new LinkedHashMap<String, Long>();
+		private long m_elapsed;
+
+		/**
+		 * @return The tasks listed by all servers, in server order
+		 */
+		public List<TaskSummary> getTasks()
+		{
+			return Collections.unmodifiableList(m_tasks);
+		}
+
+		/**
+		 * @return The failure of each server that could not be monitored, by server name
+		 */
+		public Map<String, Throwable> getFailures()
+		{
+			return Collections.unmodifiableMap(m_failures);
+		}
+
+		/**
+		 * @return The time taken by each server successfully monitored in milliseconds, by server name
+		 */
+		public Map<String, Long> getDurations()
+		{
+			return Collections.unmodifiableMap(m_durations);
+		}
+
+		/**
+		 * @return The time taken by the whole sweep in milliseconds
+		 */
+		public long getElapsedTime()
+		{
+			return m_elapsed;
+		}
+
+		public String toString()
+		{
+			return "Servers: " + (m_durations.size() + m_failures.size()) + ", failed: " + m_failures.size()
+					+ ", tasks: " + m_tasks.size() + ", elapsed: " + m_elapsed + " ms " + m_durations;
+		}
+	}
+
+	/**
+	 * Creates the daemon threads monitoring the servers
+	 */
+	private static class ServerThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "CISServer-" + s_threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
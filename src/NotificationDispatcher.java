@@ -0,0 +1,441 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends notification emails from a background thread through a single SMTP connection,
+ * which is kept open between messages and reopened when needed.
+ *
+ * Notifications are queued. The events notified within the digest window following the
+ * first one are merged into a single email. A message failing with a transient SMTP error
+ * (connection lost, server busy) is sent again after an increasing delay; messages failing
+ * permanently (authentication, invalid recipients) are dropped. All outcomes are counted.
+ */
+public class NotificationDispatcher
+{
+	public static final int DEFAULT_SMTP_PORT = 25;
+	public static final long DEFAULT_DIGEST_WINDOW = 0;
+	public static final int DEFAULT_MAX_EVENTS_PER_MESSAGE = 100;
+	public static final int DEFAULT_MAX_ATTEMPTS = 4;
+	public static final long DEFAULT_RETRY_DELAY = 2000;
+
+	private static final int QUEUE_CAPACITY = 10000;
+	private static final long IDLE_CONNECTION_TIMEOUT = 60000;
+	private static final String SMTP_TIMEOUT = "30000";
+	private static final String EVENT_SEPARATOR = "\n\n----------------------------------------\n\n";
+
+	private final Session m_session;
+	private final InternetAddress m_from;
+	private final InternetAddress[] m_to;
+	private final String m_subject;
+	private volatile long m_digestWindow = DEFAULT_DIGEST_WINDOW;
+	private volatile int m_maxEventsPerMessage = DEFAULT_MAX_EVENTS_PER_MESSAGE;
+	private volatile int m_maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private volatile long m_retryDelay = DEFAULT_RETRY_DELAY;
+
+	private final BlockingQueue<String> m_queue = new ArrayBlockingQueue<String>(QUEUE_CAPACITY);
+	private final Thread m_sender;
+	private final Thread m_shutdownHook;
+	private volatile boolean m_closed = false;
+
+	private final AtomicLong m_sentMessages = new AtomicLong();
+	private final AtomicLong m_sentEvents = new AtomicLong();
+	private final AtomicLong m_droppedEvents = new AtomicLong();
+	private final AtomicLong m_retries = new AtomicLong();
+	private final AtomicLong m_connections = new AtomicLong();
+
+	// Only used by the sender thread
+	private Transport m_transport;
+	private long m_lastUse;
+
+	/**
+	 * The "mail.*" system properties (authentication, STARTTLS...) apply to the SMTP session as well,
+	 * and take precedence over the port and timeouts given here.
+	 * @param smtpHost The SMTP server host
+	 * @param smtpPort The SMTP server port
+	 * @param from The sender address
+	 * @param to The recipient addresses, separated by commas
+	 * @param subject The subject of the notification emails
+	 * @throws AddressException Invalid address
+	 */
+	public NotificationDispatcher(String smtpHost, int smtpPort, String from, String to, String subject)
+			throws AddressException
+	{
+		// A copy, so that the settings of a dispatcher do not change those of the JVM
+		Properties properties = new Properties();
+		properties.putAll(System.getProperties());
+		properties.setProperty("mail.smtp.host", smtpHost);
+		properties.putIfAbsent("mail.smtp.port", Integer.toString(smtpPort));
+		properties.putIfAbsent("mail.smtp.connectiontimeout", SMTP_TIMEOUT);
+		properties.putIfAbsent("mail.smtp.timeout", SMTP_TIMEOUT);
+		m_session = Session.getInstance(properties);
+
+		m_from = new InternetAddress(from);
+		String[] recipients = to.trim().split("\\s*,\\s*");
+		m_to = new InternetAddress[recipients.length];
+		for (int i = 0; i < recipients.length; i++) {
+			m_to[i] = new InternetAddress(recipients[i]);
+		}
+		m_subject = subject;
+
+		m_sender = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				sendNotifications();
+			}
+		}, "NotificationDispatcher");
+		m_sender.setDaemon(true);
+		m_sender.start();
+
+		// Send the queued notifications before the JVM exits
+		m_shutdownHook = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				close();
+			}
+		}, "NotificationDispatcher-shutdown");
+		Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+	}
+
+	/**
+	 * Sets the time during which the events following a first one are merged into the same email
+	 * @param digestWindow The digest window in milliseconds (0 sends one email per event,
+	 * apart from the events queued while the previous email was sent)
+	 */
+	public void setDigestWindow(long digestWindow)
+	{
+		m_digestWindow = digestWindow;
+	}
+
+	/**
+	 * @param maxEvents The maximum number of events merged into one email
+	 */
+	public void setMaxEventsPerMessage(int maxEvents)
+	{
+		if (maxEvents < 1) {
+			throw new IllegalArgumentException("Invalid number of events: " + maxEvents);
+		}
+		m_maxEventsPerMessage = maxEvents;
+	}
+
+	/**
+	 * Sets how messages failing with a transient error are sent again
+	 * @param maxAttempts The maximum number of attempts per message
+	 * @param retryDelay The delay before the first new attempt in milliseconds, doubled at each attempt
+	 */
+	public void setRetry(int maxAttempts, long retryDelay)
+	{
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+		}
+		m_maxAttempts = maxAttempts;
+		m_retryDelay = retryDelay;
+	}
+
+	/**
+	 * Queues a notification, without waiting for it to be sent
+	 * @param event The notification text
+	 * @return false if the notification was dropped because the queue is full or the dispatcher closed
+	 */
+	public boolean notify(String event)
+	{
+		if (m_closed || !m_queue.offer(event)) {
+			m_droppedEvents.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the queued notifications without waiting for the digest window,
+	 * closes the SMTP connection and stops the sender thread
+	 */
+	public void close()
+	{
+		if (m_closed) {
+			return;
+		}
+		m_closed = true;
+		if (Thread.currentThread() != m_shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+			}
+			catch (IllegalStateException exc) {
+				// The JVM is exiting: the hook runs anyway
+			}
+		}
+		m_sender.interrupt();
+		try {
+			m_sender.join(TimeUnit.MINUTES.toMillis(1));
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getSentMessageCount()
+	{
+		return m_sentMessages.get();
+	}
+
+	public long getSentEventCount()
+	{
+		return m_sentEvents.get();
+	}
+
+	/**
+	 * @return The number of events dropped: queue full, dispatcher closed or permanent failure
+	 */
+	public long getDroppedEventCount()
+	{
+		return m_droppedEvents.get();
+	}
+
+	public long getRetryCount()
+	{
+		return m_retries.get();
+	}
+
+	/**
+	 * @return The number of SMTP connections opened
+	 */
+	public long getConnectionCount()
+	{
+		return m_connections.get();
+	}
+
+	public String toString()
+	{
+		return "NotificationDispatcher: messages=" + m_sentMessages.get() + " events=" + m_sentEvents.get() +
+				" dropped=" + m_droppedEvents.get() + " retries=" + m_retries.get() +
+				" connections=" + m_connections.get();
+	}
+
+	/**
+	 * The sender thread loop
+	 */
+	private void sendNotifications()
+	{
+		List<String> events = new ArrayList<String>();
+		try {
+			while (!m_closed || !m_queue.isEmpty()) {
+				String first;
+				try {
+					first = m_closed ? m_queue.poll() : m_queue.poll(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException exc) {
+					continue;
+				}
+				if (first == null) {
+					// SMTP servers close idle connections anyway
+					closeTransport();
+					continue;
+				}
+
+				events.clear();
+				events.add(first);
+				collectDigest(events);
+				send(events);
+			}
+		}
+		finally {
+			closeTransport();
+		}
+	}
+
+	/**
+	 * Adds the events notified within the digest window to the first one
+	 * @param events The events of the message
+	 */
+	private void collectDigest(List<String> events)
+	{
+		int maxEvents = m_maxEventsPerMessage;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_digestWindow);
+		while (events.size() < maxEvents) {
+			long remaining = deadline - System.nanoTime();
+			String event;
+			if (remaining <= 0 || m_closed) {
+				event = m_queue.poll();
+			}
+			else {
+				try {
+					event = m_queue.poll(remaining, TimeUnit.NANOSECONDS);
+				}
+				catch (InterruptedException exc) {
+					// Closing: send what is queued without waiting
+					continue;
+				}
+			}
+			if (event == null) {
+				if (remaining <= 0 || m_closed) {
+					return;
+				}
+				continue;
+			}
+			events.add(event);
+		}
+	}
+
+	/**
+	 * Sends one message with the events, making several attempts on transient errors.
+	 * When only some recipients could not be sent to, the next attempts are only sent to them.
+	 * @param events The events of the message
+	 */
+	private void send(List<String> events)
+	{
+		long delay = m_retryDelay;
+		Address[] recipients = null;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				Message message = createMessage(events);
+				Transport transport = getTransport();
+				transport.sendMessage(message, recipients != null ? recipients : message.getAllRecipients());
+				m_lastUse = System.currentTimeMillis();
+				m_sentMessages.incrementAndGet();
+				m_sentEvents.addAndGet(events.size());
+				return;
+			}
+			catch (MessagingException exc) {
+				closeTransport();
+				if (!isTransient(exc) || attempt >= m_maxAttempts) {
+					m_droppedEvents.addAndGet(events.size());
+					System.err.println("Cannot send the notification of " + events.size() + " event(s) - " + exc);
+					return;
+				}
+				if (exc instanceof SendFailedException) {
+					// The other recipients already received the message
+					recipients = ((SendFailedException) exc).getValidUnsentAddresses();
+				}
+			}
+
+			m_retries.incrementAndGet();
+			try {
+				// Random jitter so that several monitors do not retry at the same time
+				Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+			}
+			catch (InterruptedException exc) {
+				// Closing: make the remaining attempts without waiting
+				delay = 0;
+			}
+			delay *= 2;
+		}
+	}
+
+	private Message createMessage(List<String> events) throws MessagingException
+	{
+		MimeMessage message = new MimeMessage(m_session);
+		message.setFrom(m_from);
+		for (InternetAddress recipient : m_to) {
+			message.addRecipient(Message.RecipientType.TO, recipient);
+		}
+		message.setSentDate(new Date());
+		if (events.size() == 1) {
+			message.setSubject(m_subject);
+			message.setText(events.get(0));
+		}
+		else {
+			message.setSubject(m_subject + " (" + events.size() + " events)");
+			StringBuilder text = new StringBuilder();
+			for (String event : events) {
+				if (text.length() > 0) {
+					text.append(EVENT_SEPARATOR);
+				}
+				text.append(event);
+			}
+			message.setText(text.toString());
+		}
+		message.saveChanges();
+		return message;
+	}
+
+	/**
+	 * Returns the SMTP connection, opening it if it is not open anymore
+	 * @return The connected transport
+	 * @throws MessagingException Connection failure
+	 */
+	private Transport getTransport() throws MessagingException
+	{
+		if (m_transport != null &&
+				(System.currentTimeMillis() - m_lastUse > IDLE_CONNECTION_TIMEOUT || !m_transport.isConnected())) {
+			closeTransport();
+		}
+		if (m_transport == null) {
+			Transport transport = m_session.getTransport("smtp");
+			transport.connect();
+			m_connections.incrementAndGet();
+			m_transport = transport;
+			m_lastUse = System.currentTimeMillis();
+		}
+		return m_transport;
+	}
+
+	private void closeTransport()
+	{
+		if (m_transport != null) {
+			try {
+				m_transport.close();
+			}
+			catch (MessagingException exc) {
+				// Ignore: the connection is dropped anyway
+			}
+			m_transport = null;
+		}
+	}
+
+	/**
+	 * @return true if the failure may not happen again, false if it is permanent
+	 */
+	private static boolean isTransient(MessagingException exc)
+	{
+		if (exc instanceof AuthenticationFailedException || exc instanceof AddressException) {
+			return false;
+		}
+		if (exc instanceof SendFailedException) {
+			// Rejected recipients are permanent failures, unless some valid ones were not sent to
+			Address[] unsent = ((SendFailedException) exc).getValidUnsentAddresses();
+			return unsent != null && unsent.length > 0;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends the SOAP requests of the clients through WebServiceUtils, guarding each server
+ * with a circuit breaker, and optionally hedging slow requests.
+ *
+ * A hedged request is sent a second time when its response takes longer than a percentile
+ * of the past response times of its web service, and the first response received is used.
+ * This cuts the tail latency of the requests when a few of them are slowed down by the server,
+ * at the cost of a bounded proportion of extra requests. Only idempotent requests are hedged.
+ *
+ * The retry policy is applied by the clients (see AbstractClient), which may select
+ * another server for each attempt. Can be used by several threads at once.
+ */
+public class ResilientTransport
+{
+	/**
+	 * The number of response times needed before requests are hedged
+	 */
+	public static final int HEDGE_MIN_SAMPLES = 20;
+
+	public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+	private final ConcurrentHashMap<String, CircuitBreaker> m_breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private volatile RetryPolicy m_retryPolicy = new RetryPolicy();
+	private volatile int m_failureThreshold = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+	private volatile long m_openTime = CircuitBreaker.DEFAULT_OPEN_TIME;
+	private volatile double m_hedgePercentile = 0;
+	private volatile double m_maxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+	private ExecutorService m_hedgeExecutor;
+	private ScheduledExecutorService m_retryTimer;
+
+	private final AtomicLong m_requests = new AtomicLong();
+	private final AtomicLong m_retries = new AtomicLong();
+	private final AtomicLong m_hedges = new AtomicLong();
+	private final AtomicLong m_hedgeWins = new AtomicLong();
+
+	public void setRetryPolicy(RetryPolicy policy)
+	{
+		m_retryPolicy = policy;
+	}
+
+	public RetryPolicy getRetryPolicy()
+	{
+		return m_retryPolicy;
+	}
+
+	/**
+	 * Sets when the circuit breakers open. Only applies to servers not contacted yet.
+	 * @param failureThreshold The number of consecutive failures opening the breaker of a server
+	 * @param openTime The time requests are rejected for once the breaker is open, in milliseconds
+	 */
+	public void setCircuitBreaker(int failureThreshold, long openTime)
+	{
+		m_failureThreshold = failureThreshold;
+		m_openTime = openTime;
+	}
+
+	/**
+	 * Sets when requests are hedged
+	 * @param percentile The percentile of the response times of the web service after which
+	 * the request is sent again (0 disables hedging, e.g. 95)
+	 * @param maxRatio The maximum proportion of requests hedged
+	 */
+	public void setHedging(double percentile, double maxRatio)
+	{
+		if (percentile < 0 || percentile >= 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		m_hedgePercentile = percentile;
+		m_maxHedgeRatio = maxRatio;
+	}
+
+	/**
+	 * @param url The URL of a web service
+	 * @return The circuit breaker of the server of the web service
+	 */
+	public CircuitBreaker getCircuitBreaker(URL url)
+	{
+		String key = url.getProtocol() + "://" + url.getHost() + ":" +
+				(url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+		CircuitBreaker breaker = m_breakers.get(key);
+		if (breaker == null) {
+			CircuitBreaker newBreaker = new CircuitBreaker(key, m_failureThreshold, m_openTime);
+			breaker = m_breakers.putIfAbsent(key, newBreaker);
+			if (breaker == null) {
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns how long a request waits for its response before being hedged
+	 * @param latencies The past response times of the web service
+	 * @return The delay in nanoseconds, or 0 if the request is not to be hedged
+	 */
+	public long getHedgeDelay(LatencyHistogram latencies)
+	{
+		double percentile = m_hedgePercentile;
+		if (percentile <= 0 || latencies.getCount() < HEDGE_MIN_SAMPLES) {
+			return 0;
+		}
+		return latencies.getPercentile(percentile);
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param hedgeDelay How long to wait for the response before sending the request again,
+	 * in nanoseconds (0 to never send it again, see getHedgeDelay())
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws SOAPException Connection problem, server problem, invalid response,
+	 * or the circuit breaker of the server is open (CircuitBreaker.OpenException)
+	 */
+	public SOAPMessage call(SOAPRequest request, URL url, long hedgeDelay) throws SOAPException
+	{
+		return call(request, url, hedgeDelay, null);
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response, hedging it to another server if possible
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param hedgeDelay How long to wait for the response before sending the request again,
+	 * in nanoseconds (0 to never send it again, see getHedgeDelay())
+	 * @param hedgeTarget Provides the server the request is sent to again, or null to send it to the same URL
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws SOAPException Connection problem, server problem, invalid response,
+	 * or the circuit breaker of the server is open (CircuitBreaker.OpenException)
+	 */
+	public SOAPMessage call(SOAPRequest request, URL url, long hedgeDelay, HedgeTarget hedgeTarget) throws SOAPException
+	{
+		CircuitBreaker breaker = getCircuitBreaker(url);
+		breaker.acquire();
+		m_requests.incrementAndGet();
+		boolean succeeded = false;
+		try {
+			SOAPMessage response = hedgeDelay > 0 && request.isShareable()
+					? callHedged(request, url, hedgeDelay, hedgeTarget)
+					: WebServiceUtils.sendSOAPRequest(request, url);
+			succeeded = true;
+			return response;
+		}
+		finally {
+			if (succeeded) {
+				breaker.onSuccess();
+			}
+			else {
+				breaker.onFailure();
+			}
+		}
+	}
+
+	/**
+	 * Sends a SOAP request and passes the response content to a handler as it is received
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param handler The handler reading the response content
+	 * @throws Exception Connection problem, server problem, handler failure,
+	 * or the circuit breaker of the server is open (CircuitBreaker.OpenException)
+	 */
+	public void call(SOAPRequest request, URL url, final SOAPTransport.ResponseHandler handler) throws Exception
+	{
+		CircuitBreaker breaker = getCircuitBreaker(url);
+		breaker.acquire();
+		m_requests.incrementAndGet();
+		final boolean[] answered = new boolean[1];
+		try {
+			WebServiceUtils.sendSOAPRequest(request, url, new SOAPTransport.ResponseHandler()
+			{
+				public void handleResponse(InputStream content, String contentType) throws Exception
+				{
+					answered[0] = true;
+					handler.handleResponse(content, contentType);
+				}
+			});
+		}
+		finally {
+			// A processing failure is not a server failure
+			if (answered[0]) {
+				breaker.onSuccess();
+			}
+			else {
+				breaker.onFailure();
+			}
+		}
+	}
+
+	/**
+	 * Sends a SOAP request without blocking (see WebServiceUtils.sendSOAPRequestAsync())
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @return The future SOAP response message, completed with null if the response is empty
+	 * @throws SOAPException The asynchronous transport cannot be created,
+	 * or the circuit breaker of the server is open (CircuitBreaker.OpenException)
+	 */
+	public CompletableFuture<SOAPMessage> callAsync(SOAPRequest request, URL url) throws SOAPException
+	{
+		final CircuitBreaker breaker = getCircuitBreaker(url);
+		breaker.acquire();
+		m_requests.incrementAndGet();
+		CompletableFuture<SOAPMessage> response;
+		try {
+			response = WebServiceUtils.sendSOAPRequestAsync(request, url);
+		}
+		catch (Throwable exc) {
+			// Whatever the failure, a half-open breaker must not wait for this trial forever
+			breaker.onFailure();
+			throw exc;
+		}
+		return response.whenComplete(new BiConsumer<SOAPMessage, Throwable>()
+		{
+			public void accept(SOAPMessage responseMsg, Throwable failure)
+			{
+				if (failure == null) {
+					breaker.onSuccess();
+				}
+				else {
+					breaker.onFailure();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a task after the delay before a retry (see RetryPolicy.getDelay()), without blocking the calling thread
+	 * @param retry The number of the retry, from 1
+	 * @param task The task sending the request again
+	 */
+	public void scheduleRetry(int retry, Runnable task)
+	{
+		getRetryTimer().schedule(task, m_retryPolicy.getDelay(retry), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reports that a client is about to retry a request
+	 */
+	public void recordRetry()
+	{
+		m_retries.incrementAndGet();
+	}
+
+	/**
+	 * Sends a request, and sends it again if no response is received after a delay
+	 * @param request The SOAP request, shareable
+	 * @param url The URL of the web service to send the request to
+	 * @param hedgeDelay The delay in nanoseconds
+	 * @param hedgeTarget Provides the server the request is sent to again, or null to send it to the same URL
+	 * @return The first SOAP response message received, or null if the response is empty
+	 * @throws SOAPException Both requests failed: the failure of the last one
+	 */
+	private SOAPMessage callHedged(final SOAPRequest request, final URL url, long hedgeDelay,
+			final HedgeTarget hedgeTarget) throws SOAPException
+	{
+		Callable<SOAPMessage> exchange = new Callable<SOAPMessage>()
+		{
+			public SOAPMessage call() throws SOAPException
+			{
+				return WebServiceUtils.sendSOAPRequest(request, url);
+			}
+		};
+		Callable<SOAPMessage> hedgeExchange = hedgeTarget == null ? exchange : new Callable<SOAPMessage>()
+		{
+			public SOAPMessage call() throws Exception
+			{
+				// The other server is guarded by its own circuit breaker
+				URL hedgeURL = hedgeTarget.acquire();
+				long sendStart = 0;
+				boolean reached = false;
+				try {
+					CircuitBreaker breaker = getCircuitBreaker(hedgeURL);
+					breaker.acquire();
+					sendStart = System.nanoTime();
+					try {
+						SOAPMessage response = WebServiceUtils.sendSOAPRequest(request, hedgeURL);
+						reached = true;
+						return response;
+					}
+					finally {
+						if (reached) {
+							breaker.onSuccess();
+						}
+						else {
+							breaker.onFailure();
+						}
+					}
+				}
+				finally {
+					hedgeTarget.release(sendStart, System.nanoTime(), reached);
+				}
+			}
+		};
+		CompletionService<SOAPMessage> completion = new ExecutorCompletionService<SOAPMessage>(getHedgeExecutor());
+		Future<SOAPMessage> primary = completion.submit(exchange);
+		Future<SOAPMessage> hedge = null;
+		try {
+			Future<SOAPMessage> first = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+			if (first == null && m_hedges.get() < m_requests.get() * m_maxHedgeRatio) {
+				m_hedges.incrementAndGet();
+				hedge = completion.submit(hedgeExchange);
+			}
+			if (first == null) {
+				first = completion.take();
+			}
+			try {
+				SOAPMessage response = first.get();
+				if (first == hedge) {
+					m_hedgeWins.incrementAndGet();
+				}
+				return response;
+			}
+			catch (ExecutionException exc) {
+				if (hedge == null) {
+					throw exc;
+				}
+				// Wait for the other request
+				return completion.take().get();
+			}
+		}
+		catch (ExecutionException exc) {
+			Throwable cause = exc.getCause();
+			if (cause instanceof SOAPException) {
+				throw (SOAPException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SOAPException(cause.toString(), cause);
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new SOAPException("Interrupted while waiting for " + url, exc);
+		}
+		finally {
+			// The slower request completes in the background
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	private synchronized ExecutorService getHedgeExecutor()
+	{
+		if (m_hedgeExecutor == null) {
+			m_hedgeExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("HedgedRequest"));
+		}
+		return m_hedgeExecutor;
+	}
+
+	private synchronized ScheduledExecutorService getRetryTimer()
+	{
+		if (m_retryTimer == null) {
+			m_retryTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("RequestRetry"));
+		}
+		return m_retryTimer;
+	}
+
+	public long getRequestCount()
+	{
+		return m_requests.get();
+	}
+
+	public long getRetryCount()
+	{
+		return m_retries.get();
+	}
+
+	public long getHedgeCount()
+	{
+		return m_hedges.get();
+	}
+
+	/**
+	 * @return The number of hedged requests whose second response was received first
+	 */
+	public long getHedgeWinCount()
+	{
+		return m_hedgeWins.get();
+	}
+
+	public String toString()
+	{
+		return "Requests: " + m_requests + ", retries: " + m_retries + ", hedged: " + m_hedges
+				+ " (" + m_hedgeWins + " faster), breakers: " + m_breakers.values();
+	}
+
+	/**
+	 * The server a hedged request is sent to, such as another node of an endpoint group
+	 */
+	public interface HedgeTarget
+	{
+		/**
+		 * Selects the server the hedged request is sent to
+		 * @return The URL of the web service on that server
+		 * @throws Exception The URL cannot be built
+		 */
+		URL acquire() throws Exception;
+
+		/**
+		 * Called once the hedged request is completed, whether it was sent or not
+		 * @param sendStart When the request was sent (System.nanoTime()), or 0 if it was not sent
+		 * @param end When the response was received or the request failed (System.nanoTime())
+		 * @param reached true if the response was received
+		 */
+		void release(long sendStart, long end, boolean reached);
+	}
+
+	/**
+	 * Creates the daemon threads sending the hedged requests and the asynchronous retries
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String m_prefix;
+		private final AtomicInteger m_threadCount = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix)
+		{
+			m_prefix = prefix;
+		}
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, m_prefix + "-" + m_threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
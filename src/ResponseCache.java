@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process cache of web service responses, for services whose response only
+ * depends on the server and the request payload (for instance, DescribeTask and ListTasks).
+ *
+ * Entries expire after a time to live which can be set per service, and the least
+ * recently used entries are evicted once the cache is full.
+ * Each caller gets its own copy of a cached response.
+ * Can be used by several threads at once.
+ */
+public class ResponseCache
+{
+	private final int m_maxEntries;
+	private final long m_defaultTimeToLive;
+	private final Map<String, Long> m_timesToLive = new ConcurrentHashMap<String, Long>();
+	private final LinkedHashMap<String, CacheEntry> m_entries;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+	private final AtomicLong m_expirations = new AtomicLong();
+
+	/**
+	 * @param maxEntries The maximum number of responses kept
+	 * @param defaultTimeToLive How long a response is kept, in milliseconds, for services without a specific time to live
+	 */
+	public ResponseCache(int maxEntries, long defaultTimeToLive)
+	{
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxEntries);
+		}
+		m_maxEntries = maxEntries;
+		m_defaultTimeToLive = defaultTimeToLive;
+		m_entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+			{
+				if (size() > m_maxEntries) {
+					m_evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Sets how long the responses of a service are kept
+	 * @param serviceName The web service name
+	 * @param timeToLive The time to live in milliseconds (0 means responses are not cached)
+	 */
+	public void setTimeToLive(String serviceName, long timeToLive)
+	{
+		m_timesToLive.put(serviceName, timeToLive);
+	}
+
+	/**
+	 * Returns a copy of the cached response to a request
+	 * @param serviceName The web service name
+	 * @param server The name of the server the request is sent to
+	 * @param requestPayload The request payload
+	 * @return The response, or null if it is not cached or has expired
+	 */
+	public Document get(String serviceName, String server, String requestPayload)
+	{
+		String key = getKey(serviceName, server, requestPayload);
+		CacheEntry entry;
+		synchronized (m_entries) {
+			entry = m_entries.get(key);
+			if (entry != null && entry.expiryTime <= System.currentTimeMillis()) {
+				m_entries.remove(key);
+				m_expirations.incrementAndGet();
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			m_misses.incrementAndGet();
+			return null;
+		}
+		m_hits.incrementAndGet();
+		return entry.copyResponse();
+	}
+
+	/**
+	 * Caches the response to a request
+	 * @param serviceName The web service name
+	 * @param server The name of the server the request was sent to
+	 * @param requestPayload The request payload
+	 * @param response The response (a copy is cached)
+	 */
+	public void put(String serviceName, String server, String requestPayload, Document response)
+	{
+		Long timeToLive = m_timesToLive.get(serviceName);
+		long ttl = timeToLive != null ? timeToLive : m_defaultTimeToLive;
+		if (ttl <= 0) {
+			return;
+		}
+		CacheEntry entry = new CacheEntry((Document) response.cloneNode(true), System.currentTimeMillis() + ttl);
+		synchronized (m_entries) {
+			m_entries.put(getKey(serviceName, server, requestPayload), entry);
+		}
+	}
+
+	/**
+	 * Removes the cached response to a request
+	 * @param serviceName The web service name
+	 * @param server The name of the server the request is sent to
+	 * @param requestPayload The request payload
+	 */
+	public void invalidate(String serviceName, String server, String requestPayload)
+	{
+		synchronized (m_entries) {
+			m_entries.remove(getKey(serviceName, server, requestPayload));
+		}
+	}
+
+	/**
+	 * Removes all the cached responses of a service
+	 * @param serviceName The web service name
+	 */
+	public void invalidateService(String serviceName)
+	{
+		String prefix = serviceName + '\u0000';
+		synchronized (m_entries) {
+			for (Iterator<String> iter = m_entries.keySet().iterator(); iter.hasNext(); ) {
+				if (iter.next().startsWith(prefix)) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all the cached responses
+	 */
+	public void invalidateAll()
+	{
+		synchronized (m_entries) {
+			m_entries.clear();
+		}
+	}
+
+	/**
+	 * @return The number of responses currently cached
+	 */
+	public int size()
+	{
+		synchronized (m_entries) {
+			return m_entries.size();
+		}
+	}
+
+	public long getHitCount()
+	{
+		return m_hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return m_misses.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return m_evictions.get();
+	}
+
+	public long getExpirationCount()
+	{
+		return m_expirations.get();
+	}
+
+	public String toString()
+	{
+		return "ResponseCache: size=" + size() + "/" + m_maxEntries + " hits=" + m_hits.get() +
+				" misses=" + m_misses.get() + " evictions=" + m_evictions.get() +
+				" expirations=" + m_expirations.get();
+	}
+
+	private static String getKey(String serviceName, String server, String requestPayload)
+	{
+		return serviceName + '\u0000' + server + '\u0000' + requestPayload;
+	}
+
+	/**
+	 * A cached response and its expiry time
+	 */
+	private static class CacheEntry
+	{
+		final Document response;
+		final long expiryTime;
+
+		CacheEntry(Document response, long expiryTime)
+		{
+			this.response = response;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * DOM documents cannot be read by several threads at once: callers are given copies
+		 */
+		synchronized Document copyResponse()
+		{
+			return (Document) response.cloneNode(true);
+		}
+	}
+}
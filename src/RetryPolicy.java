@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.SOAPException;
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how long after a failed SOAP exchange it is retried.
+ *
+ * Requests to idempotent services are retried after any transport failure. Other requests are
+ * only retried if they could not be sent at all: the server may have processed them otherwise.
+ * The delay before each retry is random, up to a limit doubling at each retry (full jitter),
+ * so that the clients failing together do not retry together.
+ */
+public class RetryPolicy
+{
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_BASE_DELAY = 200;
+	public static final long DEFAULT_MAX_DELAY = 5000;
+
+	/**
+	 * The policy making a single attempt
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+	private final int m_maxAttempts;
+	private final long m_baseDelay;
+	private final long m_maxDelay;
+
+	/**
+	 * @param maxAttempts The maximum number of attempts, including the first one
+	 * @param baseDelay The maximum delay before the first retry, in milliseconds
+	 * @param maxDelay The maximum delay before any retry, in milliseconds
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+	{
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+		}
+		m_maxAttempts = maxAttempts;
+		m_baseDelay = baseDelay;
+		m_maxDelay = maxDelay;
+	}
+
+	public RetryPolicy()
+	{
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	public int getMaxAttempts()
+	{
+		return m_maxAttempts;
+	}
+
+	/**
+	 * @param failure The failure of the SOAP exchange
+	 * @param attempt The number of attempts made so far
+	 * @param idempotent true if the request can be processed several times by the server
+	 * @param failover true if the retry may be sent to another server
+	 * @return true if the request is to be sent again
+	 */
+	public boolean isRetryable(SOAPException failure, int attempt, boolean idempotent, boolean failover)
+	{
+		if (attempt >= m_maxAttempts) {
+			return false;
+		}
+		if (failure instanceof CircuitBreaker.OpenException) {
+			// Not sent: only worth retrying on another server
+			return failover;
+		}
+		return idempotent || failure.getCause() instanceof ConnectException;
+	}
+
+	/**
+	 * @param retry The number of the retry, from 1
+	 * @return The random delay before the retry in milliseconds
+	 */
+	public long getDelay(int retry)
+	{
+		long limit = Math.min(m_maxDelay, m_baseDelay << Math.min(retry - 1, 30));
+		return limit <= 0 ? 0 : ThreadLocalRandom.current().nextLong(limit + 1);
+	}
+
+	/**
+	 * Waits before a retry
+	 * @param retry The number of the retry, from 1
+	 * @throws InterruptedException Interrupted while waiting
+	 */
+	public void waitBeforeRetry(int retry) throws InterruptedException
+	{
+		long delay = getDelay(retry);
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+
+	public String toString()
+	{
+		return "attempts: " + m_maxAttempts + ", delay: " + m_baseDelay + "-" + m_maxDelay + " ms";
+	}
+}
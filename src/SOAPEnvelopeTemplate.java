@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SOAP request envelope compiled once into bytes, with parameter slots.
+ *
+ * The request payload is given as an XML string where parameters appear as "${name}",
+ * for instance: &lt;taskspec id="${id}"/&gt;. Requests are then produced by copying the
+ * compiled bytes and the escaped parameter values, without any XML parsing or DOM.
+ * Can be used by several threads at once.
+ */
+public class SOAPEnvelopeTemplate
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String ENVELOPE_START =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">";
+	private static final String ENVELOPE_END = "</soapenv:Body></soapenv:Envelope>";
+
+	private final byte[][] m_segments;
+	private final String[] m_parameterNames;
+
+	/**
+	 * Compiles an envelope template
+	 * @param headerXML The content of the SOAP header, as XML (may be empty)
+	 * @param payloadTemplate The request payload, as XML with "${name}" parameter slots
+	 */
+	public SOAPEnvelopeTemplate(String headerXML, String payloadTemplate)
+	{
+		List<byte[]> segments = new ArrayList<byte[]>();
+		List<String> names = new ArrayList<String>();
+
+		StringBuilder segment = new StringBuilder(ENVELOPE_START);
+		if (headerXML.length() > 0) {
+			segment.append("<soapenv:Header>").append(headerXML).append("</soapenv:Header>");
+		}
+		segment.append("<soapenv:Body>");
+
+		int pos = 0;
+		int slotStart;
+		while ((slotStart = payloadTemplate.indexOf("${", pos)) != -1) {
+			int slotEnd = payloadTemplate.indexOf('}', slotStart);
+			if (slotEnd == -1) {
+				throw new IllegalArgumentException("Unterminated parameter in template: " + payloadTemplate);
+			}
+			segment.append(payloadTemplate, pos, slotStart);
+			segments.add(segment.toString().getBytes(UTF8));
+			names.add(payloadTemplate.substring(slotStart + 2, slotEnd));
+			segment.setLength(0);
+			pos = slotEnd + 1;
+		}
+		segment.append(payloadTemplate, pos, payloadTemplate.length()).append(ENVELOPE_END);
+		segments.add(segment.toString().getBytes(UTF8));
+
+		m_segments = segments.toArray(new byte[segments.size()][]);
+		m_parameterNames = names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * @return The names of the parameter slots, in template order
+	 */
+	public String[] getParameterNames()
+	{
+		return m_parameterNames.clone();
+	}
+
+	/**
+	 * Produces a request envelope
+	 * @param parameters The parameter values, by name (values are escaped)
+	 * @return The UTF-8 encoded envelope
+	 */
+	public byte[] render(Map<String, String> parameters)
+	{
+		byte[][] values = new byte[m_parameterNames.length][];
+		int size = 0;
+		for (int i = 0; i < m_parameterNames.length; i++) {
+			String value = parameters.get(m_parameterNames[i]);
+			if (value == null) {
+				throw new IllegalArgumentException("No value for template parameter: " + m_parameterNames[i]);
+			}
+			values[i] = escape(value).getBytes(UTF8);
+			size += values[i].length;
+		}
+		for (byte[] segment : m_segments) {
+			size += segment.length;
+		}
+
+		byte[] envelope = new byte[size];
+		int pos = 0;
+		for (int i = 0; i < m_segments.length; i++) {
+			System.arraycopy(m_segments[i], 0, envelope, pos, m_segments[i].length);
+			pos += m_segments[i].length;
+			if (i < values.length) {
+				System.arraycopy(values[i], 0, envelope, pos, values[i].length);
+				pos += values[i].length;
+			}
+		}
+		return envelope;
+	}
+
+	/**
+	 * Escapes a value to be included in XML text or attribute values
+	 * @param value The value
+	 * @return The escaped value
+	 */
+	public static String escape(String value)
+	{
+		StringBuilder escaped = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String entity;
+			switch (c) {
+				case '&': entity = "&amp;"; break;
+				case '<': entity = "&lt;"; break;
+				case '>': entity = "&gt;"; break;
+				case '"': entity = "&quot;"; break;
+				case '\'': entity = "&apos;"; break;
+				default: entity = null; break;
+			}
+			if (entity != null && escaped == null) {
+				escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+			}
+			if (escaped != null) {
+				if (entity != null) {
+					escaped.append(entity);
+				}
+				else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped != null ? escaped.toString() : value;
+	}
+}
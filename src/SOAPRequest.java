@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A SOAP request ready to be sent by the SOAP transport: either a SAAJ message,
+ * or an envelope already serialised to bytes (see SOAPEnvelopeTemplate).
+ */
+public abstract class SOAPRequest
+{
+	/**
+	 * The content type of SOAP 1.1 envelopes without attachments
+	 */
+	public static final String SOAP_CONTENT_TYPE = "text/xml; charset=utf-8";
+
+	/**
+	 * @return The MIME headers to send with the request
+	 * @throws SOAPException SOAP API problem
+	 */
+	public abstract MimeHeaders getMimeHeaders() throws SOAPException;
+
+	/**
+	 * @return The size of the request content in bytes, or -1 if it is not known in advance
+	 */
+	public abstract long getContentLength();
+
+	/**
+	 * Writes the request content
+	 * @param out The stream to write the content to
+	 * @throws IOException IO problem
+	 * @throws SOAPException SOAP API problem
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException, SOAPException;
+
+	/**
+	 * @return true if the request can be written by several threads at once,
+	 * for instance to send it twice concurrently
+	 */
+	public boolean isShareable()
+	{
+		return false;
+	}
+
+	/**
+	 * @return The request content as bytes
+	 * @throws IOException IO problem
+	 * @throws SOAPException SOAP API problem
+	 */
+	public byte[] toByteArray() throws IOException, SOAPException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTo(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Creates a request sending a SAAJ message
+	 * @param message The SOAP message
+	 * @return The request
+	 */
+	public static SOAPRequest create(SOAPMessage message)
+	{
+		return new MessageRequest(message);
+	}
+
+	/**
+	 * Creates a request sending a serialised SOAP envelope
+	 * @param envelope The UTF-8 encoded SOAP envelope
+	 * @return The request
+	 */
+	public static SOAPRequest create(byte[] envelope)
+	{
+		return new EnvelopeRequest(envelope);
+	}
+
+	private static class MessageRequest extends SOAPRequest
+	{
+		private final SOAPMessage m_message;
+
+		MessageRequest(SOAPMessage message)
+		{
+			m_message = message;
+		}
+
+		public MimeHeaders getMimeHeaders() throws SOAPException
+		{
+			if (m_message.saveRequired()) {
+				m_message.saveChanges();
+			}
+			return m_message.getMimeHeaders();
+		}
+
+		public long getContentLength()
+		{
+			return -1;
+		}
+
+		public void writeTo(OutputStream out) throws IOException, SOAPException
+		{
+			m_message.writeTo(out);
+		}
+	}
+
+	private static class EnvelopeRequest extends SOAPRequest
+	{
+		private final byte[] m_envelope;
+
+		EnvelopeRequest(byte[] envelope)
+		{
+			m_envelope = envelope;
+		}
+
+		public MimeHeaders getMimeHeaders()
+		{
+			MimeHeaders headers = new MimeHeaders();
+			headers.addHeader("Content-Type", SOAP_CONTENT_TYPE);
+			headers.addHeader("SOAPAction", "\"\"");
+			return headers;
+		}
+
+		public long getContentLength()
+		{
+			return m_envelope.length;
+		}
+
+		public void writeTo(OutputStream out) throws IOException
+		{
+			out.write(m_envelope);
+		}
+
+		public byte[] toByteArray()
+		{
+			return m_envelope;
+		}
+
+		public boolean isShareable()
+		{
+			return true;
+		}
+	}
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import javax.xml.soap.MimeHeader;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP transport for SOAP messages, safe to be used by several threads at once.
+ *
+ * Connections are kept alive and reused by the JDK HTTP client between requests to
+ * the same host. The number of requests sent concurrently to one host is limited
+ * so that the connections kept alive match the requests actually in flight.
+ * Statistics are kept per host, and listeners can be notified of every exchange.
+ *
+ * The JDK only keeps "http.maxConnections" idle connections alive per host (5 by default), which
+ * should be set to the maximum number of concurrent requests per host when the JVM starts
+ * (ClientMain sets it to DEFAULT_MAX_CONNECTIONS_PER_HOST unless given).
+ */
+public class SOAPTransport
+{
+	/**
+	 * The default maximum number of concurrent requests (hence connections) per host
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+	/**
+	 * The default connection timeout in milliseconds
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * The default read timeout in milliseconds: a hung connection must not stall the client forever
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 120000;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final ConcurrentHashMap<String, HostPool> m_pools = new ConcurrentHashMap<String, HostPool>();
+	private volatile int m_maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+	private volatile long m_acquireTimeout = 60000;
+	private volatile int m_connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int m_readTimeout = DEFAULT_READ_TIMEOUT;
+	private final List<ExchangeListener> m_listeners = new CopyOnWriteArrayList<ExchangeListener>();
+	private volatile WireCapture m_capture;
+
+	/**
+	 * Sets the maximum number of concurrent requests per host.
+	 * Only applies to hosts not contacted yet.
+	 * @param maxConnections The maximum number of concurrent requests
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections)
+	{
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Invalid number of connections: " + maxConnections);
+		}
+		m_maxConnectionsPerHost = maxConnections;
+	}
+
+	/**
+	 * Sets how long a request waits for a connection when the host limit is reached
+	 * @param timeout The timeout in milliseconds
+	 */
+	public void setAcquireTimeout(long timeout)
+	{
+		m_acquireTimeout = timeout;
+	}
+
+	/**
+	 * Sets the connection and read timeouts of the HTTP connections
+	 * @param connectTimeout The connection timeout in milliseconds (0 means no timeout)
+	 * @param readTimeout The read timeout in milliseconds (0 means no timeout)
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout)
+	{
+		m_connectTimeout = connectTimeout;
+		m_readTimeout = readTimeout;
+	}
+
+	/**
+	 * Sets the capture of the bytes exchanged (see WireCapture)
+	 * @param capture The wire capture, or null to stop capturing
+	 */
+	public void setWireCapture(WireCapture capture)
+	{
+		m_capture = capture;
+	}
+
+	public WireCapture getWireCapture()
+	{
+		return m_capture;
+	}
+
+	/**
+	 * Adds a listener notified at the end of every exchange
+	 * @param listener The listener
+	 */
+	public void addExchangeListener(ExchangeListener listener)
+	{
+		m_listeners.add(listener);
+	}
+
+	public void removeExchangeListener(ExchangeListener listener)
+	{
+		m_listeners.remove(listener);
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response (synchronously)
+	 * @param message The SOAP request message
+	 * @param url The URL of the web service to send the request to
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws SOAPException Connection problem, server problem or invalid response
+	 */
+	public SOAPMessage call(SOAPMessage message, URL url) throws SOAPException
+	{
+		return call(SOAPRequest.create(message), url);
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response (synchronously)
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws SOAPException Connection problem, server problem or invalid response
+	 */
+	public SOAPMessage call(SOAPRequest request, URL url) throws SOAPException
+	{
+		HostPool pool = getPool(url);
+		pool.acquire(m_acquireTimeout);
+		ExchangeState state = startExchange(url);
+		boolean succeeded = false;
+		try {
+			SOAPMessage response = exchange(request, url, state);
+			succeeded = true;
+			return response;
+		}
+		finally {
+			pool.release(succeeded);
+			fireExchangeCompleted(url, state, succeeded);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the statistics of each host contacted so far
+	 * @return The host statistics
+	 */
+	public List<PoolStatistics> getStatistics()
+	{
+		List<PoolStatistics> statistics = new ArrayList<PoolStatistics>();
+		for (HostPool pool : m_pools.values()) {
+			statistics.add(pool.getStatistics());
+		}
+		return statistics;
+	}
+
+	private HostPool getPool(URL url)
+	{
+		String key = url.getProtocol() + "://" + url.getHost() + ":" +
+				(url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+		HostPool pool = m_pools.get(key);
+		if (pool == null) {
+			HostPool newPool = new HostPool(key, m_maxConnectionsPerHost);
+			pool = m_pools.putIfAbsent(key, newPool);
+			if (pool == null) {
+				pool = newPool;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Sends a SOAP request and passes the response content to a handler as it is received,
+	 * without building the response message in memory
+	 * @param message The SOAP request message
+	 * @param url The URL of the web service to send the request to
+	 * @param handler The handler reading the response content
+	 * @throws Exception Connection problem, server problem or handler failure
+	 */
+	public void call(SOAPMessage message, URL url, ResponseHandler handler) throws Exception
+	{
+		call(SOAPRequest.create(message), url, handler);
+	}
+
+	/**
+	 * Sends a SOAP request and passes the response content to a handler as it is received,
+	 * without building the response message in memory
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param handler The handler reading the response content
+	 * @throws Exception Connection problem, server problem or handler failure
+	 */
+	public void call(SOAPRequest request, URL url, ResponseHandler handler) throws Exception
+	{
+		HostPool pool = getPool(url);
+		pool.acquire(m_acquireTimeout);
+		ExchangeState state = startExchange(url);
+		boolean succeeded = false;
+		HttpURLConnection connection = null;
+		try {
+			connection = send(request, url, state);
+			int status = connection.getResponseCode();
+			if (!isSOAPResponse(status)) {
+				InputStream in = connection.getErrorStream();
+				if (in != null) {
+					readFully(in, 0);
+				}
+				throw new SOAPException("Bad response: (" + status + ") " + connection.getResponseMessage());
+			}
+
+			InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			if (body == null) {
+				// An internal server error without a SOAP fault
+				throw new SOAPException("Empty response: (" + status + ") " + connection.getResponseMessage());
+			}
+			CountingInputStream in = new CountingInputStream(body);
+			InputStream content = state.capture != null ? state.capture.teeResponse(in) : in;
+			try {
+				// The handler may close the content (as XML readers do): it is still drained below
+				handler.handleResponse(new UnclosableInputStream(content), connection.getContentType());
+				// Consume what the handler did not read so that the connection can be reused
+				byte[] buffer = new byte[8192];
+				while (content.read(buffer) != -1) {
+					// Discard
+				}
+			}
+			finally {
+				in.close();
+				state.bytesReceived = in.getCount();
+			}
+			succeeded = true;
+		}
+		catch (IOException exc) {
+			if (connection != null) {
+				connection.disconnect();
+			}
+			throw new SOAPException("Connection to " + url + " failed: " + exc.getMessage(), exc);
+		}
+		finally {
+			pool.release(succeeded);
+			fireExchangeCompleted(url, state, succeeded);
+		}
+	}
+
+	private ExchangeState startExchange(URL url)
+	{
+		ExchangeState state = new ExchangeState();
+		WireCapture capture = m_capture;
+		if (capture != null) {
+			state.capture = capture.startRecord(url);
+		}
+		return state;
+	}
+
+	private void fireExchangeCompleted(URL url, ExchangeState state, boolean succeeded)
+	{
+		if (state.capture != null) {
+			state.capture.end(succeeded);
+		}
+		fireExchangeCompleted(url, state.bytesSent, state.bytesReceived, succeeded);
+	}
+
+	/**
+	 * Notifies the exchange listeners, also for exchanges made by another transport (see AsyncSOAPTransport)
+	 */
+	void fireExchangeCompleted(URL url, long bytesSent, long bytesReceived, boolean succeeded)
+	{
+		for (ExchangeListener listener : m_listeners) {
+			try {
+				listener.exchangeCompleted(url, bytesSent, bytesReceived, succeeded);
+			}
+			catch (RuntimeException exc) {
+				// A faulty listener must not fail the request
+				exc.printStackTrace();
+			}
+		}
+	}
+
+	private SOAPMessage exchange(SOAPRequest request, URL url, ExchangeState state) throws SOAPException
+	{
+		HttpURLConnection connection = null;
+		try {
+			connection = send(request, url, state);
+			return readResponse(connection, state);
+		}
+		catch (IOException exc) {
+			if (connection != null) {
+				connection.disconnect();
+			}
+			throw new SOAPException("Connection to " + url + " failed: " + exc.getMessage(), exc);
+		}
+	}
+
+	/**
+	 * Opens a connection and writes the SOAP request to it
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param state Receives the number of bytes sent, and the request bytes if captured
+	 * @return The connection, ready for the response to be read
+	 * @throws IOException Connection problem
+	 * @throws SOAPException SOAP API problem
+	 */
+	private HttpURLConnection send(SOAPRequest request, URL url, ExchangeState state)
+			throws IOException, SOAPException
+	{
+		MimeHeaders headers = request.getMimeHeaders();
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(m_connectTimeout);
+		connection.setReadTimeout(m_readTimeout);
+		long contentLength = request.getContentLength();
+		if (contentLength >= 0) {
+			connection.setFixedLengthStreamingMode(contentLength);
+		}
+		else {
+			connection.setChunkedStreamingMode(CHUNK_SIZE);
+		}
+		connection.setRequestProperty("Connection", "keep-alive");
+		for (Iterator<?> iter = headers.getAllHeaders(); iter.hasNext(); ) {
+			MimeHeader header = (MimeHeader) iter.next();
+			connection.addRequestProperty(header.getName(), header.getValue());
+		}
+		if (headers.getHeader("SOAPAction") == null) {
+			connection.setRequestProperty("SOAPAction", "\"\"");
+		}
+
+		CountingOutputStream out = new CountingOutputStream(connection.getOutputStream());
+		try {
+			request.writeTo(state.capture != null ? state.capture.teeRequest(out) : out);
+		}
+		finally {
+			out.close();
+			state.bytesSent = out.getCount();
+		}
+		return connection;
+	}
+
+	/**
+	 * Reads the whole response so that the connection can be reused, and parses it
+	 * @param connection The HTTP connection the request was sent through
+	 * @param state Receives the number of bytes received, and the response bytes if captured
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws IOException Connection problem
+	 * @throws SOAPException Server problem or invalid response
+	 */
+	private SOAPMessage readResponse(HttpURLConnection connection, ExchangeState state)
+			throws IOException, SOAPException
+	{
+		int status = connection.getResponseCode();
+		boolean soapResponse = isSOAPResponse(status);
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+		byte[] body = in == null ? new byte[0] : readFully(in, connection.getContentLength());
+		state.bytesReceived = body.length;
+		if (state.capture != null) {
+			state.capture.captureResponse(body, 0, body.length);
+		}
+		if (!soapResponse) {
+			throw new SOAPException("Bad response: (" + status + ") " + connection.getResponseMessage());
+		}
+		if (body.length == 0) {
+			return null;
+		}
+
+		MimeHeaders headers = new MimeHeaders();
+		for (int i = 1; connection.getHeaderFieldKey(i) != null; i++) {
+			headers.addHeader(connection.getHeaderFieldKey(i), connection.getHeaderField(i));
+		}
+		return WebServiceUtils.createSOAPMessage(headers, new ByteArrayInputStream(body));
+	}
+
+	/**
+	 * @param status The HTTP status of a response
+	 * @return true if the response can hold a SOAP message: any success status (a one-way service
+	 * may answer 202 or 204 without content), or an internal server error for SOAP faults
+	 */
+	private static boolean isSOAPResponse(int status)
+	{
+		return (status >= 200 && status < 300) || status == HttpURLConnection.HTTP_INTERNAL_ERROR;
+	}
+
+	private static byte[] readFully(InputStream in, int expectedLength) throws IOException
+	{
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream(expectedLength > 0 ? expectedLength : 8192);
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				body.write(buffer, 0, count);
+			}
+			return body.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the content of a SOAP response as it is received
+	 */
+	public interface ResponseHandler
+	{
+		/**
+		 * @param content The response content, which does not need to be read entirely
+		 * (empty if the server answered without content, such as with a 204 status).
+		 * Closing it has no effect: the transport consumes and closes it.
+		 * @param contentType The MIME type of the content
+		 * @throws Exception Invalid response or processing failure
+		 */
+		void handleResponse(InputStream content, String contentType) throws Exception;
+	}
+
+	/**
+	 * Notified at the end of every exchange, successful or not, by the thread that sent the request
+	 */
+	public interface ExchangeListener
+	{
+		/**
+		 * @param url The URL the request was sent to
+		 * @param bytesSent The number of bytes of the request body sent
+		 * @param bytesReceived The number of bytes of the response body received
+		 * @param succeeded false if the exchange failed
+		 */
+		void exchangeCompleted(URL url, long bytesSent, long bytesReceived, boolean succeeded);
+	}
+
+	/**
+	 * The bytes sent and received by one exchange, and its capture
+	 */
+	private static class ExchangeState
+	{
+		long bytesSent;
+		long bytesReceived;
+		WireCapture.Record capture;
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream
+	{
+		private long m_count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			m_count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			m_count += len;
+		}
+
+		long getCount()
+		{
+			return m_count;
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private long m_count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b != -1) {
+				m_count++;
+			}
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int count = in.read(b, off, len);
+			if (count > 0) {
+				m_count += count;
+			}
+			return count;
+		}
+
+		public long skip(long n) throws IOException
+		{
+			long count = in.skip(n);
+			m_count += count;
+			return count;
+		}
+
+		long getCount()
+		{
+			return m_count;
+		}
+	}
+
+	/**
+	 * Ignores close(), so that a stream passed to a handler remains open for the transport
+	 */
+	private static class UnclosableInputStream extends FilterInputStream
+	{
+		UnclosableInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * Limits and counts the requests sent to one host
+	 */
+	private static class HostPool
+	{
+		private final String m_host;
+		private final int m_maxConnections;
+		private final Semaphore m_permits;
+		private final AtomicLong m_requests = new AtomicLong();
+		private final AtomicLong m_failures = new AtomicLong();
+		private final AtomicLong m_waits = new AtomicLong();
+		private final AtomicLong m_waitTime = new AtomicLong();
+		private final AtomicInteger m_inFlight = new AtomicInteger();
+		private final AtomicInteger m_peakInFlight = new AtomicInteger();
+
+		HostPool(String host, int maxConnections)
+		{
+			m_host = host;
+			m_maxConnections = maxConnections;
+			m_permits = new Semaphore(maxConnections, true);
+		}
+
+		void acquire(long timeout) throws SOAPException
+		{
+			if (!m_permits.tryAcquire()) {
+				m_waits.incrementAndGet();
+				long start = System.nanoTime();
+				boolean acquired;
+				try {
+					acquired = m_permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					acquired = false;
+				}
+				m_waitTime.addAndGet(System.nanoTime() - start);
+				if (!acquired) {
+					m_failures.incrementAndGet();
+					throw new SOAPException("No connection available to " + m_host + " after " + timeout + " ms");
+				}
+			}
+
+			m_requests.incrementAndGet();
+			int inFlight = m_inFlight.incrementAndGet();
+			int peak;
+			while (inFlight > (peak = m_peakInFlight.get()) && !m_peakInFlight.compareAndSet(peak, inFlight)) {
+				// Retry until the peak is updated by this or another thread
+			}
+		}
+
+		void release(boolean succeeded)
+		{
+			if (!succeeded) {
+				m_failures.incrementAndGet();
+			}
+			m_inFlight.decrementAndGet();
+			m_permits.release();
+		}
+
+		PoolStatistics getStatistics()
+		{
+			return new PoolStatistics(m_host, m_maxConnections, m_requests.get(), m_failures.get(),
+					m_inFlight.get(), m_peakInFlight.get(), m_waits.get(),
+					TimeUnit.NANOSECONDS.toMillis(m_waitTime.get()));
+		}
+	}
+
+	/**
+	 * The statistics of the requests sent to one host
+	 */
+	public static class PoolStatistics
+	{
+		public final String host;
+		public final int maxConnections;
+		public final long requests;
+		public final long failures;
+		public final int inFlight;
+		public final int peakInFlight;
+		public final long waits;
+		public final long waitTime;
+
+		PoolStatistics(String host, int maxConnections, long requests, long failures,
+					   int inFlight, int peakInFlight, long waits, long waitTime)
+		{
+			this.host = host;
+			this.maxConnections = maxConnections;
+			this.requests = requests;
+			this.failures = failures;
+			this.inFlight = inFlight;
+			this.peakInFlight = peakInFlight;
+			this.waits = waits;
+			this.waitTime = waitTime;
+		}
+
+		public String toString()
+		{
+			return host + ": requests=" + requests + " failures=" + failures +
+					" inFlight=" + inFlight + "/" + maxConnections + " peak=" + peakInFlight +
+					" waits=" + waits + " waitTime=" + waitTime + "ms";
+		}
+	}
+}
@@ -22,117 +22,62 @@
  */
 
 
-import javax.mail.*;
-import javax.mail.internet.*;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.Properties;
+import javax.mail.internet.AddressException;
 
 public class SendNotificationEmail {
 
-    public static void main(String  EmailMessage ) {
-      //  public  SendNotificationEmail() {
-
-        //String sendText = EmailMessage;
-        String to = "";
-        String from = "";
-        String smtpHost = "";
-        String subject = "";
-        String configFileName = System.getenv("TASKMON_CONFIG");
-
-
-        //System.out.println(sendText);
+    private static NotificationDispatcher _dispatcher;
 
-        try {
-            //File file = new File("C:\\Users\\demo\\Google Drive\\CapitalPlugins\\TaskMonitor\\out\\artifacts\\CEATaskMonitor\\config\\TaskMonConfig.xml");
-            File file = new File(configFileName);
-
-            FileInputStream fileInput = new FileInputStream(file);
-            Properties properties = new Properties();
-            properties.loadFromXML(fileInput);
-            fileInput.close();
-
-            Enumeration enuKeys = properties.keys();
-            while (enuKeys.hasMoreElements()) {
-                String key = (String) enuKeys.nextElement();
-                //String value = properties.getProperty(key);
-                //System.out.println(key + ": " + value);
-
-                if ("to".equalsIgnoreCase(key)){
-                    to = properties.getProperty(key);
-                }
-                else if ("from".equalsIgnoreCase(key)){
-                    from = properties.getProperty(key);
-                }
-                else if ("smtpHost".equalsIgnoreCase(key)){
-                    smtpHost = properties.getProperty(key);
-                }
-                else if ("subject".equalsIgnoreCase(key)){
-                    subject = properties.getProperty(key);
+    static {
+        // Notifications queued so far are sent with the previous settings
+        ConfigService.addListener(new ConfigService.ConfigListener() {
+            public void configChanged(MonitorConfig oldConfig, MonitorConfig newConfig) {
+                if (!oldConfig.hasSameMailSettings(newConfig)) {
+                    resetDispatcher();
                 }
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-
-    // Recipient's email ID needs to be mentioned.
-    //    to = "nick_demarco@mentor.com";
-
-        // Sender's email ID needs to be mentioned
-     //   from = "nick_demarco@mentor.com";
-
-        // Assuming you are sending email from localhost
-     //   smtpHost = "mail.mentorg.com";
-
-        // Get system properties
-        Properties properties = System.getProperties();
-
-        // Setup mail server
-        properties.setProperty("mail.smtp.host", smtpHost);
-
-        // Get the default Session object.
-        Session session = Session.getDefaultInstance(properties);
-
-        try {
-            // Create a default MimeMessage object.
-            MimeMessage message = new MimeMessage(session);
-
-            // Set From: header field of the header.
-            message.setFrom(new InternetAddress(from));
+        });
+    }
 
-            // Set To: header field of the header.
-            List<String> items = Arrays.asList(to.split("\\s*,\\s*"));
+    /**
+     * Queues a notification email, sent in the background through a reused SMTP connection.
+     * Notifications close in time are merged into one email (see NotificationDispatcher).
+     * @param EmailMessage The notification text
+     */
+    public static void main(String  EmailMessage ) {
+        NotificationDispatcher dispatcher = getDispatcher();
+        if (dispatcher != null) {
+            dispatcher.notify(EmailMessage);
+        }
+    }
 
-            for (int i = 0; i < items.size(); i++) {
-                //System.out.println(items.get(i));
-                message.addRecipient(Message.RecipientType.TO, new InternetAddress(items.get(i)));
+    /**
+     * Returns the dispatcher sending the notifications, configured from the
+     * monitor configuration (see ConfigService) at first use
+     * @return The notification dispatcher, or null if it cannot be configured
+     */
+    private static synchronized NotificationDispatcher getDispatcher() {
+        if (_dispatcher == null) {
+            MonitorConfig config = ConfigService.getConfig();
+            try {
+                _dispatcher = new NotificationDispatcher(config.getSMTPHost(), config.getSMTPPort(),
+                        config.getMailFrom(), config.getMailTo(), config.getMailSubject());
+                _dispatcher.setDigestWindow(config.getDigestWindow());
+            } catch (AddressException e) {
+                e.printStackTrace();
             }
-            
-            //message.addRecipient(Message.RecipientType.TO, new InternetAddress(to));
-            //message.addRecipient(Message.RecipientType.TO, new InternetAddress("nickd@demarconet.com") );
-
-
-            // Set Subject: header field
-            message.setSubject(subject);
-
-            // Now set the actual message
-           // message.setText("This is actual message");
-            message.setText(EmailMessage);
-
+        }
+        return _dispatcher;
+    }
 
-            // Send message
-            Transport.send(message);
-            //System.out.println("Sent message successfully....");
-        }catch (MessagingException mex) {
-            mex.printStackTrace();
+    private static void resetDispatcher() {
+        NotificationDispatcher dispatcher;
+        synchronized (SendNotificationEmail.class) {
+            dispatcher = _dispatcher;
+            _dispatcher = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.close();
         }
     }
-}
\ No newline at end of file
+}
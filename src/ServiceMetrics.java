@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The request metrics of one web service: latency histograms of the whole request and
+ * of each of its phases, request, fault, error and byte counters, and requests in flight.
+ * Can be updated by several threads at once.
+ */
+public class ServiceMetrics implements ServiceMetricsMBean
+{
+	/**
+	 * The phases of a request
+	 */
+	public enum Phase
+	{
+		/** Formatting of the SOAP request */
+		BUILD,
+		/** Sending the request and receiving the response */
+		NETWORK,
+		/** Checking the response and extracting its payload and attachments */
+		PARSE,
+		/** Processing of the response payload by the client */
+		PROCESS,
+		/** The whole request */
+		TOTAL
+	}
+
+	private final String m_serviceName;
+	private final LatencyHistogram[] m_latencies = new LatencyHistogram[Phase.values().length];
+	private final AtomicLong m_requests = new AtomicLong();
+	private final AtomicLong m_faults = new AtomicLong();
+	private final AtomicLong m_errors = new AtomicLong();
+	private final AtomicLong m_bytesSent = new AtomicLong();
+	private final AtomicLong m_bytesReceived = new AtomicLong();
+	private final AtomicInteger m_inFlight = new AtomicInteger();
+
+	ServiceMetrics(String serviceName)
+	{
+		m_serviceName = serviceName;
+		for (int i = 0; i < m_latencies.length; i++) {
+			m_latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Called when a request starts
+	 */
+	public void requestStarted()
+	{
+		m_requests.incrementAndGet();
+		m_inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Called when a request ends, successfully or not
+	 * @param nanos The duration of the whole request
+	 * @param failed true if the request failed
+	 */
+	public void requestEnded(long nanos, boolean failed)
+	{
+		m_inFlight.decrementAndGet();
+		m_latencies[Phase.TOTAL.ordinal()].record(nanos);
+		if (failed) {
+			m_errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records the duration of a request phase
+	 * @param phase The request phase
+	 * @param nanos The duration in nanoseconds
+	 */
+	public void recordPhase(Phase phase, long nanos)
+	{
+		m_latencies[phase.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Called when a SOAP fault is received
+	 */
+	public void recordFault()
+	{
+		m_faults.incrementAndGet();
+	}
+
+	/**
+	 * Records the bytes exchanged by a request
+	 * @param sent The number of bytes sent
+	 * @param received The number of bytes received
+	 */
+	public void recordBytes(long sent, long received)
+	{
+		m_bytesSent.addAndGet(sent);
+		m_bytesReceived.addAndGet(received);
+	}
+
+	public LatencyHistogram getLatencies(Phase phase)
+	{
+		return m_latencies[phase.ordinal()];
+	}
+
+	public String getServiceName()
+	{
+		return m_serviceName;
+	}
+
+	public long getRequestCount()
+	{
+		return m_requests.get();
+	}
+
+	public long getFaultCount()
+	{
+		return m_faults.get();
+	}
+
+	public long getErrorCount()
+	{
+		return m_errors.get();
+	}
+
+	public long getBytesSent()
+	{
+		return m_bytesSent.get();
+	}
+
+	public long getBytesReceived()
+	{
+		return m_bytesReceived.get();
+	}
+
+	public int getInFlight()
+	{
+		return m_inFlight.get();
+	}
+
+	public double getLatencyMeanMillis()
+	{
+		LatencyHistogram latencies = getLatencies(Phase.TOTAL);
+		long count = latencies.getCount();
+		return count == 0 ? 0 : latencies.getSum() / 1e6 / count;
+	}
+
+	public double getLatencyP50Millis()
+	{
+		return getLatencies(Phase.TOTAL).getPercentile(50) / 1e6;
+	}
+
+	public double getLatencyP99Millis()
+	{
+		return getLatencies(Phase.TOTAL).getPercentile(99) / 1e6;
+	}
+
+	public double getLatencyMaxMillis()
+	{
+		return getLatencies(Phase.TOTAL).getMax() / 1e6;
+	}
+
+	public double getBuildP99Millis()
+	{
+		return getLatencies(Phase.BUILD).getPercentile(99) / 1e6;
+	}
+
+	public double getNetworkP99Millis()
+	{
+		return getLatencies(Phase.NETWORK).getPercentile(99) / 1e6;
+	}
+
+	public double getParseP99Millis()
+	{
+		return getLatencies(Phase.PARSE).getPercentile(99) / 1e6;
+	}
+
+	public double getProcessP99Millis()
+	{
+		return getLatencies(Phase.PROCESS).getPercentile(99) / 1e6;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+/**
+ * The JMX view of the metrics of one web service (see ServiceMetrics).
+ * Latencies are in milliseconds.
+ */
+public interface ServiceMetricsMBean
+{
+	String getServiceName();
+
+	long getRequestCount();
+
+	long getFaultCount();
+
+	long getErrorCount();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	int getInFlight();
+
+	double getLatencyMeanMillis();
+
+	double getLatencyP50Millis();
+
+	double getLatencyP99Millis();
+
+	double getLatencyMaxMillis();
+
+	double getBuildP99Millis();
+
+	double getNetworkP99Millis();
+
+	double getParseP99Millis();
+
+	double getProcessP99Millis();
+}
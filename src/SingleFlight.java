@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Document;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Shares one in-flight request between the callers asking for the same response at the same time,
+ * for services whose response only depends on the request payload (see AbstractClient.isResponseCacheable()).
+ *
+ * The first caller (the leader) sends the request; the callers arriving while it is in flight
+ * wait for its response instead of sending the same request again, and get their own copy of it.
+ * A failure of the request is reported to all of them. Nothing is kept once the request completes:
+ * see ResponseCache to reuse responses over time.
+ * Can be used by several threads at once.
+ */
+public class SingleFlight
+{
+	/**
+	 * Whitespace between XML elements, which does not change the meaning of a request payload
+	 */
+	private static final Pattern INTER_ELEMENT_WHITESPACE = Pattern.compile(">\\s+<");
+
+	private final ConcurrentHashMap<String, Flight> m_flights = new ConcurrentHashMap<String, Flight>();
+	private final AtomicLong m_requests = new AtomicLong();
+	private final AtomicLong m_shared = new AtomicLong();
+
+	/**
+	 * Returns the key identifying identical requests
+	 * @param serviceName The web service name
+	 * @param server The name of the CIS server
+	 * @param requestPayload The request payload
+	 * @return The key, with the payload canonicalized
+	 */
+	public static String getKey(String serviceName, String server, String requestPayload)
+	{
+		String payload = INTER_ELEMENT_WHITESPACE.matcher(requestPayload.trim()).replaceAll("><");
+		return serviceName + '\u0000' + server + '\u0000' + payload;
+	}
+
+	/**
+	 * Retrieves a response, sharing the request in flight for the same key if any
+	 * @param key The key identifying the request (see getKey())
+	 * @param fetch Sends the request, if none is in flight
+	 * @return The response, or null if there is none
+	 * @throws Exception The failure of the request
+	 */
+	public Document execute(String key, Callable<Document> fetch) throws Exception
+	{
+		m_requests.incrementAndGet();
+		while (true) {
+			Flight flight = new Flight();
+			Flight inFlight = m_flights.putIfAbsent(key, flight);
+			if (inFlight == null) {
+				return lead(key, flight, fetch);
+			}
+			if (inFlight.join()) {
+				m_shared.incrementAndGet();
+				return inFlight.getResponse();
+			}
+			// Completed meanwhile: try again
+		}
+	}
+
+	/**
+	 * Asynchronous version of execute()
+	 * @param key The key identifying the request (see getKey())
+	 * @param fetch Sends the request without waiting for the response, if none is in flight
+	 * @return The future response, completed with null if there is none
+	 * @throws Exception The request could not be sent
+	 */
+	public CompletableFuture<Document> executeAsync(final String key, Callable<CompletableFuture<Document>> fetch)
+			throws Exception
+	{
+		m_requests.incrementAndGet();
+		while (true) {
+			final Flight flight = new Flight();
+			Flight inFlight = m_flights.putIfAbsent(key, flight);
+			if (inFlight == null) {
+				CompletableFuture<Document> response;
+				try {
+					response = fetch.call();
+				}
+				catch (Exception exc) {
+					complete(key, flight, null, exc);
+					throw exc;
+				}
+				// The leader only gets the response once the followers have their copy
+				return response.handle(new BiFunction<Document, Throwable, Document>()
+				{
+					public Document apply(Document responsePayload, Throwable failure)
+					{
+						complete(key, flight, responsePayload, failure);
+						if (failure != null) {
+							throw failure instanceof RuntimeException ? (RuntimeException) failure
+									: new CompletionException(failure);
+						}
+						return responsePayload;
+					}
+				});
+			}
+			if (inFlight.join()) {
+				m_shared.incrementAndGet();
+				return inFlight.m_result.thenApply(new Function<Document, Document>()
+				{
+					public Document apply(Document shared)
+					{
+						return copy(shared);
+					}
+				});
+			}
+		}
+	}
+
+	private Document lead(String key, Flight flight, Callable<Document> fetch) throws Exception
+	{
+		Document responsePayload;
+		try {
+			responsePayload = fetch.call();
+		}
+		catch (Exception exc) {
+			complete(key, flight, null, exc);
+			throw exc;
+		}
+		catch (Error err) {
+			complete(key, flight, null, err);
+			throw err;
+		}
+		complete(key, flight, responsePayload, null);
+		return responsePayload;
+	}
+
+	/**
+	 * Ends a flight: no more caller can join it, and those who joined it get the response
+	 * @param key The key of the request
+	 * @param flight The flight
+	 * @param responsePayload The response, kept by the leader
+	 * @param failure The failure of the request, or null if it succeeded
+	 */
+	private void complete(String key, Flight flight, Document responsePayload, Throwable failure)
+	{
+		m_flights.remove(key, flight);
+		if (!flight.close()) {
+			return;
+		}
+		if (failure != null) {
+			flight.m_result.completeExceptionally(failure);
+		}
+		else {
+			// The followers are given copies of a copy, which the leader does not process
+			flight.m_result.complete(responsePayload != null ? (Document) responsePayload.cloneNode(true) : null);
+		}
+	}
+
+	/**
+	 * DOM documents cannot be read by several threads at once: each follower copies the response in turn
+	 */
+	private static Document copy(Document shared)
+	{
+		if (shared == null) {
+			return null;
+		}
+		synchronized (shared) {
+			return (Document) shared.cloneNode(true);
+		}
+	}
+
+	/**
+	 * @return The number of requests asked for
+	 */
+	public long getRequestCount()
+	{
+		return m_requests.get();
+	}
+
+	/**
+	 * @return The number of requests which shared the response of an identical request in flight
+	 */
+	public long getSharedCount()
+	{
+		return m_shared.get();
+	}
+
+	public String toString()
+	{
+		return "Requests: " + m_requests + ", shared: " + m_shared + ", in flight: " + m_flights.size();
+	}
+
+	/**
+	 * A request in flight, and the callers waiting for its response
+	 */
+	private static class Flight
+	{
+		final CompletableFuture<Document> m_result = new CompletableFuture<Document>();
+		private boolean m_closed = false;
+		private int m_followers = 0;
+
+		/**
+		 * @return false if the flight is already completed
+		 */
+		synchronized boolean join()
+		{
+			if (m_closed) {
+				return false;
+			}
+			m_followers++;
+			return true;
+		}
+
+		/**
+		 * @return true if callers joined the flight
+		 */
+		synchronized boolean close()
+		{
+			m_closed = true;
+			return m_followers > 0;
+		}
+
+		Document getResponse() throws Exception
+		{
+			try {
+				return copy(m_result.get());
+			}
+			catch (ExecutionException exc) {
+				Throwable cause = exc.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw (Error) cause;
+			}
+		}
+	}
+}
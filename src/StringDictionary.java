@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the distinct strings of a set of records, so that repeated strings (task names,
+ * statuses, users...) are stored once and referred to by their number.
+ * Not thread-safe.
+ */
+public class StringDictionary
+{
+	private final Map<String, Integer> m_codes = new HashMap<String, Integer>();
+	private final List<String> m_strings = new ArrayList<String>();
+	private final int m_maxSize;
+
+	/**
+	 * @param maxSize The maximum number of strings, beyond which strings are no longer added
+	 */
+	public StringDictionary(int maxSize)
+	{
+		m_maxSize = maxSize;
+	}
+
+	/**
+	 * @param string A string
+	 * @return The code of the string, or -1 if it is not in the dictionary
+	 */
+	public int getCode(String string)
+	{
+		Integer code = m_codes.get(string);
+		return code != null ? code : -1;
+	}
+
+	/**
+	 * Adds a string to the dictionary, unless it is already there
+	 * @param string The string
+	 * @return The code of the string, or -1 if the dictionary is full
+	 */
+	public int add(String string)
+	{
+		Integer code = m_codes.get(string);
+		if (code != null) {
+			return code;
+		}
+		if (m_strings.size() >= m_maxSize) {
+			return -1;
+		}
+		m_codes.put(string, m_strings.size());
+		m_strings.add(string);
+		return m_strings.size() - 1;
+	}
+
+	/**
+	 * @param code The code of a string
+	 * @return The string
+	 * @throws IndexOutOfBoundsException Unknown code
+	 */
+	public String getString(int code)
+	{
+		return m_strings.get(code);
+	}
+
+	public boolean isFull()
+	{
+		return m_strings.size() >= m_maxSize;
+	}
+
+	public int size()
+	{
+		return m_strings.size();
+	}
+}
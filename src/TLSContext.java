@@ -0,0 +1,319 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import com.sun.net.ssl.internal.ssl.Provider;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TLS configuration used by secure connections to CIS, built once per key store.
+ *
+ * The key store is only loaded again when its file or password changes, and the configuration
+ * of the previous version is then dropped. As the same socket factory is
+ * used by all connections, established connections are kept alive and reused, and TLS
+ * sessions are resumed by new connections rather than negotiated again.
+ * Handshakes are counted, distinguishing resumed sessions from full handshakes.
+ */
+public class TLSContext
+{
+	private static final int SESSION_CACHE_SIZE = 100;
+	private static final int SESSION_TIMEOUT = 24 * 3600;
+
+	private static final ConcurrentHashMap<String, TLSContext> _contexts = new ConcurrentHashMap<String, TLSContext>();
+	private static volatile TLSContext _installedContext;
+
+	static {
+		Security.addProvider(new Provider());
+	}
+
+	private final String m_keyStorePath;
+	private final long m_lastModified;
+	private final byte[] m_passwordDigest;
+	private final SSLContext m_sslContext;
+	private final SSLSocketFactory m_socketFactory;
+	private final Set<String> m_sessionIds = ConcurrentHashMap.newKeySet();
+	private final AtomicLong m_handshakes = new AtomicLong();
+	private final AtomicLong m_resumedHandshakes = new AtomicLong();
+
+	/**
+	 * Returns the TLS configuration of a key store, loading the key store if it
+	 * has not been loaded yet or has changed since
+	 * @param keyStorePath The key store file path
+	 * @param password The key store password
+	 * @return The TLS configuration
+	 * @throws Exception Invalid key store or password
+	 */
+	public static TLSContext forKeyStore(String keyStorePath, String password) throws Exception
+	{
+		File keyStoreFile = new File(keyStorePath);
+		String key = keyStoreFile.getAbsolutePath();
+		long lastModified = keyStoreFile.lastModified();
+		// The password itself is not kept
+		byte[] passwordDigest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+		TLSContext context = _contexts.get(key);
+		if (context != null && context.isLoadedFrom(lastModified, passwordDigest)) {
+			return context;
+		}
+		TLSContext newContext = new TLSContext(keyStoreFile, password, lastModified, passwordDigest);
+		// Replaces the configuration of the previous version of the key store, unless another thread did it
+		boolean stored = context == null ? _contexts.putIfAbsent(key, newContext) == null
+				: _contexts.replace(key, context, newContext);
+		if (!stored) {
+			TLSContext current = _contexts.get(key);
+			if (current != null && current.isLoadedFrom(lastModified, passwordDigest)) {
+				return current;
+			}
+		}
+		return newContext;
+	}
+
+	private TLSContext(File keyStoreFile, String password, long lastModified, byte[] passwordDigest) throws Exception
+	{
+		m_keyStorePath = keyStoreFile.getPath();
+		m_lastModified = lastModified;
+		m_passwordDigest = passwordDigest;
+
+		TrustManager[] trustAllCerts = new TrustManager[]{
+				new X509TrustManager()
+				{
+					public X509Certificate[] getAcceptedIssuers()
+					{
+						return null;
+					}
+
+					public void checkServerTrusted(X509Certificate[] certs, String authType)
+					{
+					}
+
+					public void checkClientTrusted(X509Certificate[] certs, String authType)
+					{
+					}
+				}
+		};
+
+		KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		KeyManager[] keyManagers;
+		InputStream keyInput = new FileInputStream(keyStoreFile);
+		try {
+			trustStore.load(keyInput, password.toCharArray());
+			KeyManagerFactory tmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			tmf.init(trustStore, password.toCharArray());
+			keyManagers = tmf.getKeyManagers();
+		}
+		finally {
+			keyInput.close();
+		}
+
+		m_sslContext = SSLContext.getInstance("TLS");
+		m_sslContext.init(keyManagers, trustAllCerts, new SecureRandom());
+		SSLSessionContext sessions = m_sslContext.getClientSessionContext();
+		sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+		sessions.setSessionTimeout(SESSION_TIMEOUT);
+		m_socketFactory = new CountingSocketFactory(m_sslContext.getSocketFactory());
+	}
+
+	/**
+	 * @param lastModified The modification time of the key store file
+	 * @param passwordDigest The SHA-256 digest of the key store password
+	 * @return true if this configuration was loaded from that version of the key store, with that password
+	 */
+	private boolean isLoadedFrom(long lastModified, byte[] passwordDigest)
+	{
+		return m_lastModified == lastModified && MessageDigest.isEqual(m_passwordDigest, passwordDigest);
+	}
+
+	/**
+	 * Makes this configuration the default one of HTTPS connections, unless it already is
+	 */
+	public void install()
+	{
+		if (_installedContext == this) {
+			return;
+		}
+		synchronized (TLSContext.class) {
+			if (_installedContext != this) {
+				HttpsURLConnection.setDefaultSSLSocketFactory(m_socketFactory);
+				HttpsURLConnection.setDefaultHostnameVerifier(new HostnameVerifier()
+				{
+					public boolean verify(String urlHostName, SSLSession session)
+					{
+						if (!urlHostName.equalsIgnoreCase(session.getPeerHost())) {
+							System.out.println("Warning: URL host '" + urlHostName + "' is different to SSLSession host '" +
+									session.getPeerHost() + "'.");
+						}
+						return true;
+					}
+				});
+				_installedContext = this;
+			}
+		}
+	}
+
+	public SSLSocketFactory getSocketFactory()
+	{
+		return m_socketFactory;
+	}
+
+	/**
+	 * @return The number of handshakes completed by connections using this configuration
+	 */
+	public long getHandshakeCount()
+	{
+		return m_handshakes.get();
+	}
+
+	/**
+	 * @return The number of handshakes which resumed a previous TLS session
+	 */
+	public long getResumedHandshakeCount()
+	{
+		return m_resumedHandshakes.get();
+	}
+
+	/**
+	 * @return The number of handshakes which negotiated a new TLS session
+	 */
+	public long getFullHandshakeCount()
+	{
+		return m_handshakes.get() - m_resumedHandshakes.get();
+	}
+
+	public String toString()
+	{
+		return "TLSContext " + m_keyStorePath + ": handshakes=" + getHandshakeCount() +
+				" full=" + getFullHandshakeCount() + " resumed=" + getResumedHandshakeCount();
+	}
+
+	private void handshakeCompleted(SSLSession session)
+	{
+		m_handshakes.incrementAndGet();
+		StringBuilder sessionId = new StringBuilder();
+		for (byte b : session.getId()) {
+			sessionId.append(Integer.toHexString(b & 0xff));
+		}
+		if (!m_sessionIds.add(sessionId.toString())) {
+			m_resumedHandshakes.incrementAndGet();
+		}
+		else if (m_sessionIds.size() > 2 * SESSION_CACHE_SIZE) {
+			// Sessions this old have been evicted from the session cache anyway
+			m_sessionIds.clear();
+			m_sessionIds.add(sessionId.toString());
+		}
+	}
+
+	/**
+	 * Socket factory counting the handshakes of the sockets it creates
+	 */
+	private class CountingSocketFactory extends SSLSocketFactory
+	{
+		private final SSLSocketFactory m_factory;
+		private final HandshakeCompletedListener m_listener = new HandshakeCompletedListener()
+		{
+			public void handshakeCompleted(HandshakeCompletedEvent event)
+			{
+				TLSContext.this.handshakeCompleted(event.getSession());
+			}
+		};
+
+		CountingSocketFactory(SSLSocketFactory factory)
+		{
+			m_factory = factory;
+		}
+
+		private Socket listen(Socket socket)
+		{
+			if (socket instanceof SSLSocket) {
+				((SSLSocket) socket).addHandshakeCompletedListener(m_listener);
+			}
+			return socket;
+		}
+
+		public String[] getDefaultCipherSuites()
+		{
+			return m_factory.getDefaultCipherSuites();
+		}
+
+		public String[] getSupportedCipherSuites()
+		{
+			return m_factory.getSupportedCipherSuites();
+		}
+
+		public Socket createSocket() throws IOException
+		{
+			return listen(m_factory.createSocket());
+		}
+
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException
+		{
+			return listen(m_factory.createSocket(socket, host, port, autoClose));
+		}
+
+		public Socket createSocket(String host, int port) throws IOException
+		{
+			return listen(m_factory.createSocket(host, port));
+		}
+
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException
+		{
+			return listen(m_factory.createSocket(host, port, localHost, localPort));
+		}
+
+		public Socket createSocket(InetAddress host, int port) throws IOException
+		{
+			return listen(m_factory.createSocket(host, port));
+		}
+
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+				throws IOException
+		{
+			return listen(m_factory.createSocket(address, port, localAddress, localPort));
+		}
+	}
+}
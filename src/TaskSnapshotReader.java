@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the tasks and executions of a snapshot written by TaskSnapshotWriter, in order.
+ * Not thread-safe.
+ */
+public class TaskSnapshotReader implements Closeable
+{
+	private final InputStream m_in;
+	private final StringDictionary m_dictionary = new StringDictionary(Integer.MAX_VALUE);
+	private long m_lastSubmitTime = 0;
+	private long m_lastStartTime = 0;
+	// The number read by the last call to readValue(), or its base if the value was a string
+	private long m_lastNumber = 0;
+	private TaskSummary m_task;
+	private ExecutionRecord m_execution;
+	private boolean m_ended = false;
+
+	/**
+	 * @param in The stream the snapshot is read from
+	 * @throws IOException IO problem, or not a snapshot of a supported version
+	 */
+	public TaskSnapshotReader(InputStream in) throws IOException
+	{
+		m_in = new BufferedInputStream(in, 64 * 1024);
+		int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+		if (magic != TaskSnapshotWriter.MAGIC) {
+			throw new IOException("Not a task snapshot");
+		}
+		long version = readVarint();
+		if (version != TaskSnapshotWriter.FORMAT_VERSION) {
+			throw new IOException("Unsupported task snapshot version: " + version);
+		}
+	}
+
+	/**
+	 * Reads the next record
+	 * @return true if a record was read (see getTask() and getExecution()), false at the end of the snapshot
+	 * @throws IOException IO problem, or the snapshot is truncated or corrupt
+	 */
+	public boolean next() throws IOException
+	{
+		m_task = null;
+		m_execution = null;
+		if (m_ended) {
+			return false;
+		}
+		int type = readByte();
+		if (type == TaskSnapshotWriter.TASK) {
+			String server = readString();
+			String id = readString();
+			String name = readString();
+			String instanceName = readString();
+			String status = readString();
+			String submitTime = readValue(m_lastSubmitTime);
+			m_lastSubmitTime = m_lastNumber;
+			m_task = new TaskSummary(server, id, name, instanceName, status, submitTime, readString());
+		}
+		else if (type == TaskSnapshotWriter.EXECUTION) {
+			String taskId = readString();
+			String id = readString();
+			String occurrenceId = readValue(0);
+			String progressText = readString();
+			String progressPercent = readValue(0);
+			String runStatus = readString();
+			String runTime = readValue(0);
+			String startTime = readValue(m_lastStartTime);
+			m_lastStartTime = m_lastNumber;
+			String endTime = readValue(m_lastStartTime);
+			m_execution = new ExecutionRecord(taskId, id, occurrenceId, progressText, progressPercent,
+					runStatus, runTime, startTime, endTime);
+		}
+		else if (type == TaskSnapshotWriter.END) {
+			m_ended = true;
+			return false;
+		}
+		else {
+			throw new IOException("Corrupt task snapshot: unknown record type " + type);
+		}
+		return true;
+	}
+
+	/**
+	 * @return The task read by next(), or null if the record is not a task
+	 */
+	public TaskSummary getTask()
+	{
+		return m_task;
+	}
+
+	/**
+	 * @return The execution read by next(), or null if the record is not an execution
+	 */
+	public ExecutionRecord getExecution()
+	{
+		return m_execution;
+	}
+
+	public void close() throws IOException
+	{
+		m_in.close();
+	}
+
+	private String readValue(long base) throws IOException
+	{
+		long header = readVarint();
+		if ((header & 1) != 0) {
+			m_lastNumber = base;
+			return readString(header >>> 1);
+		}
+		long zigzag = header >>> 1;
+		m_lastNumber = base + ((zigzag >>> 1) ^ -(zigzag & 1));
+		return Long.toString(m_lastNumber);
+	}
+
+	private String readString() throws IOException
+	{
+		long header = readVarint();
+		if ((header & 1) == 0) {
+			throw new IOException("Corrupt task snapshot: number instead of string");
+		}
+		return readString(header >>> 1);
+	}
+
+	private String readString(long code) throws IOException
+	{
+		if (code >= TaskSnapshotWriter.FIRST_STRING_CODE) {
+			try {
+				return m_dictionary.getString((int) (code - TaskSnapshotWriter.FIRST_STRING_CODE));
+			}
+			catch (IndexOutOfBoundsException exc) {
+				throw new IOException("Corrupt task snapshot: unknown string " + code);
+			}
+		}
+		long length = readVarint();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Corrupt task snapshot: string of " + length + " bytes");
+		}
+		byte[] bytes = new byte[(int) length];
+		for (int read = 0; read < bytes.length; ) {
+			int n = m_in.read(bytes, read, bytes.length - read);
+			if (n < 0) {
+				throw new EOFException("Truncated task snapshot");
+			}
+			read += n;
+		}
+		String value = new String(bytes, StandardCharsets.UTF_8);
+		if (code == TaskSnapshotWriter.NEW_STRING) {
+			m_dictionary.add(value);
+		}
+		return value;
+	}
+
+	private long readVarint() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt task snapshot: varint too long");
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = m_in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated task snapshot");
+		}
+		return b;
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tasks and executions in a compact binary snapshot format, read by TaskSnapshotReader.
+ *
+ * The format starts with a magic number and a version, followed by the records and an end marker.
+ * Each field is written as a variable-length integer (varint):
+ * - numbers (timestamps, run times, percentages...) as the zigzag-encoded difference with a base:
+ *   the previous submit or start time for timestamps, the start time for end times, 0 otherwise;
+ * - strings as a reference to a dictionary built along the stream, or the first time as their
+ *   UTF-8 bytes. Only numbers written in the canonical decimal form are stored as numbers,
+ *   so that all fields are read back exactly as they were written.
+ * Not thread-safe.
+ */
+public class TaskSnapshotWriter implements Closeable
+{
+	static final int MAGIC = 0x544D534E;
+	static final int FORMAT_VERSION = 1;
+
+	static final int END = 0;
+	static final int TASK = 'T';
+	static final int EXECUTION = 'E';
+
+	/**
+	 * String values: new string added to the dictionary, new string not added, then dictionary codes
+	 */
+	static final int NEW_STRING = 0;
+	static final int LITERAL_STRING = 1;
+	static final int FIRST_STRING_CODE = 2;
+
+	public static final int DEFAULT_DICTIONARY_SIZE = 1 << 16;
+
+	/**
+	 * Numbers are only encoded as such when their difference with the base is within this bound
+	 */
+	static final long MAX_NUMBER_DELTA = 1L << 60;
+
+	private final OutputStream m_rawOut;
+	private final OutputStream m_out;
+	private final StringDictionary m_dictionary;
+	private long m_lastSubmitTime = 0;
+	private long m_lastStartTime = 0;
+	private long m_recordCount = 0;
+
+	/**
+	 * @param out The stream the snapshot is written to
+	 * @param maxDictionarySize The maximum number of distinct strings referred to (see StringDictionary)
+	 * @throws IOException IO problem
+	 */
+	public TaskSnapshotWriter(OutputStream out, int maxDictionarySize) throws IOException
+	{
+		m_rawOut = out;
+		m_out = new BufferedOutputStream(out, 64 * 1024);
+		m_dictionary = new StringDictionary(maxDictionarySize);
+		writeInt(MAGIC);
+		writeVarint(FORMAT_VERSION);
+	}
+
+	public TaskSnapshotWriter(OutputStream out) throws IOException
+	{
+		this(out, DEFAULT_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * Parses a number written in the canonical decimal form (no sign "+", no leading zeros),
+	 * such as the timestamps of CIS in milliseconds
+	 * @param value The value of a field
+	 * @return The number, or null if the value is not a number in the canonical form
+	 */
+	public static Long parseNumber(String value)
+	{
+		int length = value.length();
+		int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+		if (length == start || length - start > 19 || (value.charAt(start) == '0' && (length > start + 1 || start > 0))) {
+			return null;
+		}
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return null;
+			}
+		}
+		try {
+			return Long.valueOf(value);
+		}
+		catch (NumberFormatException exc) {
+			// Out of range
+			return null;
+		}
+	}
+
+	/**
+	 * @param task The task to write (with its server name)
+	 * @throws IOException IO problem
+	 */
+	public void write(TaskSummary task) throws IOException
+	{
+		m_out.write(TASK);
+		writeString(task.getServer());
+		writeString(task.getId());
+		writeString(task.getName());
+		writeString(task.getInstanceName());
+		writeString(task.getStatus());
+		m_lastSubmitTime = writeValue(task.getSubmitTime(), m_lastSubmitTime);
+		writeString(task.getUsername());
+		m_recordCount++;
+	}
+
+	/**
+	 * @param execution The execution to write
+	 * @throws IOException IO problem
+	 */
+	public void write(ExecutionRecord execution) throws IOException
+	{
+		m_out.write(EXECUTION);
+		writeString(execution.getTaskId());
+		writeString(execution.getId());
+		writeValue(execution.getOccurrenceId(), 0);
+		writeString(execution.getProgressText());
+		writeValue(execution.getProgressPercent(), 0);
+		writeString(execution.getRunStatus());
+		writeValue(execution.getRunTime(), 0);
+		m_lastStartTime = writeValue(execution.getStartTime(), m_lastStartTime);
+		writeValue(execution.getEndTime(), m_lastStartTime);
+		m_recordCount++;
+	}
+
+	/**
+	 * @return The number of records written so far
+	 */
+	public long getRecordCount()
+	{
+		return m_recordCount;
+	}
+
+	public void flush() throws IOException
+	{
+		m_out.flush();
+	}
+
+	/**
+	 * Writes the end marker and closes the stream
+	 * @throws IOException IO problem
+	 */
+	public void close() throws IOException
+	{
+		m_out.write(END);
+		m_out.close();
+	}
+
+	/**
+	 * Closes the stream without writing the end marker, after a failure: the snapshot is then
+	 * rejected by TaskSnapshotReader rather than read as complete. The buffered records are discarded.
+	 * @throws IOException IO problem
+	 */
+	public void abort() throws IOException
+	{
+		m_rawOut.close();
+	}
+
+	/**
+	 * Writes a value as a number if it is one, as a string otherwise
+	 * @param value The value
+	 * @param base The base the number is written relative to
+	 * @return The number, or the base if the value was written as a string
+	 * @throws IOException IO problem
+	 */
+	private long writeValue(String value, long base) throws IOException
+	{
+		Long number = parseNumber(value);
+		if (number != null && (number >= 0) == (base >= 0)) {
+			// No overflow when both have the same sign
+			long delta = number - base;
+			if (delta < MAX_NUMBER_DELTA && delta > -MAX_NUMBER_DELTA) {
+				writeVarint(((delta << 1) ^ (delta >> 63)) << 1);
+				return number;
+			}
+		}
+		writeString(value);
+		return base;
+	}
+
+	private void writeString(String value) throws IOException
+	{
+		int code = m_dictionary.getCode(value);
+		if (code >= 0) {
+			writeVarint(((long) (code + FIRST_STRING_CODE) << 1) | 1);
+			return;
+		}
+		boolean added = m_dictionary.add(value) >= 0;
+		writeVarint(((long) (added ? NEW_STRING : LITERAL_STRING) << 1) | 1);
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		m_out.write(bytes);
+	}
+
+	private void writeVarint(long value) throws IOException
+	{
+		while ((value & ~0x7FL) != 0) {
+			m_out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		m_out.write((int) value);
+	}
+
+	private void writeInt(int value) throws IOException
+	{
+		m_out.write(value >>> 24);
+		m_out.write(value >>> 16);
+		m_out.write(value >>> 8);
+		m_out.write(value);
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the "taskspec" elements of a ListTasks SOAP response one at a time, as the
+ * response is received. Only the current element is held in memory, whatever the
+ * number of tasks in the response.
+ *
+ * Each element is returned as a standalone DOM element, with its attributes and content,
+ * that is not attached to any document tree.
+ */
+public class TaskSpecReader implements Iterator<Element>
+{
+	private static final String TASKSPEC_ELEMENT = "taskspec";
+	private static final String FAULT_ELEMENT = "Fault";
+	private static final String FAULT_STRING_ELEMENT = "faultstring";
+
+	private final XMLStreamReader m_reader;
+	private final Document m_factoryDoc;
+	private Element m_next;
+	private boolean m_endReached = false;
+	private int m_count = 0;
+
+	/**
+	 * @param response The ListTasks SOAP response content
+	 * @throws Exception Invalid response, or the response is a SOAP fault
+	 */
+	public TaskSpecReader(InputStream response) throws Exception
+	{
+		m_reader = WebServiceUtils.createXMLStreamReader(response);
+		m_factoryDoc = WebServiceUtils.newDOMDocument();
+		m_next = readNext();
+	}
+
+	/**
+	 * Returns the remaining elements as a sequential stream
+	 * @return The stream of "taskspec" elements
+	 */
+	public Stream<Element> stream()
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * @return The number of elements returned so far
+	 */
+	public int getCount()
+	{
+		return m_count;
+	}
+
+	public boolean hasNext()
+	{
+		return m_next != null;
+	}
+
+	public Element next()
+	{
+		if (m_next == null) {
+			throw new NoSuchElementException();
+		}
+		Element taskspec = m_next;
+		m_count++;
+		try {
+			m_next = readNext();
+		}
+		catch (Exception exc) {
+			throw new IllegalStateException("Invalid ListTasks response: " + exc.getMessage(), exc);
+		}
+		return taskspec;
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Moves to the next "taskspec" element and reads it
+	 * @return The element, or null if there is no more element
+	 * @throws Exception Invalid response or SOAP fault
+	 */
+	private Element readNext() throws Exception
+	{
+		while (!m_endReached && m_reader.hasNext()) {
+			if (m_reader.next() == XMLStreamConstants.START_ELEMENT) {
+				String name = m_reader.getLocalName();
+				if (TASKSPEC_ELEMENT.equals(name)) {
+					return readElement();
+				}
+				if (FAULT_ELEMENT.equals(name)) {
+					throw new SOAPException("SOAP Fault = " + readFaultString());
+				}
+			}
+		}
+		m_endReached = true;
+		m_reader.close();
+		return null;
+	}
+
+	/**
+	 * Reads the current element and its content into a DOM element
+	 * @return The DOM element
+	 * @throws XMLStreamException Invalid response
+	 */
+	private Element readElement() throws XMLStreamException
+	{
+		Element element = createElement();
+		Element current = element;
+		int depth = 1;
+		while (depth > 0) {
+			switch (m_reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element child = createElement();
+					current.appendChild(child);
+					current = child;
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (--depth > 0) {
+						current = (Element) current.getParentNode();
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (!m_reader.isWhiteSpace()) {
+						current.appendChild(m_factoryDoc.createTextNode(m_reader.getText()));
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return element;
+	}
+
+	private Element createElement()
+	{
+		Element element = m_factoryDoc.createElementNS(m_reader.getNamespaceURI(), m_reader.getLocalName());
+		for (int i = 0; i < m_reader.getAttributeCount(); i++) {
+			String uri = m_reader.getAttributeNamespace(i);
+			if (uri == null || uri.length() == 0) {
+				element.setAttribute(m_reader.getAttributeLocalName(i), m_reader.getAttributeValue(i));
+			}
+			else {
+				element.setAttributeNS(uri, m_reader.getAttributeLocalName(i), m_reader.getAttributeValue(i));
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Reads the error message of the current SOAP fault
+	 * @return The error message
+	 * @throws XMLStreamException Invalid response
+	 */
+	private String readFaultString() throws XMLStreamException
+	{
+		while (m_reader.hasNext()) {
+			int event = m_reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT && FAULT_STRING_ELEMENT.equals(m_reader.getLocalName())) {
+				return m_reader.getElementText();
+			}
+			if (event == XMLStreamConstants.END_ELEMENT && FAULT_ELEMENT.equals(m_reader.getLocalName())) {
+				break;
+			}
+		}
+		return "SOAPBody is NULL or empty";
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Element;
+
+/**
+ * The main attributes of a task listed by a CIS server, tagged with the server name
+ */
+public class TaskSummary
+{
+	private final String m_server;
+	private final String m_id;
+	private final String m_name;
+	private final String m_instanceName;
+	private final String m_status;
+	private final String m_submitTime;
+	private final String m_username;
+
+	public TaskSummary(String server, String id, String name, String instanceName, String status,
+					   String submitTime, String username)
+	{
+		m_server = server;
+		m_id = id;
+		m_name = name;
+		m_instanceName = instanceName;
+		m_status = status;
+		m_submitTime = submitTime;
+		m_username = username;
+	}
+
+	/**
+	 * @param server The name of the server which listed the task
+	 * @param taskspec The "taskspec" element of the ListTasks response
+	 * @return The task summary
+	 */
+	public static TaskSummary fromElement(String server, Element taskspec)
+	{
+		return new TaskSummary(server, taskspec.getAttribute("id"), taskspec.getAttribute("name"),
+				taskspec.getAttribute("instance_name"), taskspec.getAttribute("status"),
+				taskspec.getAttribute("submit_time"), taskspec.getAttribute("username"));
+	}
+
+	public String getServer()
+	{
+		return m_server;
+	}
+
+	public String getId()
+	{
+		return m_id;
+	}
+
+	public String getName()
+	{
+		return m_name;
+	}
+
+	public String getInstanceName()
+	{
+		return m_instanceName;
+	}
+
+	public String getStatus()
+	{
+		return m_status;
+	}
+
+	public String getSubmitTime()
+	{
+		return m_submitTime;
+	}
+
+	public String getUsername()
+	{
+		return m_username;
+	}
+
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof TaskSummary)) {
+			return false;
+		}
+		TaskSummary other = (TaskSummary) obj;
+		return m_server.equals(other.m_server) && m_id.equals(other.m_id) && m_name.equals(other.m_name)
+				&& m_instanceName.equals(other.m_instanceName) && m_status.equals(other.m_status)
+				&& m_submitTime.equals(other.m_submitTime) && m_username.equals(other.m_username);
+	}
+
+	public int hashCode()
+	{
+		return m_server.hashCode() * 31 + m_id.hashCode();
+	}
+
+	public String toString()
+	{
+		return m_server + " " + m_id + " " + m_name + " (" + m_instanceName + ") " + m_status;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Element;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the tasks seen by successive ListTasks requests, so that only the tasks
+ * whose status or submit time changed since the previous request need to be described.
+ *
+ * The listed state of a task is only remembered once the task has been described
+ * (see recordDescription()), along with the execution identifiers returned by DescribeTask:
+ * a task which could not be described is still seen as changed by the next request.
+ * Can be used by several threads at once.
+ */
+public class TaskWatcher
+{
+	private final Map<String, TaskState> m_tasks = new ConcurrentHashMap<String, TaskState>();
+	// The state of the tasks listed by the current ListTasks response
+	private final Map<String, TaskState> m_listed = new ConcurrentHashMap<String, TaskState>();
+
+	/**
+	 * Called before the tasks of a new ListTasks response are checked
+	 */
+	public void beginCycle()
+	{
+		m_listed.clear();
+	}
+
+	/**
+	 * Checks a listed task against its last seen state. The new state is only remembered
+	 * by recordDescription(), once the task has been described.
+	 * @param taskspec The "taskspec" element of the ListTasks response
+	 * @return true if the task is new or its status or submit time changed
+	 */
+	public boolean hasChanged(Element taskspec)
+	{
+		String taskId = taskspec.getAttribute("id");
+		TaskState listed = new TaskState(taskspec.getAttribute("status"), taskspec.getAttribute("submit_time"),
+				Collections.<String>emptySet());
+		m_listed.put(taskId, listed);
+
+		TaskState state = m_tasks.get(taskId);
+		return state == null || !state.status.equals(listed.status) || !state.submitTime.equals(listed.submitTime);
+	}
+
+	/**
+	 * Remembers the listed state of a task once it has been described, and its executions
+	 * @param taskId The task identifier
+	 * @param executionIds The execution identifiers returned by DescribeTask
+	 * @return The number of executions not seen before
+	 */
+	public int recordDescription(String taskId, Collection<String> executionIds)
+	{
+		TaskState listed = m_listed.get(taskId);
+		TaskState state = m_tasks.get(taskId);
+		Set<String> knownIds = new HashSet<String>(executionIds);
+		if (state != null) {
+			knownIds.addAll(state.executionIds);
+		}
+		if (listed != null) {
+			m_tasks.put(taskId, new TaskState(listed.status, listed.submitTime, knownIds));
+		}
+		else if (state != null) {
+			m_tasks.put(taskId, new TaskState(state.status, state.submitTime, knownIds));
+		}
+		return state == null ? executionIds.size() : knownIds.size() - state.executionIds.size();
+	}
+
+	/**
+	 * Called once all the tasks of a ListTasks response have been checked:
+	 * forgets the tasks which are no longer listed
+	 * @return The number of tasks forgotten
+	 */
+	public int endCycle()
+	{
+		int removed = 0;
+		for (Iterator<String> iter = m_tasks.keySet().iterator(); iter.hasNext(); ) {
+			if (!m_listed.containsKey(iter.next())) {
+				iter.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+
+	/**
+	 * Remembers the tasks and executions kept in a history store, for instance by a previous run,
+	 * so that only the tasks which changed since then are described
+	 * @param store The history store
+	 * @return The number of tasks remembered
+	 * @throws IOException The store cannot be read
+	 */
+	public int seed(ExecutionHistoryStore store) throws IOException
+	{
+		int seeded = 0;
+		for (String taskId : store.getTaskIds()) {
+			TaskSummary task = store.getTask(taskId);
+			if (task != null) {
+				m_tasks.put(taskId, new TaskState(task.getStatus(), task.getSubmitTime(),
+						new HashSet<String>(store.getExecutionIds(taskId))));
+				seeded++;
+			}
+		}
+		return seeded;
+	}
+
+	/**
+	 * @return The number of tasks currently known
+	 */
+	public int getTaskCount()
+	{
+		return m_tasks.size();
+	}
+
+	/**
+	 * The last seen state of a task (its execution identifiers are not modified once remembered)
+	 */
+	private static class TaskState
+	{
+		final String status;
+		final String submitTime;
+		final Set<String> executionIds;
+
+		TaskState(String status, String submitTime, Set<String> executionIds)
+		{
+			this.status = status;
+			this.submitTime = submitTime;
+			this.executionIds = executionIds;
+		}
+	}
+}
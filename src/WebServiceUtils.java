@@ -35,79 +35,192 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.soap.MessageFactory;
 import javax.xml.soap.SOAPMessage;
 import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPConnectionFactory;
-import javax.xml.soap.SOAPConnection;
+import javax.xml.soap.MimeHeaders;
 import javax.xml.soap.SOAPBodyElement;
 import javax.xml.soap.SOAPBody;
 import javax.xml.soap.AttachmentPart;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
 
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Deflater;
 import java.io.OutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.PrintWriter;
-import java.io.InputStreamReader;
-import java.io.ByteArrayInputStream;
-import java.io.OutputStreamWriter;
 
 /**
  * SOAP and XML manipulation utilities
  */
 public abstract class WebServiceUtils
 {
-	private static MessageFactory _msgFact;
-	private static SOAPConnection _connectionSOAP;
-	private static Transformer _xmlTransformer;
-	private static DocumentBuilder _domBuilder;
+	private static final SOAPTransport _transport = new SOAPTransport();
+	private static AsyncSOAPTransport _asyncTransport;
+
+	static {
+		// The transport is tuned by the monitor configuration, also when it changes
+		configureTransport(ConfigService.getConfig());
+		ConfigService.addListener(new ConfigService.ConfigListener()
+		{
+			public void configChanged(MonitorConfig oldConfig, MonitorConfig newConfig)
+			{
+				configureTransport(newConfig);
+			}
+		});
+	}
+
+	// None of the SOAP and XML tools below is thread-safe: each thread uses its own instances
+	private static final ThreadLocal<MessageFactory> _msgFact = new ThreadLocal<MessageFactory>();
+	private static final ThreadLocal<Transformer> _xmlTransformer = new ThreadLocal<Transformer>();
+	private static final ThreadLocal<DocumentBuilder> _domBuilder = new ThreadLocal<DocumentBuilder>();
+	private static final ThreadLocal<XMLInputFactory> _staxFactory = new ThreadLocal<XMLInputFactory>();
+
+	// The factories are looked up once, and only used under their own lock
+	private static TransformerFactory _transformerFactory;
+	private static DocumentBuilderFactory _domBuilderFactory;
 
 	private static final String SOAP_ATTACHMENT_FORMAT_XML = "application/xml";
-	private static final String SOAP_ATTACHMENT_FORMAT_GZIP = "application/gzip";
+	static final String SOAP_ATTACHMENT_FORMAT_GZIP = "application/gzip";
     private static final String SOAP_ATTACHMENT_FORMAT_OCTECT = "application/octet-stream";
 
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+	// Attachments are copied through one reusable buffer per thread
+	private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+	private static final ThreadLocal<ByteBuffer> _transferBuffer = new ThreadLocal<ByteBuffer>();
+
 	private static MessageFactory getSOAPMsgFactory() throws SOAPException
 	{
-		if (_msgFact == null) {
-			_msgFact = MessageFactory.newInstance();
+		MessageFactory msgFact = _msgFact.get();
+		if (msgFact == null) {
+			msgFact = MessageFactory.newInstance();
+			_msgFact.set(msgFact);
 		}
-		return _msgFact;
+		return msgFact;
 	}
 
-	private static SOAPConnection getSOAPConnection() throws SOAPException
+	/**
+	 * Returns the transport used to send all SOAP requests, for configuration and statistics
+	 * @return The SOAP transport
+	 */
+	public static SOAPTransport getSOAPTransport()
 	{
-		if (_connectionSOAP == null) {
-			SOAPConnectionFactory soapConnectionFactory = SOAPConnectionFactory.newInstance();
-			_connectionSOAP = soapConnectionFactory.createConnection();
+		return _transport;
+	}
+
+	private static synchronized void configureTransport(MonitorConfig config)
+	{
+		_transport.setTimeouts(config.getConnectTimeout(), config.getReadTimeout());
+		_transport.setMaxConnectionsPerHost(Math.max(1, config.getMaxConnectionsPerHost()));
+		if (_asyncTransport != null) {
+			_asyncTransport.setConnectTimeout(config.getConnectTimeout());
+			_asyncTransport.setTimeout(config.getReadTimeout());
+			_asyncTransport.setMaxConnectionsPerHost(Math.max(1, config.getMaxConnectionsPerHost()));
+		}
+	}
+
+	/**
+	 * Returns the non-blocking transport, created at first use
+	 * @return The asynchronous SOAP transport
+	 * @throws SOAPException The transport threads cannot be created
+	 */
+	public static synchronized AsyncSOAPTransport getAsyncSOAPTransport() throws SOAPException
+	{
+		if (_asyncTransport == null) {
+			try {
+				MonitorConfig config = ConfigService.getConfig();
+				_asyncTransport = new AsyncSOAPTransport(_transport, Runtime.getRuntime().availableProcessors(),
+						Math.max(1, config.getMaxConnectionsPerHost()));
+				_asyncTransport.setConnectTimeout(config.getConnectTimeout());
+				_asyncTransport.setTimeout(config.getReadTimeout());
+			}
+			catch (IOException exc) {
+				throw new SOAPException("Cannot create the asynchronous transport", exc);
+			}
 		}
-		return _connectionSOAP;
+		return _asyncTransport;
 	}
 
 	private static Transformer getXMLTransformer() throws TransformerConfigurationException
 	{
-		if (_xmlTransformer == null) {
-			_xmlTransformer = TransformerFactory.newInstance().newTransformer();
-			_xmlTransformer.setOutputProperty(OutputKeys.INDENT, "yes");
+		Transformer transformer = _xmlTransformer.get();
+		if (transformer == null) {
+			TransformerFactory factory = getTransformerFactory();
+			synchronized (factory) {
+				transformer = factory.newTransformer();
+			}
+			_xmlTransformer.set(transformer);
+		}
+		else {
+			transformer.reset();
 		}
-		return _xmlTransformer;
+		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+		return transformer;
 	}
 
 	private static DocumentBuilder getDOMDocBuilder() throws ParserConfigurationException
 	{
-		if (_domBuilder == null) {
-			 DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			 factory.setNamespaceAware(true);
-			_domBuilder = factory.newDocumentBuilder();
+		DocumentBuilder builder = _domBuilder.get();
+		if (builder == null) {
+			DocumentBuilderFactory factory = getDOMDocBuilderFactory();
+			synchronized (factory) {
+				builder = factory.newDocumentBuilder();
+			}
+			_domBuilder.set(builder);
+		}
+		else {
+			builder.reset();
+		}
+		return builder;
+	}
+
+	private static XMLInputFactory getStAXFactory()
+	{
+		XMLInputFactory factory = _staxFactory.get();
+		if (factory == null) {
+			factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			_staxFactory.set(factory);
+		}
+		return factory;
+	}
+
+	private static synchronized TransformerFactory getTransformerFactory()
+	{
+		if (_transformerFactory == null) {
+			_transformerFactory = TransformerFactory.newInstance();
 		}
-		return _domBuilder;
+		return _transformerFactory;
+	}
+
+	private static synchronized DocumentBuilderFactory getDOMDocBuilderFactory()
+	{
+		if (_domBuilderFactory == null) {
+			_domBuilderFactory = DocumentBuilderFactory.newInstance();
+			_domBuilderFactory.setNamespaceAware(true);
+		}
+		return _domBuilderFactory;
 	}
 
 	/**
@@ -135,15 +248,88 @@ public abstract class WebServiceUtils
 	}
 
 	/**
-	 * Sends a SOAP request and retrieves the response (synchronously)
+	 * Creates a SOAP message from its MIME headers and content (for instance, a received response)
+	 * @param headers The MIME headers of the message
+	 * @param content The message content
+	 * @return The SOAP message
+	 * @throws SOAPException Invalid message
+	 */
+	public static SOAPMessage createSOAPMessage(MimeHeaders headers, InputStream content) throws SOAPException
+	{
+		try {
+			return getSOAPMsgFactory().createMessage(headers, content);
+		}
+		catch (IOException exc) {
+			throw new SOAPException("Cannot read SOAP message: " + exc.getMessage(), exc);
+		}
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response (synchronously).
+	 * Can be called by several threads at once.
 	 * @param message The SOAP request message
 	 * @param url The URL of the web service to send the request to
-	 * @return The SOAP response message
+	 * @return The SOAP response message, or null if the response is empty
 	 * @throws SOAPException Software configuration problem or server problem
 	 */
 	public static SOAPMessage sendSOAPRequest(SOAPMessage message, URL url) throws SOAPException
 	{
-		return getSOAPConnection().call(message, url);
+		return _transport.call(message, url);
+	}
+
+	/**
+	 * Sends a SOAP request and passes the response content to a handler as it is received.
+	 * Can be called by several threads at once.
+	 * @param message The SOAP request message
+	 * @param url The URL of the web service to send the request to
+	 * @param handler The handler reading the response content
+	 * @throws Exception Software configuration problem, server problem or handler failure
+	 */
+	public static void sendSOAPRequest(SOAPMessage message, URL url, SOAPTransport.ResponseHandler handler)
+			throws Exception
+	{
+		_transport.call(message, url, handler);
+	}
+
+	/**
+	 * Sends a SOAP request and retrieves the response (synchronously).
+	 * Can be called by several threads at once.
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @return The SOAP response message, or null if the response is empty
+	 * @throws SOAPException Software configuration problem or server problem
+	 */
+	public static SOAPMessage sendSOAPRequest(SOAPRequest request, URL url) throws SOAPException
+	{
+		return _transport.call(request, url);
+	}
+
+	/**
+	 * Sends a SOAP request and passes the response content to a handler as it is received.
+	 * Can be called by several threads at once.
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @param handler The handler reading the response content
+	 * @throws Exception Software configuration problem, server problem or handler failure
+	 */
+	public static void sendSOAPRequest(SOAPRequest request, URL url, SOAPTransport.ResponseHandler handler)
+			throws Exception
+	{
+		_transport.call(request, url, handler);
+	}
+
+	/**
+	 * Sends a SOAP request without blocking the calling thread (see AsyncSOAPTransport).
+	 * Can be called by several threads at once.
+	 * @param request The SOAP request
+	 * @param url The URL of the web service to send the request to
+	 * @return The future SOAP response message, completed with null if the response is empty
+	 * @throws SOAPException The asynchronous transport cannot be created
+	 */
+	public static CompletableFuture<SOAPMessage> sendSOAPRequestAsync(SOAPRequest request, URL url)
+			throws SOAPException
+	{
+		return getAsyncSOAPTransport().call(request, url);
 	}
 
 	/**
@@ -194,7 +380,7 @@ public abstract class WebServiceUtils
 			Object child = iter.next();
 			if (child instanceof SOAPBodyElement) {
 				// Import node in empty DOM document
-				Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+				Document doc = getDOMDocBuilder().newDocument();
 				Node node = doc.importNode((SOAPBodyElement) child, true);
 				doc.appendChild(node);
 				return doc;
@@ -265,8 +451,30 @@ public abstract class WebServiceUtils
 		return getDOMDocBuilder().parse(stream);
 	}
 
+	/**
+	 * Creates a pull parser reading an XML stream.
+	 * @param stream The XML stream to parse
+	 * @return The pull parser
+	 * @throws XMLStreamException Software configuration problem
+	 */
+	public static XMLStreamReader createXMLStreamReader(InputStream stream) throws XMLStreamException
+	{
+		return getStAXFactory().createXMLStreamReader(stream);
+	}
+
+	/**
+	 * Creates an empty DOM document.
+	 * @return The DOM document
+	 * @throws ParserConfigurationException Software configuration problem
+	 */
+	public static Document newDOMDocument() throws ParserConfigurationException
+	{
+		return getDOMDocBuilder().newDocument();
+	}
+
 	/**
      * Creates a GZIP attachment to a SOAP message from an input data stream.
+     * The data is compressed while the message is written, in constant memory.
      *
      * @param messageSOAP SOAP message to add the attachment to
      * @param messageID A unique identifier for this attachment (amongst other attachments)
@@ -275,32 +483,30 @@ public abstract class WebServiceUtils
      */
     public static void createGZIPAttachment(SOAPMessage messageSOAP, String messageID, InputStream data) throws Exception
     {
-        ByteArrayOutputStream compressedByteStream = new ByteArrayOutputStream();
-        GZIPOutputStream compressedStream = new GZIPOutputStream(compressedByteStream);
-        PrintWriter printWriterc = new PrintWriter(new OutputStreamWriter(compressedStream, "UTF8"));
-
-        // read the stream and compress it, we must read it as UTF-8. dts0100807283
-        InputStreamReader streamReader = new InputStreamReader(data, "UTF8");
-        while (streamReader.ready())
-        {
-            char[] buffer = new char[1000];
-            int numberOfReadBytes = streamReader.read(buffer, 0, 1000);
-			if (numberOfReadBytes > 0) {
-				printWriterc.write(buffer, 0, numberOfReadBytes);
-			}
-		}
-
-        printWriterc.flush();
-        compressedStream.finish();
-        compressedStream.flush();
-        ByteArrayInputStream result = new ByteArrayInputStream(compressedByteStream.toByteArray());
+		createGZIPAttachment(messageSOAP, messageID, data, Deflater.DEFAULT_COMPRESSION, GZIP_BUFFER_SIZE);
+	}
 
-        DataHandler dh = new DataHandler(new InputStreamDataSource(result, SOAP_ATTACHMENT_FORMAT_GZIP));
-        AttachmentPart attachment = messageSOAP.createAttachmentPart(dh);
-        attachment.setContentId(messageID);
+	/**
+	 * Creates a GZIP attachment to a SOAP message from an input data stream.
+	 * The data is compressed while the message is written, in constant memory:
+	 * the stream is read once, when the message is written.
+	 *
+	 * @param messageSOAP SOAP message to add the attachment to
+	 * @param messageID A unique identifier for this attachment (amongst other attachments)
+	 * @param data The data to be compressed and included as attachment (UTF-8 for XML data)
+	 * @param level The compression level (0-9, or Deflater.DEFAULT_COMPRESSION)
+	 * @param bufferSize The size of the buffer the data is compressed from
+	 */
+	public static void createGZIPAttachment(SOAPMessage messageSOAP, String messageID, InputStream data,
+											int level, int bufferSize)
+	{
+		InputStream compressedStream = new GZIPCompressingInputStream(data, level, bufferSize);
+		DataHandler dh = new DataHandler(new InputStreamDataSource(compressedStream, SOAP_ATTACHMENT_FORMAT_GZIP));
+		AttachmentPart attachment = messageSOAP.createAttachmentPart(dh);
+		attachment.setContentId(messageID);
 
 		messageSOAP.addAttachmentPart(attachment);
-    }
+	}
 
 	/**
 	 * DataSource implementation for SOAP attachments
@@ -357,39 +563,161 @@ public abstract class WebServiceUtils
 	public static void extractDocumentFromSOAPAttachment(SOAPMessage messageSOAP, OutputStream outStream)
 			throws Exception
 	{
-		// Assumes 1 single gzip attachment
-		int attachCount = 0;
-
-		for (Iterator iter = messageSOAP.getAttachments(); iter.hasNext(); ) {
-			if (++attachCount == 1) {
-				InputStream in = null;
-				AttachmentPart attachment = (AttachmentPart) iter.next();
-				if (SOAP_ATTACHMENT_FORMAT_GZIP.equals(attachment.getContentType()) ||
-						SOAP_ATTACHMENT_FORMAT_OCTECT.equals(attachment.getContentType())) {
-					in = (InputStream) attachment.getContent();
-				}
-				else if (SOAP_ATTACHMENT_FORMAT_XML.equals(attachment.getContentType())) {
-					StreamSource source = (StreamSource) attachment.getContent();
-					in = source.getInputStream();
-				}
-				else {
-					throw new RuntimeException("Expected " + SOAP_ATTACHMENT_FORMAT_GZIP + " or "
-							+ SOAP_ATTACHMENT_FORMAT_OCTECT
-							+ " but received " + attachment.getContentType());
-				}
+		InputStream in = getSingleAttachmentContent(messageSOAP, false);
+		if (in == null) {
+			return;
+		}
+
+		try {
+			ByteBuffer buffer = getTransferBuffer();
+			byte[] bytes = buffer.array();
+			int readBytesCount;
+			while ((readBytesCount = in.read(bytes, 0, bytes.length)) != -1) {
+				outStream.write(bytes, 0, readBytesCount);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Extracts an attachment from a SOAP messages and writes it to a file through NIO channels.
+	 * The attachment is first written to a temporary file next to the target file,
+	 * which is only replaced once the whole attachment has been written.
+	 * Assumes the message only includes one single attachment.
+	 * @param messageSOAP The SOAP message with attachment
+	 * @param file The file to write the attachment to
+	 * @param uncompress If true, a GZIP attachment is uncompressed while being written
+	 * @return The transfer statistics, or null if the message has no attachment
+	 * @throws Exception Unexpected type or count of attachment, or IO problem
+	 */
+	public static TransferStatistics extractDocumentFromSOAPAttachment(SOAPMessage messageSOAP, File file,
+																	   boolean uncompress) throws Exception
+	{
+		InputStream in = getSingleAttachmentContent(messageSOAP, uncompress);
+		if (in == null) {
+			return null;
+		}
 
-				while (in.available() != 0) {
-					byte[] buffer = new byte[1024];
-					int readBytesCount = in.read(buffer, 0, 1024);
-					if (readBytesCount > 0) {
-						outStream.write(buffer, 0, readBytesCount);
+		long start = System.nanoTime();
+		long byteCount = 0;
+		File tmpFile = new File(file.getPath() + ".part");
+		try {
+			try {
+				FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				try {
+					ReadableByteChannel src = Channels.newChannel(in);
+					ByteBuffer buffer = getTransferBuffer();
+					buffer.clear();
+					while (src.read(buffer) != -1) {
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							byteCount += out.write(buffer);
+						}
+						buffer.clear();
 					}
 				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				in.close();
+			}
+
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException exc) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 			}
 		}
+		catch (Exception exc) {
+			// Do not leave a partial file behind
+			Files.deleteIfExists(tmpFile.toPath());
+			throw exc;
+		}
+		return new TransferStatistics(byteCount, System.nanoTime() - start);
+	}
 
+	/**
+	 * Opens the content of the single attachment of a SOAP message
+	 * @param messageSOAP The SOAP message with attachment
+	 * @param uncompress If true, a GZIP attachment is uncompressed while being read
+	 * @return The attachment content, or null if the message has no attachment
+	 * @throws Exception Unexpected type or count of attachment
+	 */
+	private static InputStream getSingleAttachmentContent(SOAPMessage messageSOAP, boolean uncompress)
+			throws Exception
+	{
+		// Assumes 1 single gzip attachment
+		int attachCount = messageSOAP.countAttachments();
 		if (attachCount > 1) {
 			throw new RuntimeException("Expected only one attachment, but received " + attachCount);
 		}
+
+		Iterator iter = messageSOAP.getAttachments();
+		if (!iter.hasNext()) {
+			return null;
+		}
+		AttachmentPart attachment = (AttachmentPart) iter.next();
+		if (SOAP_ATTACHMENT_FORMAT_GZIP.equals(attachment.getContentType())) {
+			InputStream in = (InputStream) attachment.getContent();
+			return uncompress ? new GZIPInputStream(in, TRANSFER_BUFFER_SIZE) : in;
+		}
+		else if (SOAP_ATTACHMENT_FORMAT_OCTECT.equals(attachment.getContentType())) {
+			return (InputStream) attachment.getContent();
+		}
+		else if (SOAP_ATTACHMENT_FORMAT_XML.equals(attachment.getContentType())) {
+			StreamSource source = (StreamSource) attachment.getContent();
+			return source.getInputStream();
+		}
+		else {
+			throw new RuntimeException("Expected " + SOAP_ATTACHMENT_FORMAT_GZIP + " or "
+					+ SOAP_ATTACHMENT_FORMAT_OCTECT
+					+ " but received " + attachment.getContentType());
+		}
+	}
+
+	private static ByteBuffer getTransferBuffer()
+	{
+		ByteBuffer buffer = _transferBuffer.get();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+			_transferBuffer.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * The amount of data written by an attachment extraction and the time it took
+	 */
+	public static class TransferStatistics
+	{
+		public final long byteCount;
+		public final long elapsedNanos;
+
+		TransferStatistics(long byteCount, long elapsedNanos)
+		{
+			this.byteCount = byteCount;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * @return The throughput in megabytes per second
+		 */
+		public double getThroughput()
+		{
+			return elapsedNanos == 0 ? 0 : (byteCount / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+		}
+
+		public String toString()
+		{
+			return byteCount + " bytes in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms (" +
+					String.format("%.1f", getThroughput()) + " MB/s)";
+		}
 	}
 }
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import org.w3c.dom.Document;
+
+import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPMessage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Micro-benchmarks of the client-side cost of a request: envelope building, XML parsing,
+ * payload extraction, serialisation, and attachment compression and extraction.
+ *
+ * Each benchmark is warmed up then measured over several timed iterations, and reports its
+ * throughput and the amount of memory it allocates per operation. Results can be saved to
+ * a CSV file and compared with a previous run:
+ *
+ *   java WebServiceUtilsBenchmark [-filter regex] [-out results.csv] [-baseline previous.csv]
+ *                                 [-iterations n] [-time ms] [-large]
+ *
+ * The benchmarks only need a SAAJ implementation on the class path, no CIS server.
+ */
+public class WebServiceUtilsBenchmark
+{
+	private static final int[] TASK_COUNTS = {10, 1000, 100000};
+	private static final long[] ATTACHMENT_SIZES = {1024, 1024 * 1024, 50 * 1024 * 1024};
+	private static final long LARGE_ATTACHMENT_SIZE = 500L * 1024 * 1024;
+	private static final int EXECUTIONS_PER_TASK = 50;
+
+	/**
+	 * Keeps benchmark results alive so that the JIT compiler cannot remove the measured code
+	 */
+	private static volatile int _sink;
+
+	public static void main(String[] args) throws Exception
+	{
+		Pattern filter = null;
+		String outFile = null;
+		String baselineFile = null;
+		int iterations = 5;
+		long iterationTime = 1000;
+		boolean large = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-filter")) {
+				filter = Pattern.compile(args[++i]);
+			}
+			else if (args[i].equals("-out")) {
+				outFile = args[++i];
+			}
+			else if (args[i].equals("-baseline")) {
+				baselineFile = args[++i];
+			}
+			else if (args[i].equals("-iterations")) {
+				iterations = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-time")) {
+				iterationTime = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-large")) {
+				large = true;
+			}
+			else {
+				System.err.println("Error: Invalid argument " + args[i]);
+				return;
+			}
+		}
+
+		Map<String, Double> baseline = baselineFile != null ? readResults(baselineFile) : null;
+		List<Result> results = new ArrayList<Result>();
+		System.out.println(String.format("%-40s %14s %10s %14s %12s", "Benchmark", "ops/s", "+/-", "bytes/op", "vs baseline"));
+		for (Benchmark benchmark : createBenchmarks(large)) {
+			if (filter != null && !filter.matcher(benchmark.name).find()) {
+				continue;
+			}
+			Result result = measure(benchmark, iterations, iterationTime);
+			results.add(result);
+			System.out.println(result.format(baseline != null ? baseline.get(result.name) : null));
+		}
+
+		if (outFile != null) {
+			writeResults(results, outFile);
+		}
+	}
+
+	private static List<Benchmark> createBenchmarks(boolean large)
+	{
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		benchmarks.add(new Benchmark("envelope.saaj")
+		{
+			Object run() throws Exception
+			{
+				DescribeTaskClient client = new DescribeTaskClient(CISFixtures.getTaskId(1));
+				return writeRequest(SOAPRequest.create(client.createSOAPRequest()));
+			}
+		});
+		benchmarks.add(new Benchmark("envelope.template")
+		{
+			Object run() throws Exception
+			{
+				DescribeTaskClient client = new DescribeTaskClient(CISFixtures.getTaskId(1));
+				return writeRequest(client.createRequest());
+			}
+		});
+
+		for (final int taskCount : TASK_COUNTS) {
+			benchmarks.add(new ListTasksBenchmark("parseToDOM.listTasks." + taskCount, taskCount)
+			{
+				Object run() throws Exception
+				{
+					return WebServiceUtils.parseToDOM(new ByteArrayInputStream(m_payload));
+				}
+			});
+			benchmarks.add(new ListTasksBenchmark("extractPayload.listTasks." + taskCount, taskCount)
+			{
+				Object run() throws Exception
+				{
+					SOAPMessage message = WebServiceUtils.createSOAPMessage(getResponseHeaders(),
+							new ByteArrayInputStream(m_envelope));
+					return WebServiceUtils.extractXMLPayloadFromSOAPMessage(message);
+				}
+			});
+			benchmarks.add(new ListTasksBenchmark("streamTasks.listTasks." + taskCount, taskCount)
+			{
+				Object run() throws Exception
+				{
+					TaskSpecReader reader = new TaskSpecReader(new ByteArrayInputStream(m_envelope));
+					while (reader.hasNext()) {
+						reader.next();
+					}
+					return reader.getCount();
+				}
+			});
+			benchmarks.add(new ListTasksBenchmark("writeDOMToString.listTasks." + taskCount, taskCount)
+			{
+				Object run() throws Exception
+				{
+					return WebServiceUtils.writeDOMDocumentToString(m_document);
+				}
+			});
+		}
+
+		benchmarks.add(new Benchmark("parseToDOM.describeTask." + EXECUTIONS_PER_TASK)
+		{
+			private byte[] m_payload;
+
+			void setUp() throws Exception
+			{
+				m_payload = CISFixtures.describeTaskPayload(1, EXECUTIONS_PER_TASK).getBytes("UTF8");
+			}
+
+			Object run() throws Exception
+			{
+				return WebServiceUtils.parseToDOM(new ByteArrayInputStream(m_payload));
+			}
+		});
+
+		List<Long> attachmentSizes = new ArrayList<Long>();
+		for (long size : ATTACHMENT_SIZES) {
+			attachmentSizes.add(size);
+		}
+		if (large) {
+			attachmentSizes.add(LARGE_ATTACHMENT_SIZE);
+		}
+		for (final long size : attachmentSizes) {
+			benchmarks.add(new Benchmark("gzipAttachment." + formatSize(size))
+			{
+				Object run() throws Exception
+				{
+					SOAPMessage message = WebServiceUtils.newBlankSOAPMessage();
+					WebServiceUtils.createGZIPAttachment(message, "design", CISFixtures.attachmentData(size));
+					CountingOutputStream out = new CountingOutputStream();
+					message.writeTo(out);
+					return out.count;
+				}
+			});
+			benchmarks.add(new Benchmark("extractAttachment." + formatSize(size))
+			{
+				private File m_file;
+				private SOAPMessage m_message;
+
+				void setUp() throws Exception
+				{
+					m_file = File.createTempFile("benchmark", ".xml");
+					// Compressed once: only the extraction is measured, the attachment content being read again each time
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+					GZIPOutputStream out = new GZIPOutputStream(compressed);
+					copy(CISFixtures.attachmentData(size), out);
+					out.close();
+					m_message = WebServiceUtils.newBlankSOAPMessage();
+					AttachmentPart attachment = m_message.createAttachmentPart();
+					byte[] bytes = compressed.toByteArray();
+					attachment.setRawContentBytes(bytes, 0, bytes.length, WebServiceUtils.SOAP_ATTACHMENT_FORMAT_GZIP);
+					attachment.setContentId("design");
+					m_message.addAttachmentPart(attachment);
+				}
+
+				Object run() throws Exception
+				{
+					return WebServiceUtils.extractDocumentFromSOAPAttachment(m_message, m_file, true).byteCount;
+				}
+
+				void tearDown()
+				{
+					m_file.delete();
+				}
+			});
+		}
+		return benchmarks;
+	}
+
+	private static Result measure(Benchmark benchmark, int iterations, long iterationTime) throws Exception
+	{
+		benchmark.setUp();
+		try {
+			// Warm up for as long as the measurement
+			for (int i = 0; i < iterations; i++) {
+				runIteration(benchmark, iterationTime);
+			}
+
+			double[] throughputs = new double[iterations];
+			long totalOps = 0;
+			long totalAllocated = 0;
+			for (int i = 0; i < iterations; i++) {
+				long allocatedBefore = getAllocatedBytes();
+				long start = System.nanoTime();
+				long ops = runIteration(benchmark, iterationTime);
+				long elapsed = System.nanoTime() - start;
+				totalAllocated += getAllocatedBytes() - allocatedBefore;
+				totalOps += ops;
+				throughputs[i] = ops / (elapsed / 1e9);
+			}
+
+			double mean = 0;
+			for (double throughput : throughputs) {
+				mean += throughput / iterations;
+			}
+			double variance = 0;
+			for (double throughput : throughputs) {
+				variance += (throughput - mean) * (throughput - mean) / Math.max(1, iterations - 1);
+			}
+			long allocatedPerOp = getAllocatedBytes() < 0 ? -1 : totalAllocated / totalOps;
+			return new Result(benchmark.name, mean, Math.sqrt(variance), allocatedPerOp);
+		}
+		finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Runs the benchmark operation repeatedly for a given time (at least once)
+	 * @return The number of operations run
+	 */
+	private static long runIteration(Benchmark benchmark, long iterationTime) throws Exception
+	{
+		long end = System.nanoTime() + iterationTime * 1000000;
+		long ops = 0;
+		do {
+			_sink ^= System.identityHashCode(benchmark.run());
+			ops++;
+		}
+		while (System.nanoTime() < end);
+		return ops;
+	}
+
+	/**
+	 * @return The number of bytes allocated so far by the current thread, or a negative value if not supported
+	 */
+	private static long getAllocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException
+	{
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static Object writeRequest(SOAPRequest request) throws Exception
+	{
+		CountingOutputStream out = new CountingOutputStream();
+		request.writeTo(out);
+		return out.count;
+	}
+
+	private static MimeHeaders getResponseHeaders()
+	{
+		MimeHeaders headers = new MimeHeaders();
+		headers.addHeader("Content-Type", SOAPRequest.SOAP_CONTENT_TYPE);
+		return headers;
+	}
+
+	private static String formatSize(long size)
+	{
+		if (size >= 1024 * 1024) {
+			return (size / (1024 * 1024)) + "MB";
+		}
+		return (size / 1024) + "KB";
+	}
+
+	private static Map<String, Double> readResults(String fileName) throws IOException
+	{
+		Map<String, Double> results = new HashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(",");
+				if (fields.length >= 2 && !fields[0].equals("benchmark")) {
+					results.put(fields[0], Double.parseDouble(fields[1]));
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	private static void writeResults(List<Result> results, String fileName) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new FileWriter(fileName));
+		try {
+			writer.println("benchmark,opsPerSecond,error,bytesPerOp");
+			for (Result result : results) {
+				writer.println(result.name + "," + result.throughput + "," + result.error + "," + result.allocatedPerOp);
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * A measured operation, with optional set up and tear down outside of the measurement
+	 */
+	private static abstract class Benchmark
+	{
+		final String name;
+
+		Benchmark(String name)
+		{
+			this.name = name;
+		}
+
+		void setUp() throws Exception
+		{
+		}
+
+		abstract Object run() throws Exception;
+
+		void tearDown()
+		{
+		}
+	}
+
+	/**
+	 * A benchmark on a ListTasks response of a given number of tasks
+	 */
+	private static abstract class ListTasksBenchmark extends Benchmark
+	{
+		private final int m_taskCount;
+		protected byte[] m_payload;
+		protected byte[] m_envelope;
+		protected Document m_document;
+
+		ListTasksBenchmark(String name, int taskCount)
+		{
+			super(name);
+			m_taskCount = taskCount;
+		}
+
+		void setUp() throws Exception
+		{
+			String payload = CISFixtures.listTasksPayload(m_taskCount);
+			m_payload = payload.getBytes("UTF8");
+			m_envelope = CISFixtures.envelope(payload);
+			m_document = WebServiceUtils.parseToDOM(new ByteArrayInputStream(m_payload));
+		}
+
+		void tearDown()
+		{
+			m_payload = null;
+			m_envelope = null;
+			m_document = null;
+		}
+	}
+
+	/**
+	 * The measurement of a benchmark
+	 */
+	private static class Result
+	{
+		final String name;
+		final double throughput;
+		final double error;
+		final long allocatedPerOp;
+
+		Result(String name, double throughput, double error, long allocatedPerOp)
+		{
+			this.name = name;
+			this.throughput = throughput;
+			this.error = error;
+			this.allocatedPerOp = allocatedPerOp;
+		}
+
+		String format(Double baseline)
+		{
+			String comparison = baseline == null || baseline == 0 ? ""
+					: String.format("%+.1f%%", (throughput - baseline) * 100 / baseline);
+			return String.format("%-40s %14.2f %10.2f %14d %12s", name, throughput, error, allocatedPerOp, comparison);
+		}
+	}
+
+	/**
+	 * Discards the data written to it, only counting it
+	 */
+	private static class CountingOutputStream extends OutputStream
+	{
+		long count = 0;
+
+		public void write(int b)
+		{
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2016 Mentor Graphics Corporation. All Rights Reserved.
+ * <p>
+ * Recipients who obtain this code directly from Mentor Graphics use it solely
+ * for internal purposes to serve as example Java web services.
+ * This code may not be used in a commercial distribution. Recipients may
+ * duplicate the code provided that all notices are fully reproduced with
+ * and remain in the code. No part of this code may be modified, reproduced,
+ * translated, used, distributed, disclosed or provided to third parties
+ * without the prior written consent of Mentor Graphics, except as expressly
+ * authorized above.
+ * <p>
+ * THE CODE IS MADE AVAILABLE "AS IS" WITHOUT WARRANTY OR SUPPORT OF ANY KIND.
+ * MENTOR GRAPHICS OFFERS NO EXPRESS OR IMPLIED WARRANTIES AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE,
+ * OR WARRANTY OF NON-INFRINGEMENT. IN NO EVENT SHALL MENTOR GRAPHICS OR ITS
+ * LICENSORS BE LIABLE FOR DIRECT, INDIRECT, SPECIAL, INCIDENTAL, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING LOST PROFITS OR SAVINGS) WHETHER BASED ON CONTRACT, TORT
+ * OR ANY OTHER LEGAL THEORY, EVEN IF MENTOR GRAPHICS OR ITS LICENSORS HAVE BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * <p>
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Captures the bytes of the SOAP requests and responses exchanged by the transports
+ * (see SOAPTransport.setWireCapture()) to files, without slowing down the requests.
+ *
+ * The bytes are copied as they are sent and received, up to a maximum body size, and
+ * written by a background thread. Only one exchange out of the sampling interval is
+ * captured. Capture files are rotated once they reach a maximum size, the oldest ones
+ * being deleted, and can be compressed with GZIP. Captures are dropped and counted if
+ * the writer cannot keep up.
+ */
+public class WireCapture
+{
+	public static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+	public static final int DEFAULT_MAX_FILES = 10;
+	public static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024;
+
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final byte[] LINE_END = { '\r', '\n' };
+
+	private final File m_directory;
+	private final String m_prefix;
+	private final long m_maxFileSize;
+	private final int m_maxFiles;
+	private final boolean m_compress;
+	private volatile int m_maxBodySize = DEFAULT_MAX_BODY_SIZE;
+	private volatile int m_samplingInterval = 1;
+
+	private final AtomicLong m_exchanges = new AtomicLong();
+	private final AtomicLong m_captured = new AtomicLong();
+	private final AtomicLong m_dropped = new AtomicLong();
+	private final BlockingQueue<Record> m_queue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+	private final Thread m_writer;
+	private volatile boolean m_closed = false;
+
+	// Only used by the writer thread
+	private final Deque<File> m_files = new ArrayDeque<File>();
+	private CountingOutputStream m_fileOut;
+	private OutputStream m_out;
+	private int m_fileIndex = 0;
+
+	/**
+	 * @param directory The directory of the capture files, created if needed
+	 * @param prefix The name prefix of the capture files
+	 * @param maxFileSize The size from which a capture file is rotated
+	 * @param maxFiles The number of capture files kept
+	 * @param compress true to compress the capture files with GZIP
+	 * @throws IOException The directory cannot be created
+	 */
+	public WireCapture(File directory, String prefix, long maxFileSize, int maxFiles, boolean compress)
+			throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the capture directory " + directory);
+		}
+		m_directory = directory;
+		m_prefix = prefix;
+		m_maxFileSize = maxFileSize;
+		m_maxFiles = Math.max(1, maxFiles);
+		m_compress = compress;
+
+		m_writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writeRecords();
+			}
+		}, "WireCapture");
+		m_writer.setDaemon(true);
+		m_writer.start();
+	}
+
+	/**
+	 * Sets the number of body bytes captured per request or response, the rest being truncated
+	 * @param maxBodySize The maximum number of bytes
+	 */
+	public void setMaxBodySize(int maxBodySize)
+	{
+		m_maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Sets the sampling of the exchanges
+	 * @param interval One exchange out of this number is captured
+	 */
+	public void setSamplingInterval(int interval)
+	{
+		if (interval < 1) {
+			throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+		}
+		m_samplingInterval = interval;
+	}
+
+	/**
+	 * Starts the capture of an exchange
+	 * @param url The URL the request is sent to
+	 * @return The capture record, or null if this exchange is not captured
+	 */
+	public Record startRecord(URL url)
+	{
+		if (m_closed || m_exchanges.getAndIncrement() % m_samplingInterval != 0) {
+			return null;
+		}
+		return new Record(url, m_maxBodySize);
+	}
+
+	/**
+	 * Writes the pending captures and closes the current capture file
+	 */
+	public void close()
+	{
+		m_closed = true;
+		m_writer.interrupt();
+		try {
+			m_writer.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getCapturedCount()
+	{
+		return m_captured.get();
+	}
+
+	/**
+	 * @return The number of captures dropped because the writer could not keep up
+	 */
+	public long getDroppedCount()
+	{
+		return m_dropped.get();
+	}
+
+	private void enqueue(Record record)
+	{
+		if (m_closed || !m_queue.offer(record)) {
+			m_dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The writer thread loop
+	 */
+	private void writeRecords()
+	{
+		try {
+			while (!m_closed || !m_queue.isEmpty()) {
+				Record record;
+				try {
+					record = m_closed ? m_queue.poll() : m_queue.poll(1, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException exc) {
+					continue;
+				}
+				if (record == null) {
+					// Idle: make the capture readable
+					if (m_out != null) {
+						m_out.flush();
+					}
+					continue;
+				}
+				try {
+					write(record);
+					m_captured.incrementAndGet();
+				}
+				catch (IOException exc) {
+					m_dropped.incrementAndGet();
+					System.err.println("Wire capture failed - " + exc);
+					closeFile();
+				}
+			}
+		}
+		catch (IOException exc) {
+			System.err.println("Wire capture failed - " + exc);
+		}
+		finally {
+			closeFile();
+		}
+	}
+
+	private void write(Record record) throws IOException
+	{
+		if (m_out == null || m_fileOut.getCount() >= m_maxFileSize) {
+			rotate();
+		}
+		m_out.write(record.getHeader().getBytes("UTF-8"));
+		m_out.write(LINE_END);
+		writeBody("Request", record.m_request, record.m_requestSize);
+		writeBody("Response", record.m_response, record.m_responseSize);
+		m_out.write(LINE_END);
+	}
+
+	private void writeBody(String title, LimitedBuffer body, long size) throws IOException
+	{
+		String header = "--- " + title + " (" + size + " bytes" +
+				(size > body.size() ? ", truncated to " + body.size() : "") + ")";
+		m_out.write(header.getBytes("UTF-8"));
+		m_out.write(LINE_END);
+		body.writeTo(m_out);
+		m_out.write(LINE_END);
+	}
+
+	private void rotate() throws IOException
+	{
+		closeFile();
+		while (m_files.size() >= m_maxFiles) {
+			File oldest = m_files.removeFirst();
+			if (!oldest.delete()) {
+				System.err.println("Cannot delete the capture file " + oldest);
+			}
+		}
+
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File file = new File(m_directory, m_prefix + "-" + timestamp + "-" + (m_fileIndex++) +
+				(m_compress ? ".log.gz" : ".log"));
+		m_fileOut = new CountingOutputStream(new FileOutputStream(file));
+		m_out = m_compress ? new GZIPOutputStream(m_fileOut, 8192, true) : new BufferedOutputStream(m_fileOut, 8192);
+		m_files.addLast(file);
+	}
+
+	private void closeFile()
+	{
+		if (m_out != null) {
+			try {
+				m_out.close();
+			}
+			catch (IOException exc) {
+				System.err.println("Cannot close the capture file - " + exc);
+			}
+			m_out = null;
+			m_fileOut = null;
+		}
+	}
+
+	/**
+	 * The capture of one exchange, filled by the thread sending the request
+	 */
+	public class Record
+	{
+		private final URL m_url;
+		private final long m_startTime = System.currentTimeMillis();
+		private final long m_start = System.nanoTime();
+		private final LimitedBuffer m_request;
+		private final LimitedBuffer m_response;
+		private long m_requestSize;
+		private long m_responseSize;
+		private long m_elapsed;
+		private boolean m_succeeded;
+		private boolean m_ended = false;
+
+		Record(URL url, int maxBodySize)
+		{
+			m_url = url;
+			m_request = new LimitedBuffer(maxBodySize);
+			m_response = new LimitedBuffer(maxBodySize);
+		}
+
+		/**
+		 * @param out The stream the request is written to
+		 * @return A stream writing to it and copying the request bytes to the capture
+		 */
+		public OutputStream teeRequest(OutputStream out)
+		{
+			return new FilterOutputStream(out)
+			{
+				public void write(int b) throws IOException
+				{
+					out.write(b);
+					captureRequest(new byte[] { (byte) b }, 0, 1);
+				}
+
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					out.write(b, off, len);
+					captureRequest(b, off, len);
+				}
+			};
+		}
+
+		/**
+		 * @param in The stream the response is read from
+		 * @return A stream reading from it and copying the response bytes to the capture
+		 */
+		public InputStream teeResponse(InputStream in)
+		{
+			return new FilterInputStream(in)
+			{
+				public int read() throws IOException
+				{
+					int b = in.read();
+					if (b != -1) {
+						captureResponse(new byte[] { (byte) b }, 0, 1);
+					}
+					return b;
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException
+				{
+					int count = in.read(b, off, len);
+					if (count > 0) {
+						captureResponse(b, off, count);
+					}
+					return count;
+				}
+			};
+		}
+
+		public void captureRequest(byte[] data, int offset, int length)
+		{
+			m_requestSize += length;
+			m_request.write(data, offset, length);
+		}
+
+		public void captureResponse(byte[] data, int offset, int length)
+		{
+			m_responseSize += length;
+			m_response.write(data, offset, length);
+		}
+
+		/**
+		 * Ends the capture and hands it to the writer. Only the first call has an effect.
+		 * @param succeeded false if the exchange failed
+		 */
+		public void end(boolean succeeded)
+		{
+			if (m_ended) {
+				return;
+			}
+			m_ended = true;
+			m_elapsed = System.nanoTime() - m_start;
+			m_succeeded = succeeded;
+			enqueue(this);
+		}
+
+		String getHeader()
+		{
+			return "=== " + new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(m_startTime)) +
+					" POST " + m_url + " " + TimeUnit.NANOSECONDS.toMillis(m_elapsed) + " ms" +
+					(m_succeeded ? "" : " FAILED");
+		}
+	}
+
+	/**
+	 * Keeps the first bytes written to it, up to a limit
+	 */
+	private static class LimitedBuffer extends ByteArrayOutputStream
+	{
+		private final int m_limit;
+
+		LimitedBuffer(int limit)
+		{
+			super(Math.min(limit, 4096));
+			m_limit = limit;
+		}
+
+		public synchronized void write(byte[] data, int offset, int length)
+		{
+			int kept = Math.min(length, m_limit - count);
+			if (kept > 0) {
+				super.write(data, offset, kept);
+			}
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream
+	{
+		private long m_count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			m_count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			m_count += len;
+		}
+
+		long getCount()
+		{
+			return m_count;
+		}
+	}
+}